@@ -0,0 +1,126 @@
+package main.algorithms.classification;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+import weka.core.neighboursearch.LinearNNSearch;
+
+import java.util.Arrays;
+
+import main.algorithms.distance.PairwiseDistanceCache;
+
+/**
+ * Linear nearest-neighbor search for IBk reading the distances of each query to the training
+ * instances from the shared pairwise distance cache.
+ *
+ * A query row is keyed by the query's values, the training data and the ranges of the
+ * distance function, so evaluating again with the same folds, for example with another k,
+ * finds every row already computed. The neighbors and distances are chosen from the cached
+ * values exactly as LinearNNSearch chooses them, ties at the k-th distance included.
+ * Skipping identical instances falls back to LinearNNSearch.
+ */
+public class CachedNNSearch extends LinearNNSearch {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient PairwiseDistanceCache.Rows rows;
+    private transient double[][] ranges;   // Ranges the rows handle was created with
+    private transient int rowsSize;
+
+    public CachedNNSearch() {
+        super();
+    }
+
+    public CachedNNSearch(Instances instances) {
+        super(instances);
+    }
+
+    @Override
+    public String globalInfo() {
+        return "Linear nearest-neighbour search reading the distances from a cache shared "
+                + "across runs, with the same results as LinearNNSearch.";
+    }
+
+    @Override
+    public void setInstances(Instances instances) throws Exception {
+        super.setInstances(instances);
+        rows = null;
+    }
+
+    @Override
+    public void setDistanceFunction(DistanceFunction distanceFunction) throws Exception {
+        super.setDistanceFunction(distanceFunction);
+        rows = null;
+    }
+
+    // New handle when the training instances or the ranges changed
+    private PairwiseDistanceCache.Rows prepare() throws Exception {
+        double[][] current = m_DistanceFunction instanceof NormalizableDistance
+                ? ((NormalizableDistance) m_DistanceFunction).getRanges() : null;
+        if (rows != null && rowsSize == m_Instances.numInstances() && Arrays.deepEquals(current, ranges)) {
+            return rows;
+        }
+        if (current != null) {
+            ranges = new double[current.length][];
+            for (int j = 0; j < current.length; j++) {
+                ranges[j] = current[j].clone();
+            }
+        } else {
+            ranges = null;
+        }
+        rowsSize = m_Instances.numInstances();
+        rows = PairwiseDistanceCache.shared().rows(m_Instances, m_DistanceFunction);
+        return rows;
+    }
+
+    @Override
+    public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
+        if (m_SkipIdentical || m_Instances == null) {
+            return super.kNearestNeighbours(target, kNN);
+        }
+        double[] distances = prepare().row(target);
+        int n = distances.length;
+
+        // The query itself is skipped, as in hold-one-out cross-validation
+        int self = -1;
+        for (int i = 0; i < n; i++) {
+            if (m_Instances.instance(i) == target) {
+                self = i;
+                break;
+            }
+        }
+        int eligible = self < 0 ? n : n - 1;
+        double kth = Double.POSITIVE_INFINITY;
+        if (kNN > 0 && kNN < eligible) {
+            kth = VectorNNSearch.kthSmallest(distances, self, kNN);
+        }
+
+        int count = 0;
+        Integer[] order = new Integer[Math.min(n, Math.max(16, 2 * kNN))];
+        for (int i = 0; i < n; i++) {
+            if (i != self && distances[i] <= kth) {
+                if (count == order.length) {
+                    order = Arrays.copyOf(order, count * 2);
+                }
+                order[count++] = i;
+            }
+        }
+        // Nearest first; the k-th distance and every tie with it are kept
+        Arrays.sort(order, 0, count, (a, b) -> distances[a] != distances[b]
+                ? Double.compare(distances[a], distances[b]) : Integer.compare(a, b));
+        int size = Math.min(kNN, count);
+        while (size > 0 && size < count && distances[order[size]] == distances[order[size - 1]]) {
+            size++;
+        }
+
+        Instances neighbours = new Instances(m_Instances, size);
+        m_Distances = new double[size];
+        for (int c = 0; c < size; c++) {
+            neighbours.add(m_Instances.instance(order[c]));
+            m_Distances[c] = distances[order[c]];
+        }
+        m_DistanceFunction.postProcessDistances(m_Distances);
+        return neighbours;
+    }
+}
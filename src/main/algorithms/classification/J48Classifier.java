@@ -4,11 +4,17 @@ import weka.classifiers.trees.J48;
 import weka.classifiers.Evaluation;
 import weka.core.Instance;
 import weka.core.Instances;
+
+import java.io.File;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class J48Classifier {
     private J48 classifier;
     private Evaluation evaluation;
+    private Instances header;   // Format of the training data
+    private int numThreads;     // Cross-validation folds and batch scoring: 1 = sequential, 0 = all cores
 
     public J48Classifier() {
         classifier = new J48();
@@ -23,18 +29,65 @@ public class J48Classifier {
             throw new Exception("Class attribute must be set before training the classifier.");
         }
         
-        evaluation = new Evaluation(trainingData);
         Random rand = new Random(1);
         int folds = 10;
-        evaluation.crossValidateModel(classifier, trainingData, folds, rand);
+        ParallelCrossValidation crossValidation = new ParallelCrossValidation(folds);
+        crossValidation.setNumThreads(numThreads);
+        evaluation = crossValidation.evaluate(classifier, trainingData, rand);
         
         classifier.buildClassifier(trainingData);
+        header = new Instances(trainingData, 0);
     }
 
     public double classifyInstance(Instance instance) throws Exception {
         return classifier.classifyInstance(instance);
     }
 
+    /**
+     * Classes of many instances in the training format, classified by numThreads threads.
+     */
+    public double[] classifyInstances(Instances instances) throws Exception {
+        if (header == null) {
+            throw new IllegalStateException("The classifier has not been trained yet.");
+        }
+        double[] predictions = new double[instances.numInstances()];
+        ForkJoinPool pool = numThreads == 1 ? null
+                : numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            if (pool == null) {
+                for (int i = 0; i < predictions.length; i++) {
+                    predictions[i] = classifier.classifyInstance(instances.instance(i));
+                }
+            } else {
+                // The tree is only read when classifying
+                pool.submit(() -> IntStream.range(0, predictions.length).parallel().forEach(i -> {
+                    try {
+                        predictions[i] = classifier.classifyInstance(instances.instance(i));
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })).get();
+            }
+        } finally {
+            if (pool != null && pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+        return predictions;
+    }
+
+    /**
+     * Classifies the rows of an unlabeled ARFF/CSV file read as a stream, in chunks of
+     * classifyInstances(), and writes the predicted class of each to output, one per line and
+     * in input order. Returns the number of rows.
+     */
+    public long classifyFile(File input, File output) throws Exception {
+        if (header == null) {
+            throw new IllegalStateException("The classifier has not been trained yet.");
+        }
+        return StreamingScorer.score(input, output, header, this::classifyInstances);
+    }
+
     public String getModelSummary() throws Exception {
         StringBuilder summary = new StringBuilder();
         summary.append("=== J48 Decision Tree Model Summary ===\n\n");
@@ -63,4 +116,13 @@ public class J48Classifier {
     public String[] getOptions() {
         return classifier.getOptions();
     }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    // Threads for the cross-validation folds and batch scoring; the results do not depend on it
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package main.algorithms.classification;
 
+import java.io.File;
 import java.util.Random;
 
 import weka.classifiers.Evaluation;
@@ -9,21 +10,63 @@ import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.ManhattanDistance;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
 
 public class KNNClassifier {
-    private IBk classifier;
+    private ScoringIBk classifier;
     private Evaluation evaluation;
+    private Instances header;   // Format of the training data
     private int k;
     private DistanceFunction distanceFunction;
+    private boolean vectorized;
+    private boolean useDistanceCache;
+    private NeighborSearch neighborSearch;
+    private int numThreads;   // Cross-validation folds and batch queries: 1 = sequential, 0 = all cores
 
     public enum DistanceMetric {
         EUCLIDEAN,
         MANHATTAN
     }
 
+    // How the neighbors of a query are found; all give the same neighbors
+    public enum NeighborSearch {
+        LINEAR,     // Scan of every training instance, with SIMD kernels when vectorized
+        AUTO,       // KD-tree, ball tree or SIMD scan, chosen from the data
+        KD_TREE,
+        BALL_TREE
+    }
+
+    // IBk giving the distribution of a query from neighbors searched outside it
+    private static class ScoringIBk extends IBk {
+        private static final long serialVersionUID = 1L;
+
+        ScoringIBk(int k) {
+            super(k);
+        }
+
+        double[] distribution(Instances neighbours, double[] distances) throws Exception {
+            return makeDistribution(neighbours, distances);
+        }
+    }
+
+    // Linear scan of the trained instances with the distance function as ranged, for one thread
+    // of a batch: LinearNNSearch keeps the distances of its last query, and setInstances() would
+    // reset the ranges the queries widened
+    private static class LinearWorker extends LinearNNSearch {
+        private static final long serialVersionUID = 1L;
+
+        LinearWorker(LinearNNSearch search) {
+            m_Instances = search.getInstances();
+            m_DistanceFunction = search.getDistanceFunction();
+            m_SkipIdentical = search.getSkipIdentical();
+        }
+    }
+
     public KNNClassifier(int k, DistanceMetric metric) {
         this.k = k;
-        this.classifier = new IBk(k);
+        this.classifier = new ScoringIBk(k);
+        this.neighborSearch = NeighborSearch.LINEAR;
         setDistanceMetric(metric);
     }
 
@@ -57,17 +100,110 @@ public class KNNClassifier {
         // Configuration de la fonction de distance pour les données d'entraînement
         distanceFunction.setInstances(trainingData);
         
-        evaluation = new Evaluation(trainingData);
         Random rand = new Random(1);
         int folds = 10;
-        evaluation.crossValidateModel(classifier, trainingData, folds, rand);
+        ParallelCrossValidation crossValidation = new ParallelCrossValidation(folds);
+        crossValidation.setNumThreads(numThreads);
+        evaluation = crossValidation.evaluate(classifier, trainingData, rand);
         classifier.buildClassifier(trainingData);
+        header = new Instances(trainingData, 0);
     }
 
     public double classifyInstance(Instance instance) throws Exception {
         return classifier.classifyInstance(instance);
     }
 
+    /**
+     * Classes of many queries in the training format at once, as classifyInstance() gives
+     * them. The ranges are widened with all the queries before any is searched, so a query
+     * outside the training ranges may move the predictions of those before it; otherwise the
+     * predictions are those of classifyInstance() one query after another.
+     */
+    public double[] classifyInstances(Instances queries) throws Exception {
+        if (header == null) {
+            throw new IllegalStateException("The classifier has not been trained yet.");
+        }
+        double[][] distances = new double[queries.numInstances()][];
+        Instances[] neighbours = nearestNeighbours(queries, distances);
+        double[] predictions = new double[neighbours.length];
+        for (int q = 0; q < predictions.length; q++) {
+            predictions[q] = StreamingScorer.predict(classifier.distribution(neighbours[q], distances[q]),
+                    header.classAttribute());
+        }
+        return predictions;
+    }
+
+    /**
+     * Classifies the rows of an unlabeled ARFF/CSV file read as a stream, in chunks of
+     * classifyInstances(), and writes the predicted class of each to output, one per line and
+     * in input order. Returns the number of rows.
+     *
+     * The ranges are first widened with every row, in a reading pass of its own, so the
+     * predictions do not depend on the chunks: they are those of classifyInstances() on the
+     * whole file.
+     */
+    public long classifyFile(File input, File output) throws Exception {
+        if (header == null) {
+            throw new IllegalStateException("The classifier has not been trained yet.");
+        }
+        NearestNeighbourSearch search = classifier.getNearestNeighbourSearchAlgorithm();
+        StreamingScorer.read(input, header, chunk -> {
+            for (int q = 0; q < chunk.numInstances(); q++) {
+                search.addInstanceInfo(chunk.instance(q));
+            }
+        });
+        return StreamingScorer.score(input, output, header, this::classifyInstances);
+    }
+
+    /**
+     * Neighbors of every query in the trained model, in one call. They are searched in
+     * parallel, except through the distance cache, after widening the ranges with all the
+     * queries as IBk would.
+     */
+    public Instances[] nearestNeighbours(Instances queries) throws Exception {
+        return nearestNeighbours(queries, new double[queries.numInstances()][]);
+    }
+
+    private Instances[] nearestNeighbours(Instances queries, double[][] distances) throws Exception {
+        NearestNeighbourSearch search = classifier.getNearestNeighbourSearchAlgorithm();
+        for (int q = 0; q < queries.numInstances(); q++) {
+            search.addInstanceInfo(queries.instance(q));
+        }
+        if (search instanceof VectorNNSearch) {
+            ((VectorNNSearch) search).setNumThreads(numThreads);
+            return ((VectorNNSearch) search).kNearestNeighbours(queries, k, distances);
+        }
+        Instances[] neighbours = new Instances[queries.numInstances()];
+        if (search.getClass() == LinearNNSearch.class) {
+            ThreadLocal<LinearWorker> workers = ThreadLocal.withInitial(() -> new LinearWorker((LinearNNSearch) search));
+            VectorNNSearch.forEach(numThreads, neighbours.length, q -> {
+                LinearWorker worker = workers.get();
+                try {
+                    neighbours[q] = worker.kNearestNeighbours(queries.instance(q), k);
+                    distances[q] = worker.getDistances();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            return neighbours;
+        }
+        for (int q = 0; q < neighbours.length; q++) {
+            neighbours[q] = search.kNearestNeighbours(queries.instance(q), k);
+            distances[q] = search.getDistances();
+        }
+        return neighbours;
+    }
+
+    /**
+     * Leave-one-out accuracy and confusion matrix of every k up to maxK for both distance
+     * metrics, from one neighbor search per metric instead of a cross-validation per k.
+     */
+    public KNNSweep sweepK(Instances trainingData, int maxK) throws Exception {
+        KNNSweep sweep = new KNNSweep(maxK);
+        sweep.run(trainingData);
+        return sweep;
+    }
+
     public String getModelSummary() throws Exception {
         StringBuilder summary = new StringBuilder();
         summary.append("=== K-Nearest Neighbors Classifier Summary ===\n\n");
@@ -97,6 +233,61 @@ public class KNNClassifier {
         classifier.setKNN(k);
     }
 
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    // Neighbor search with SIMD distance kernels (same neighbors as the default linear search)
+    public void setVectorized(boolean vectorized) throws Exception {
+        this.vectorized = vectorized;
+        updateSearch();
+    }
+
+    public boolean isUseDistanceCache() {
+        return useDistanceCache;
+    }
+
+    // Neighbor search reading distances from the shared cache, reused by later evaluations;
+    // takes precedence over the SIMD kernels
+    public void setUseDistanceCache(boolean useDistanceCache) throws Exception {
+        this.useDistanceCache = useDistanceCache;
+        updateSearch();
+    }
+
+    public NeighborSearch getNeighborSearch() {
+        return neighborSearch;
+    }
+
+    // Tree searches fall back to the SIMD scan where a tree cannot help; the cache takes precedence
+    public void setNeighborSearch(NeighborSearch neighborSearch) throws Exception {
+        this.neighborSearch = neighborSearch;
+        updateSearch();
+    }
+
+    private void updateSearch() throws Exception {
+        LinearNNSearch search;
+        if (useDistanceCache) {
+            search = new CachedNNSearch();
+        } else if (neighborSearch != NeighborSearch.LINEAR) {
+            search = new TreeNNSearch(TreeNNSearch.Structure.valueOf(neighborSearch.name()));
+        } else if (vectorized) {
+            search = new VectorNNSearch();
+        } else {
+            search = new LinearNNSearch();
+        }
+        search.setDistanceFunction(distanceFunction);
+        classifier.setNearestNeighbourSearchAlgorithm(search);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    // Threads for the cross-validation folds and batch queries; the results do not depend on it
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     public DistanceFunction getDistanceFunction() {
         return distanceFunction;
     }
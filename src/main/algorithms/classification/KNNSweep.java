@@ -0,0 +1,198 @@
+package main.algorithms.classification;
+
+import weka.classifiers.Evaluation;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.Utils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import main.algorithms.classification.KNNClassifier.DistanceMetric;
+
+/**
+ * Leave-one-out evaluation of IBk for every k up to maxK and both distance metrics, from a
+ * single neighbor search per metric, to pick k without a cross-validation per candidate.
+ *
+ * Each training instance is queried once for its maxK nearest neighbors, itself excluded as
+ * LinearNNSearch excludes the query in hold-one-out cross-validation. The ranges are those
+ * of the whole data, which is what IBk trained on the other instances sees once it widened
+ * them with the held-out one. The prediction for k then votes over the neighbors up to the
+ * k-th distance, ties included, with IBk's weights and correction, so it is the distribution
+ * IBk left out of that instance would give. Evaluations keep no predictions, and their
+ * statistics relative to the priors use the priors of the whole data rather than of each
+ * left-out training set; the counts and the confusion matrix are those of IBk.
+ */
+public class KNNSweep {
+
+    private int maxK;
+    private int numThreads;              // Neighbor searches: 1 = sequential, 0 = all available cores
+
+    private Evaluation[][] evaluations;  // [metric][k - 1]
+
+    public KNNSweep(int maxK) {
+        this.maxK = maxK;
+        this.numThreads = 0;
+    }
+
+    public void run(Instances data) throws Exception {
+        if (maxK < 1) {
+            throw new IllegalArgumentException("Largest k must be at least 1");
+        }
+        if (data.classIndex() < 0) {
+            throw new Exception("Class attribute must be set before training the classifier.");
+        }
+        if (!data.classAttribute().isNominal()) {
+            throw new IllegalArgumentException("Leave-one-out sweep needs a nominal class");
+        }
+        Instances train = new Instances(data);
+        train.deleteWithMissingClass();
+        if (train.numInstances() < 2) {
+            throw new IllegalArgumentException("At least two instances with a class are needed");
+        }
+        DistanceMetric[] metrics = DistanceMetric.values();
+        Evaluation[][] result = new Evaluation[metrics.length][];
+        for (int m = 0; m < metrics.length; m++) {
+            result[m] = evaluate(train, metrics[m]);
+        }
+        evaluations = result;
+    }
+
+    private Evaluation[] evaluate(Instances train, DistanceMetric metric) throws Exception {
+        DistanceFunction distanceFunction = metric == DistanceMetric.MANHATTAN
+                ? new ManhattanDistance() : new EuclideanDistance();
+        TreeNNSearch search = new TreeNNSearch();
+        search.setNumThreads(numThreads);
+        search.setDistanceFunction(distanceFunction);
+        search.setInstances(train);
+        // The queries are the training instances themselves, so each one is skipped
+        Instances[] neighbours = search.kNearestNeighbours(train, maxK, new double[train.numInstances()][]);
+
+        Evaluation[] byK = new Evaluation[maxK];
+        for (int k = 0; k < maxK; k++) {
+            byK[k] = new Evaluation(train);
+        }
+        int numClasses = train.numClasses();
+        double correction = 1.0 / Math.max(1, train.numInstances() - 1);
+        for (int i = 0; i < train.numInstances(); i++) {
+            Instance target = train.instance(i);
+            Instances found = neighbours[i];
+            // Unprocessed distances, so that ties are those of the search
+            double[] raw = new double[found.numInstances()];
+            for (int j = 0; j < raw.length; j++) {
+                raw[j] = distanceFunction.distance(target, found.instance(j), Double.POSITIVE_INFINITY);
+            }
+            Integer[] order = IntStream.range(0, raw.length).boxed().toArray(Integer[]::new);
+            Arrays.sort(order, Comparator.comparingDouble(j -> raw[j]));
+
+            double[] votes = new double[numClasses];
+            Arrays.fill(votes, correction);
+            double total = numClasses * correction;
+            int used = 0;
+            for (int k = 1; k <= maxK; k++) {
+                if (used < raw.length) {
+                    // Neighbors up to the k-th distance, and any tied with it
+                    double kth = raw[order[Math.min(k, raw.length) - 1]];
+                    while (used < raw.length && raw[order[used]] <= kth) {
+                        Instance neighbour = found.instance(order[used++]);
+                        votes[(int) neighbour.classValue()] += neighbour.weight();
+                        total += neighbour.weight();
+                    }
+                }
+                double[] distribution = votes.clone();
+                if (total > 0) {
+                    Utils.normalize(distribution, total);
+                }
+                byK[k - 1].evaluationForSingleInstance(distribution, target, false);
+            }
+        }
+        return byK;
+    }
+
+    private int indexOf(DistanceMetric metric, int k) {
+        if (evaluations == null) {
+            throw new IllegalStateException("The sweep has not been run yet.");
+        }
+        if (k < 1 || k > maxK) {
+            throw new IllegalArgumentException("k outside the swept range: " + k);
+        }
+        return metric.ordinal();
+    }
+
+    /**
+     * Leave-one-out evaluation of k neighbors with the metric.
+     */
+    public Evaluation getEvaluation(DistanceMetric metric, int k) {
+        return evaluations[indexOf(metric, k)][k - 1];
+    }
+
+    public double getAccuracy(DistanceMetric metric, int k) {
+        return getEvaluation(metric, k).pctCorrect();
+    }
+
+    /**
+     * k with the highest leave-one-out accuracy for the metric, ties going to the smaller k.
+     */
+    public int getBestK(DistanceMetric metric) {
+        int best = 1;
+        for (int k = 2; k <= maxK; k++) {
+            if (getAccuracy(metric, k) > getAccuracy(metric, best)) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    // Getters and setters
+    public int getMaxK() {
+        return maxK;
+    }
+
+    public void setMaxK(int maxK) {
+        this.maxK = maxK;
+        evaluations = null;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Accuracy-vs-k table for both metrics, followed by the confusion matrix of the best k.
+     */
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append("=== K-Nearest Neighbors Leave-One-Out Sweep ===\n\n");
+        if (evaluations == null) {
+            return table.append("Sweep not run.\n").toString();
+        }
+        table.append(String.format("%4s  %12s  %12s  %12s  %12s%n",
+                "k", "Euclidean", "F1", "Manhattan", "F1"));
+        for (int k = 1; k <= maxK; k++) {
+            Evaluation euclidean = getEvaluation(DistanceMetric.EUCLIDEAN, k);
+            Evaluation manhattan = getEvaluation(DistanceMetric.MANHATTAN, k);
+            table.append(String.format("%4d  %11.2f%%  %12.3f  %11.2f%%  %12.3f%n", k,
+                    euclidean.pctCorrect(), euclidean.weightedFMeasure(),
+                    manhattan.pctCorrect(), manhattan.weightedFMeasure()));
+        }
+        for (DistanceMetric metric : DistanceMetric.values()) {
+            int best = getBestK(metric);
+            table.append(String.format("%nBest k for %s: %d (%.2f%%)%n", metric, best, getAccuracy(metric, best)));
+            try {
+                table.append(getEvaluation(metric, best).toMatrixString());
+            } catch (Exception e) {
+                table.append(e.getMessage()).append('\n');
+            }
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package main.algorithms.classification;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * k-fold cross-validation whose folds are trained and tested at the same time, with the
+ * results of Evaluation.crossValidateModel().
+ *
+ * The data is shuffled and stratified, and the training set of every fold drawn, in the order
+ * crossValidateModel() does it with the same Random, so each fold trains on the same instances
+ * in the same order. Each fold then builds its own copy of the classifier and predicts its
+ * test instances, numThreads folds at a time. The predictions are recorded afterwards fold by
+ * fold into one Evaluation, with the priors of the fold's training set, in the order the
+ * sequential run records them: the accuracy, precision, recall, F-measure and confusion
+ * matrix come out identical.
+ */
+public class ParallelCrossValidation {
+
+    private int numFolds;
+    private int numThreads;   // 1 = sequential, 0 = all available cores
+
+    public ParallelCrossValidation(int numFolds) {
+        this.numFolds = numFolds;
+        this.numThreads = 0;
+    }
+
+    public Evaluation evaluate(Classifier classifier, Instances data, Random random) throws Exception {
+        if (numFolds < 2) {
+            throw new IllegalArgumentException("Number of folds must be at least 2");
+        }
+        Evaluation evaluation = new Evaluation(data);
+        Instances shuffled = new Instances(data);
+        shuffled.randomize(random);
+        if (shuffled.classAttribute().isNominal()) {
+            shuffled.stratify(numFolds);
+        }
+        // Drawn in order: every training set is shuffled with the shared Random
+        Instances[] train = new Instances[numFolds];
+        Instances[] test = new Instances[numFolds];
+        for (int fold = 0; fold < numFolds; fold++) {
+            train[fold] = shuffled.trainCV(numFolds, fold, random);
+            test[fold] = shuffled.testCV(numFolds, fold);
+        }
+
+        double[][][] predictions = new double[numFolds][][];
+        ForkJoinPool pool = numThreads == 1 ? null
+                : numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            if (pool == null) {
+                for (int fold = 0; fold < numFolds; fold++) {
+                    predictions[fold] = predict(classifier, train[fold], test[fold]);
+                }
+            } else {
+                pool.submit(() -> IntStream.range(0, numFolds).parallel().forEach(fold -> {
+                    try {
+                        predictions[fold] = predict(classifier, train[fold], test[fold]);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })).get();
+            }
+        } finally {
+            if (pool != null && pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+
+        for (int fold = 0; fold < numFolds; fold++) {
+            evaluation.setPriors(train[fold]);
+            for (int i = 0; i < test[fold].numInstances(); i++) {
+                evaluation.evaluationForSingleInstance(predictions[fold][i], test[fold].instance(i), true);
+            }
+        }
+        return evaluation;
+    }
+
+    // Distributions of the test instances, predicted with their class hidden as Evaluation does
+    private static double[][] predict(Classifier template, Instances train, Instances test) throws Exception {
+        Classifier classifier = AbstractClassifier.makeCopy(template);
+        classifier.buildClassifier(train);
+        double[][] distributions = new double[test.numInstances()][];
+        for (int i = 0; i < distributions.length; i++) {
+            Instance classMissing = (Instance) test.instance(i).copy();
+            classMissing.setDataset(test);
+            classMissing.setClassMissing();
+            distributions[i] = classifier.distributionForInstance(classMissing);
+        }
+        return distributions;
+    }
+
+    // Getters and setters
+    public int getNumFolds() {
+        return numFolds;
+    }
+
+    public void setNumFolds(int numFolds) {
+        this.numFolds = numFolds;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Number of folds run at the same time: 1 runs them one after another, 0 uses all cores.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+}
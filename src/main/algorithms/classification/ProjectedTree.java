@@ -0,0 +1,436 @@
+package main.algorithms.classification;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Binary space-partitioning tree over projected points, answering k-nearest and range queries
+ * on the Euclidean or Manhattan distance between them. Distances and thresholds are in the
+ * units of the distance functions' own sums: squared for Euclidean.
+ *
+ * Both layouts reorder the points so that every node covers a contiguous slice and stop at
+ * leaves of a few points. The KD layout splits the widest dimension at its median and bounds
+ * a node by its box, which prunes well in few dimensions. The ball layout splits along the
+ * line between two far apart points and bounds a node by a ball, which still prunes when
+ * there are too many dimensions for boxes to be tight. Queries are safe from several threads.
+ */
+abstract class ProjectedTree {
+
+    private static final int LEAF_SIZE = 16;
+
+    protected final int dimensions;
+    protected final boolean squared;    // Euclidean, else Manhattan
+    protected final double[] points;    // Row-major, in tree order
+    protected final int[] index;        // Original index of each point in tree order
+    protected int[] start;
+    protected int[] end;
+    protected int[] left;               // -1 for a leaf
+    protected int[] right;
+    protected int numNodes;
+    protected double[] keys;            // Split keys of the points, while building
+
+    protected ProjectedTree(double[] points, int count, int dimensions, boolean squared) {
+        this.dimensions = dimensions;
+        this.squared = squared;
+        this.points = points.clone();
+        this.index = new int[count];
+        for (int i = 0; i < count; i++) {
+            index[i] = i;
+        }
+        int capacity = Math.max(1, 2 * (count / (LEAF_SIZE / 2) + 1));
+        start = new int[capacity];
+        end = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+    }
+
+    static ProjectedTree kd(double[] points, int count, int dimensions, boolean squared) {
+        KD tree = new KD(points, count, dimensions, squared);
+        tree.build(count);
+        return tree;
+    }
+
+    static ProjectedTree ball(double[] points, int count, int dimensions, boolean squared) {
+        Ball tree = new Ball(points, count, dimensions, squared);
+        tree.build(count);
+        return tree;
+    }
+
+    // Builds the nodes top-down; node 0 is the root
+    protected void build(int count) {
+        numNodes = 0;
+        keys = new double[count];
+        int[] stack = new int[64];
+        int depth = 0;
+        stack[depth++] = newNode(0, count);
+        while (depth > 0) {
+            int node = stack[--depth];
+            bound(node);
+            if (end[node] - start[node] <= LEAF_SIZE) {
+                continue;
+            }
+            int middle = split(node);
+            if (middle <= start[node] || middle >= end[node]) {
+                continue; // Identical points
+            }
+            left[node] = newNode(start[node], middle);
+            right[node] = newNode(middle, end[node]);
+            if (depth + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[depth++] = left[node];
+            stack[depth++] = right[node];
+        }
+        keys = null;
+    }
+
+    private int newNode(int from, int to) {
+        if (numNodes == start.length) {
+            int capacity = numNodes * 2;
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            grow(capacity);
+        }
+        start[numNodes] = from;
+        end[numNodes] = to;
+        left[numNodes] = -1;
+        right[numNodes] = -1;
+        return numNodes++;
+    }
+
+    // Grows the per-node bound arrays
+    protected abstract void grow(int capacity);
+
+    // Computes the bound of a node from its points
+    protected abstract void bound(int node);
+
+    // Reorders the points of a node in two halves; returns where the second starts
+    protected abstract int split(int node);
+
+    // Lower bound of the distance from the query to any point of the node
+    protected abstract double nodeBound(int node, double[] query);
+
+    protected double distance(double[] query, int position) {
+        int offset = position * dimensions;
+        double sum = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double gap = query[d] - points[offset + d];
+            sum += squared ? gap * gap : Math.abs(gap);
+        }
+        return sum;
+    }
+
+    // Splits a slice at its median key
+    protected int partition(int from, int to) {
+        int middle = (from + to) >>> 1;
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (middle <= j) {
+                hi = j;
+            } else if (middle >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return middle;
+    }
+
+    private void swap(int a, int b) {
+        double key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        int i = index[a];
+        index[a] = index[b];
+        index[b] = i;
+        int oa = a * dimensions;
+        int ob = b * dimensions;
+        for (int d = 0; d < dimensions; d++) {
+            double value = points[oa + d];
+            points[oa + d] = points[ob + d];
+            points[ob + d] = value;
+        }
+    }
+
+    /**
+     * The k points nearest to the query, other than the skipped index, written to the indices
+     * and distances from the nearest; returns how many were found.
+     */
+    int nearest(double[] query, int k, int skip, int[] indices, double[] distances) {
+        // Max-heap of the best so far, by distance
+        int count = 0;
+        PriorityQueue<double[]> nodes = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        nodes.add(new double[]{nodeBound(0, query), 0});
+        while (!nodes.isEmpty()) {
+            double[] entry = nodes.poll();
+            if (count == k && entry[0] > distances[0]) {
+                break;
+            }
+            int node = (int) entry[1];
+            if (left[node] >= 0) {
+                nodes.add(new double[]{nodeBound(left[node], query), left[node]});
+                nodes.add(new double[]{nodeBound(right[node], query), right[node]});
+                continue;
+            }
+            for (int p = start[node]; p < end[node]; p++) {
+                if (index[p] == skip) {
+                    continue;
+                }
+                double distance = distance(query, p);
+                if (count < k) {
+                    siftUp(indices, distances, count++, index[p], distance);
+                } else if (distance < distances[0]) {
+                    siftDown(indices, distances, k, index[p], distance);
+                }
+            }
+        }
+        // Heap to increasing order
+        for (int size = count - 1; size > 0; size--) {
+            int i = indices[0];
+            double distance = distances[0];
+            siftDown(indices, distances, size, indices[size], distances[size]);
+            indices[size] = i;
+            distances[size] = distance;
+        }
+        return count;
+    }
+
+    private static void siftUp(int[] indices, double[] distances, int hole, int i, double distance) {
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            if (distances[parent] >= distance) {
+                break;
+            }
+            indices[hole] = indices[parent];
+            distances[hole] = distances[parent];
+            hole = parent;
+        }
+        indices[hole] = i;
+        distances[hole] = distance;
+    }
+
+    // Replaces the root of a heap of the given size and restores the order
+    private static void siftDown(int[] indices, double[] distances, int size, int i, double distance) {
+        int hole = 0;
+        while (true) {
+            int child = 2 * hole + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= distance) {
+                break;
+            }
+            indices[hole] = indices[child];
+            distances[hole] = distances[child];
+            hole = child;
+        }
+        indices[hole] = i;
+        distances[hole] = distance;
+    }
+
+    /**
+     * Indices of every point within the threshold of the query, other than the skipped index,
+     * written from position 0 of a buffer grown as needed; returns the buffer, its first
+     * element being the count.
+     */
+    int[] within(double[] query, double threshold, int skip, int[] buffer) {
+        int count = 0;
+        int[] stack = new int[64];
+        int depth = 0;
+        stack[depth++] = 0;
+        while (depth > 0) {
+            int node = stack[--depth];
+            if (nodeBound(node, query) > threshold) {
+                continue;
+            }
+            if (left[node] >= 0) {
+                if (depth + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[depth++] = right[node];
+                stack[depth++] = left[node];
+                continue;
+            }
+            for (int p = start[node]; p < end[node]; p++) {
+                if (index[p] != skip && distance(query, p) <= threshold) {
+                    if (count + 1 >= buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    buffer[++count] = index[p];
+                }
+            }
+        }
+        buffer[0] = count;
+        return buffer;
+    }
+
+    // Boxes, split on the widest dimension at the median
+    private static final class KD extends ProjectedTree {
+
+        private double[] lower;
+        private double[] upper;
+
+        KD(double[] points, int count, int dimensions, boolean squared) {
+            super(points, count, dimensions, squared);
+            lower = new double[start.length * dimensions];
+            upper = new double[start.length * dimensions];
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            lower = Arrays.copyOf(lower, capacity * dimensions);
+            upper = Arrays.copyOf(upper, capacity * dimensions);
+        }
+
+        @Override
+        protected void bound(int node) {
+            int offset = node * dimensions;
+            Arrays.fill(lower, offset, offset + dimensions, Double.POSITIVE_INFINITY);
+            Arrays.fill(upper, offset, offset + dimensions, Double.NEGATIVE_INFINITY);
+            for (int p = start[node]; p < end[node]; p++) {
+                for (int d = 0; d < dimensions; d++) {
+                    double value = points[p * dimensions + d];
+                    lower[offset + d] = Math.min(lower[offset + d], value);
+                    upper[offset + d] = Math.max(upper[offset + d], value);
+                }
+            }
+        }
+
+        @Override
+        protected int split(int node) {
+            int offset = node * dimensions;
+            int widest = 0;
+            for (int d = 1; d < dimensions; d++) {
+                if (upper[offset + d] - lower[offset + d] > upper[offset + widest] - lower[offset + widest]) {
+                    widest = d;
+                }
+            }
+            if (dimensions == 0 || upper[offset + widest] == lower[offset + widest]) {
+                return start[node];
+            }
+            for (int p = start[node]; p < end[node]; p++) {
+                keys[p] = points[p * dimensions + widest];
+            }
+            return partition(start[node], end[node]);
+        }
+
+        @Override
+        protected double nodeBound(int node, double[] query) {
+            int offset = node * dimensions;
+            double sum = 0;
+            for (int d = 0; d < dimensions; d++) {
+                double gap = Math.max(0, Math.max(lower[offset + d] - query[d], query[d] - upper[offset + d]));
+                sum += squared ? gap * gap : gap;
+            }
+            return sum;
+        }
+    }
+
+    // Balls around the mean, split between two far apart points
+    private static final class Ball extends ProjectedTree {
+
+        private double[] centers;
+        private double[] radii;     // Plain distances, not squared
+
+        Ball(double[] points, int count, int dimensions, boolean squared) {
+            super(points, count, dimensions, squared);
+            centers = new double[start.length * dimensions];
+            radii = new double[start.length];
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            centers = Arrays.copyOf(centers, capacity * dimensions);
+            radii = Arrays.copyOf(radii, capacity);
+        }
+
+        @Override
+        protected void bound(int node) {
+            int offset = node * dimensions;
+            int size = end[node] - start[node];
+            Arrays.fill(centers, offset, offset + dimensions, 0);
+            for (int p = start[node]; p < end[node]; p++) {
+                for (int d = 0; d < dimensions; d++) {
+                    centers[offset + d] += points[p * dimensions + d] / size;
+                }
+            }
+            double radius = 0;
+            double[] center = Arrays.copyOfRange(centers, offset, offset + dimensions);
+            for (int p = start[node]; p < end[node]; p++) {
+                radius = Math.max(radius, plain(distance(center, p)));
+            }
+            // Widened so that rounding of the center never excludes a point
+            radii[node] = radius * (1 + 1e-9) + 1e-12;
+        }
+
+        private double plain(double distance) {
+            return squared ? Math.sqrt(distance) : distance;
+        }
+
+        @Override
+        protected int split(int node) {
+            double[] first = Arrays.copyOfRange(points, start[node] * dimensions, (start[node] + 1) * dimensions);
+            int a = farthest(node, first);
+            double[] pointA = Arrays.copyOfRange(points, a * dimensions, (a + 1) * dimensions);
+            int b = farthest(node, pointA);
+            double[] pointB = Arrays.copyOfRange(points, b * dimensions, (b + 1) * dimensions);
+            boolean distinct = false;
+            for (int p = start[node]; p < end[node]; p++) {
+                double key = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    key += (points[p * dimensions + d] - pointA[d]) * (pointB[d] - pointA[d]);
+                }
+                keys[p] = key;
+                distinct |= key != keys[start[node]];
+            }
+            return distinct ? partition(start[node], end[node]) : start[node];
+        }
+
+        private int farthest(int node, double[] from) {
+            int farthest = start[node];
+            double best = -1;
+            for (int p = start[node]; p < end[node]; p++) {
+                double distance = distance(from, p);
+                if (distance > best) {
+                    best = distance;
+                    farthest = p;
+                }
+            }
+            return farthest;
+        }
+
+        @Override
+        protected double nodeBound(int node, double[] query) {
+            int offset = node * dimensions;
+            double sum = 0;
+            for (int d = 0; d < dimensions; d++) {
+                double gap = query[d] - centers[offset + d];
+                sum += squared ? gap * gap : Math.abs(gap);
+            }
+            double gap = Math.max(0, plain(sum) - radii[node]);
+            return squared ? gap * gap : gap;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package main.algorithms.classification;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * File-to-file scoring for a trained classifier: the rows of an ARFF/CSV file are read as a
+ * stream in chunks, each chunk is classified as a batch, and the predicted class of every row
+ * is written one per line, in input order.
+ *
+ * Input attributes are matched to the training ones by name, nominal values by label; the
+ * class may be absent or unknown, and unknown labels become missing values. The next chunk is
+ * read on a separate thread while the current one is classified, so at most two chunks are in
+ * memory whatever the size of the file.
+ */
+final class StreamingScorer {
+
+    static final int CHUNK_SIZE = 8192;   // Rows classified per batch
+
+    // Classifies a chunk of rows in the training format
+    interface ChunkClassifier {
+        double[] classify(Instances chunk) throws Exception;
+    }
+
+    // Receives a chunk of rows in the training format
+    interface ChunkReader {
+        void read(Instances chunk) throws Exception;
+    }
+
+    private final Instances header;       // Training format, class set
+    private final DataSource source;
+    private final Instances structure;    // Format of the file
+    private final int[] sources;          // Column of each training attribute, -1 if absent
+
+    private StreamingScorer(Instances header, File input) throws Exception {
+        this.header = new Instances(header, 0);
+        source = new DataSource(input.getPath());
+        structure = source.getStructure();
+        sources = new int[header.numAttributes()];
+        for (int j = 0; j < header.numAttributes(); j++) {
+            Attribute attribute = structure.attribute(header.attribute(j).name());
+            if (attribute == null && j != header.classIndex()) {
+                throw new IllegalArgumentException("Attribute missing from the input: " + header.attribute(j).name());
+            }
+            sources[j] = j == header.classIndex() || attribute == null ? -1 : attribute.index();
+        }
+    }
+
+    /**
+     * Scores the file and returns the number of rows written.
+     */
+    static long score(File input, File output, Instances header, ChunkClassifier classifier) throws Exception {
+        StreamingScorer scorer = new StreamingScorer(header, input);
+        Attribute classAttribute = header.classAttribute();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        long rows = 0;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(output))) {
+            Future<Instances> next = reader.submit(scorer::readChunk);
+            while (true) {
+                Instances chunk = next.get();
+                if (chunk.numInstances() == 0) {
+                    break;
+                }
+                next = reader.submit(scorer::readChunk);
+                for (double prediction : classifier.classify(chunk)) {
+                    writer.write(label(prediction, classAttribute));
+                    writer.newLine();
+                }
+                rows += chunk.numInstances();
+            }
+        } finally {
+            reader.shutdownNow();
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the file chunk by chunk in the training format, without scoring it.
+     */
+    static void read(File input, Instances header, ChunkReader reader) throws Exception {
+        StreamingScorer scorer = new StreamingScorer(header, input);
+        for (Instances chunk = scorer.readChunk(); chunk.numInstances() > 0; chunk = scorer.readChunk()) {
+            reader.read(chunk);
+        }
+    }
+
+    // Next rows of the file in the training format, none at the end
+    private Instances readChunk() throws Exception {
+        Instances chunk = new Instances(header, CHUNK_SIZE);
+        while (chunk.numInstances() < CHUNK_SIZE && source.hasMoreElements(structure)) {
+            chunk.add(map(source.nextElement(structure)));
+        }
+        return chunk;
+    }
+
+    private Instance map(Instance row) {
+        double[] values = new double[header.numAttributes()];
+        for (int j = 0; j < values.length; j++) {
+            int column = sources[j];
+            if (column < 0 || row.isMissing(column)) {
+                values[j] = Utils.missingValue();
+            } else if (header.attribute(j).isNominal()) {
+                String text = row.attribute(column).isNumeric() ? row.toString(column) : row.stringValue(column);
+                int index = header.attribute(j).indexOfValue(text);
+                values[j] = index >= 0 ? index : Utils.missingValue();
+            } else if (!row.attribute(column).isNumeric()) {
+                values[j] = Double.parseDouble(row.stringValue(column));
+            } else {
+                values[j] = row.value(column);
+            }
+        }
+        return new DenseInstance(row.weight(), values);
+    }
+
+    /**
+     * Predicted value from a class distribution, as AbstractClassifier.classifyInstance() takes it.
+     */
+    static double predict(double[] distribution, Attribute classAttribute) {
+        if (!classAttribute.isNominal()) {
+            return distribution[0];
+        }
+        double max = 0;
+        int maxIndex = 0;
+        for (int c = 0; c < distribution.length; c++) {
+            if (distribution[c] > max) {
+                maxIndex = c;
+                max = distribution[c];
+            }
+        }
+        return max > 0 ? maxIndex : Utils.missingValue();
+    }
+
+    private static String label(double prediction, Attribute classAttribute) {
+        if (Utils.isMissingValue(prediction)) {
+            return "?";
+        }
+        return classAttribute.isNominal() ? classAttribute.value((int) prediction) : Double.toString(prediction);
+    }
+}
@@ -0,0 +1,254 @@
+package main.algorithms.classification;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import main.algorithms.clustering.index.CoordinateProjection;
+
+/**
+ * Nearest-neighbor search for IBk over a KD-tree or a ball tree of the normalized numeric
+ * attributes, with the same results as LinearNNSearch.
+ *
+ * The tree finds the k instances nearest to the query on the numeric attributes, whose
+ * distance is a lower bound of the real one (nominal attributes can only add to it). The
+ * largest real distance among those k bounds the k-th nearest, so a range query at that
+ * distance returns every instance that can be a neighbor; they are measured with the distance
+ * function and chosen exactly as LinearNNSearch chooses, ties at the k-th distance included.
+ * With numeric attributes only, a query costs about O(log n) distances instead of n.
+ *
+ * AUTO takes a KD-tree over up to 12 numeric attributes, for Euclidean and Manhattan
+ * distances alike, and the SIMD scan of VectorNNSearch for small training sets or more
+ * dimensions, where measured on clustered data both trees visit too many leaves to beat it.
+ * The ball tree is kept for data whose points lie near a space of few dimensions. The scan
+ * also answers whatever the trees cannot: other distance functions, missing values, skipped
+ * identical instances. Date attributes, which the distance function counts no difference
+ * on, are left out of the tree, and AUTO leaves data with any to LinearNNSearch. The tree is rebuilt when the training instances or the ranges of the
+ * distance function change.
+ */
+public class TreeNNSearch extends VectorNNSearch {
+
+    private static final long serialVersionUID = 1L;
+    private static final double SLACK = 1e-9;           // Rounding between the tree and the distance function
+    private static final int MAX_TREE_DIMENSIONS = 12;  // Beyond, AUTO scans
+    private static final int MIN_TREE_SIZE = 256;       // Smaller training sets are scanned
+
+    // Structure searched for the neighbors
+    public enum Structure {
+        AUTO,        // KD-tree or scan, chosen from the dimensions and the size of the data
+        KD_TREE,     // Boxes, for few dimensions
+        BALL_TREE,   // Balls, for many dimensions of which only a few vary together
+        BRUTE_FORCE  // SIMD scan of every instance
+    }
+
+    private Structure structure;
+
+    private transient CoordinateProjection treeProjection;
+    private transient ProjectedTree tree;              // Null when the scan answers
+    private transient Structure built;
+    private transient double[][] treeRanges;           // Ranges the tree was built with
+    private transient int treeSize;
+    private transient Map<Instance, Integer> positions; // Training instances by identity
+
+    public TreeNNSearch() {
+        this(Structure.AUTO);
+    }
+
+    public TreeNNSearch(Structure structure) {
+        super();
+        this.structure = structure;
+    }
+
+    @Override
+    public String globalInfo() {
+        return "Nearest-neighbour search over a KD-tree or a ball tree of the numeric attributes, "
+                + "with the same results as LinearNNSearch.";
+    }
+
+    @Override
+    public void setInstances(Instances instances) throws Exception {
+        super.setInstances(instances);
+        treeRanges = null;
+    }
+
+    @Override
+    public void setDistanceFunction(DistanceFunction distanceFunction) throws Exception {
+        super.setDistanceFunction(distanceFunction);
+        treeRanges = null;
+    }
+
+    @Override
+    public void update(Instance instance) throws Exception {
+        super.update(instance);
+        treeRanges = null;
+    }
+
+    // Builds the tree again if the instances or the ranges changed; false if the scan answers
+    private boolean prepare() throws Exception {
+        if (m_SkipIdentical || m_Instances == null || structure == Structure.BRUTE_FORCE
+                || !(m_DistanceFunction instanceof NormalizableDistance)) {
+            return false;
+        }
+        double[][] current = ((NormalizableDistance) m_DistanceFunction).getRanges();
+        if (treeRanges != null && treeSize == m_Instances.numInstances() && Arrays.deepEquals(current, treeRanges)) {
+            return tree != null;
+        }
+        treeRanges = new double[current.length][];
+        for (int j = 0; j < current.length; j++) {
+            treeRanges[j] = current[j].clone();
+        }
+        treeSize = m_Instances.numInstances();
+        tree = null;
+        built = null;
+
+        CoordinateProjection projection = CoordinateProjection.create(m_Instances, (NormalizableDistance) m_DistanceFunction);
+        Structure chosen = choose(projection, treeSize);
+        if (chosen == null) {
+            return false;
+        }
+        int dimensions = projection.dimensions();
+        double[] points = new double[treeSize * dimensions];
+        for (int i = 0; i < treeSize; i++) {
+            projection.project(m_Instances.instance(i), points, i * dimensions);
+        }
+        for (double value : points) {
+            if (Double.isNaN(value)) {
+                return false; // Missing values have no place in the tree
+            }
+        }
+        boolean squared = projection.getNorm() == CoordinateProjection.Norm.L2;
+        tree = chosen == Structure.KD_TREE
+                ? ProjectedTree.kd(points, treeSize, dimensions, squared)
+                : ProjectedTree.ball(points, treeSize, dimensions, squared);
+        built = chosen;
+        treeProjection = projection;
+        positions = new IdentityHashMap<>(treeSize);
+        for (int i = 0; i < treeSize; i++) {
+            positions.put(m_Instances.instance(i), i);
+        }
+        return true;
+    }
+
+    // Tree for the data, null for the scan
+    private Structure choose(CoordinateProjection projection, int size) {
+        int dimensions = projection.dimensions();
+        if (projection.getNorm() == CoordinateProjection.Norm.LINF || dimensions == 0) {
+            return null;
+        }
+        if (structure != Structure.AUTO) {
+            return structure;
+        }
+        if (projection.hasDates()) {
+            return null; // The scan falls back to LinearNNSearch
+        }
+        return size < MIN_TREE_SIZE || dimensions > MAX_TREE_DIMENSIONS ? null : Structure.KD_TREE;
+    }
+
+    @Override
+    public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
+        if (!prepare()) {
+            return super.kNearestNeighbours(target, kNN);
+        }
+        Neighbours found = search(target, kNN, true);
+        if (found == null) {
+            return super.kNearestNeighbours(target, kNN);
+        }
+        m_Distances = found.distances;
+        return found.instances;
+    }
+
+    @Override
+    public Instances[] kNearestNeighbours(Instances queries, int kNN, double[][] distances) throws Exception {
+        int count = queries.numInstances();
+        Instances[] result = new Instances[count];
+        if (!prepare()) {
+            scanAll(queries, IntStream.range(0, count).toArray(), kNN, result, distances);
+            return result;
+        }
+        Neighbours[] found = new Neighbours[count];
+        forEach(getNumThreads(), count, q -> found[q] = search(queries.instance(q), kNN, false));
+        // Queries the tree cannot answer go through the scan
+        int[] scanned = IntStream.range(0, count).filter(q -> found[q] == null).toArray();
+        for (int q = 0; q < count; q++) {
+            if (found[q] != null) {
+                result[q] = found[q].instances;
+                distances[q] = found[q].distances;
+            }
+        }
+        scanAll(queries, scanned, kNN, result, distances);
+        return result;
+    }
+
+    // Neighbors from the tree, null if the scan must answer; safe from several threads
+    private Neighbours search(Instance target, int kNN, boolean measure) {
+        int dimensions = treeProjection.dimensions();
+        double[] point = new double[dimensions];
+        treeProjection.project(target, point, 0);
+        for (double value : point) {
+            if (Double.isNaN(value)) {
+                return null;
+            }
+        }
+        // The query itself is skipped, as in hold-one-out cross-validation
+        Integer position = positions.get(target);
+        int self = position != null ? position : -1;
+        int eligible = self < 0 ? treeSize : treeSize - 1;
+        if (kNN <= 0 || kNN >= eligible) {
+            return null;
+        }
+
+        // The real distances of the k nearest on the numeric attributes bound the k-th one
+        int[] nearest = new int[kNN];
+        int found = tree.nearest(point, kNN, self, nearest, new double[kNN]);
+        double radius = 0;
+        for (int c = 0; c < found; c++) {
+            radius = Math.max(radius, exact(target, nearest[c], measure));
+        }
+        int[] buffer = tree.within(point, radius * (1 + SLACK) + SLACK, self, new int[2 * kNN + 2]);
+        int count = buffer[0];
+        int[] candidates = Arrays.copyOfRange(buffer, 1, count + 1);
+        double[] exact = new double[count];
+        for (int c = 0; c < count; c++) {
+            exact[c] = exact(target, candidates[c], measure);
+        }
+
+        Integer[] order = selectNearest(kNN, candidates, exact, count);
+        Instances neighbours = new Instances(m_Instances, order.length);
+        double[] distances = new double[order.length];
+        for (int c = 0; c < order.length; c++) {
+            neighbours.add(m_Instances.instance(candidates[order[c]]));
+            distances[c] = exact[order[c]];
+        }
+        m_DistanceFunction.postProcessDistances(distances);
+        return new Neighbours(neighbours, distances);
+    }
+
+    // Distance in the distance function's own units; the statistics are only kept by single queries
+    private double exact(Instance target, int i, boolean measure) {
+        return m_DistanceFunction.distance(target, m_Instances.instance(i), Double.POSITIVE_INFINITY,
+                measure ? m_Stats : null);
+    }
+
+    // Getters and setters
+    public Structure getStructure() {
+        return structure;
+    }
+
+    public void setStructure(Structure structure) {
+        this.structure = structure;
+        treeRanges = null;
+    }
+
+    /**
+     * Structure used by the last query, null when the scan answered.
+     */
+    public Structure getBuiltStructure() {
+        return built;
+    }
+}
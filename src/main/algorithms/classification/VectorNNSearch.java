@@ -0,0 +1,313 @@
+package main.algorithms.classification;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+import weka.core.neighboursearch.LinearNNSearch;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import main.algorithms.clustering.index.CoordinateProjection;
+import main.algorithms.distance.DistanceKernels;
+
+/**
+ * Linear nearest-neighbor search for IBk with the distances of a query to all training
+ * instances computed at once by the SIMD kernels, over a flat block of normalized coordinates.
+ *
+ * The kernel distances only pick the candidates: every instance within rounding of the k-th
+ * smallest one is measured again with the distance function, and the neighbors and distances
+ * are chosen from those exact values, ties at the k-th distance included, as LinearNNSearch
+ * does. Queries the block cannot answer exactly (nominal or date attributes, distances other
+ * than Euclidean and Manhattan, skipped identical instances) fall back to LinearNNSearch.
+ *
+ * The block is rebuilt whenever the distance function's ranges change, which IBk does when
+ * a query falls outside the training ranges. Batches of queries are scanned in parallel.
+ */
+public class VectorNNSearch extends LinearNNSearch {
+
+    private static final long serialVersionUID = 1L;
+    private static final double SLACK = 1e-9; // Rounding between the kernels and the distance function
+
+    private transient DistanceKernels kernels;
+    private transient CoordinateProjection projection;
+    private transient DistanceKernels.Metric metric;
+    private transient double[][] ranges;   // Ranges the block was projected with
+    private transient double[] block;      // Projected training instances, row-major
+    private transient int blockSize;
+    private transient double[] approximate; // Kernel distances of the current query
+
+    private int numThreads;                // Batch queries: 1 = sequential, 0 = all available cores
+
+    public VectorNNSearch() {
+        super();
+        numThreads = 0;
+    }
+
+    public VectorNNSearch(Instances instances) {
+        super(instances);
+        numThreads = 0;
+    }
+
+    @Override
+    public String globalInfo() {
+        return "Linear nearest-neighbour search using SIMD distance kernels to select the "
+                + "candidates, with the same results as LinearNNSearch.";
+    }
+
+    @Override
+    public void setInstances(Instances instances) throws Exception {
+        super.setInstances(instances);
+        block = null;
+    }
+
+    @Override
+    public void setDistanceFunction(DistanceFunction distanceFunction) throws Exception {
+        super.setDistanceFunction(distanceFunction);
+        block = null;
+    }
+
+    // IBk calls this after adding the instance to the training set
+    @Override
+    public void update(Instance instance) throws Exception {
+        super.update(instance);
+        block = null;
+    }
+
+    // Called before every query: only widens the ranges, which prepare() notices
+    @Override
+    public void addInstanceInfo(Instance instance) {
+        if (m_Instances != null) {
+            try {
+                m_DistanceFunction.update(instance);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Projects the training instances again if they or the ranges changed; false if unusable
+    private boolean prepare() throws Exception {
+        if (m_SkipIdentical || m_Instances == null || !(m_DistanceFunction instanceof NormalizableDistance)) {
+            return false;
+        }
+        double[][] current = ((NormalizableDistance) m_DistanceFunction).getRanges();
+        if (block != null && blockSize == m_Instances.numInstances() && Arrays.deepEquals(current, ranges)) {
+            return projection != null;
+        }
+        ranges = new double[current.length][];
+        for (int j = 0; j < current.length; j++) {
+            ranges[j] = current[j].clone();
+        }
+        blockSize = m_Instances.numInstances();
+        CoordinateProjection candidate = CoordinateProjection.create(m_Instances, (NormalizableDistance) m_DistanceFunction);
+        if (!candidate.isComplete() || candidate.getNorm() == CoordinateProjection.Norm.LINF) {
+            projection = null;
+            block = new double[0];
+            return false;
+        }
+        projection = candidate;
+        metric = projection.getNorm() == CoordinateProjection.Norm.L2
+                ? DistanceKernels.Metric.SQUARED_EUCLIDEAN : DistanceKernels.Metric.MANHATTAN;
+        if (kernels == null) {
+            kernels = DistanceKernels.get();
+        }
+        int dimensions = projection.dimensions();
+        block = new double[blockSize * dimensions];
+        for (int i = 0; i < blockSize; i++) {
+            projection.project(m_Instances.instance(i), block, i * dimensions);
+        }
+        return true;
+    }
+
+    @Override
+    public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
+        if (!prepare()) {
+            return super.kNearestNeighbours(target, kNN);
+        }
+        if (approximate == null || approximate.length != blockSize) {
+            approximate = new double[blockSize];
+        }
+        Neighbours found = scan(target, kNN, approximate, true);
+        m_Distances = found.distances;
+        return found.instances;
+    }
+
+    /**
+     * Neighbors of many queries at once, searched by numThreads threads: entry q holds those
+     * of query q and distances[q] their distances, as kNearestNeighbours() returns them with
+     * the current ranges. IBk widens the ranges with every query before searching it, so
+     * calling addInstanceInfo() for all the queries first gives the same neighbors as querying
+     * them one by one after the same updates.
+     */
+    public Instances[] kNearestNeighbours(Instances queries, int kNN, double[][] distances) throws Exception {
+        Instances[] result = new Instances[queries.numInstances()];
+        scanAll(queries, IntStream.range(0, result.length).toArray(), kNN, result, distances);
+        return result;
+    }
+
+    // Answers the listed queries by the scan, in parallel when the block is usable
+    void scanAll(Instances queries, int[] which, int kNN, Instances[] result, double[][] distances) throws Exception {
+        if (prepare()) {
+            Neighbours[] found = new Neighbours[which.length];
+            ThreadLocal<double[]> buffers = ThreadLocal.withInitial(() -> new double[blockSize]);
+            forEach(numThreads, which.length,
+                    c -> found[c] = scan(queries.instance(which[c]), kNN, buffers.get(), false));
+            for (int c = 0; c < which.length; c++) {
+                result[which[c]] = found[c].instances;
+                distances[which[c]] = found[c].distances;
+            }
+            return;
+        }
+        for (int q : which) {
+            result[q] = super.kNearestNeighbours(queries.instance(q), kNN);
+            distances[q] = getDistances();
+        }
+    }
+
+    /**
+     * Runs body for 0 to count - 1 on numThreads threads: 1 runs them in order, 0 uses all cores.
+     */
+    static void forEach(int numThreads, int count, IntConsumer body) throws Exception {
+        ForkJoinPool pool = numThreads == 1 ? null
+                : numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            if (pool == null) {
+                for (int i = 0; i < count; i++) {
+                    body.accept(i);
+                }
+            } else {
+                pool.submit(() -> IntStream.range(0, count).parallel().forEach(body)).get();
+            }
+        } finally {
+            if (pool != null && pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    static final class Neighbours {
+        final Instances instances;
+        final double[] distances;
+
+        Neighbours(Instances instances, double[] distances) {
+            this.instances = instances;
+            this.distances = distances;
+        }
+    }
+
+    // Neighbors by the block, which must be prepared; safe from several threads with their own
+    // buffer, the statistics being only kept by single queries
+    private Neighbours scan(Instance target, int kNN, double[] approximate, boolean measure) {
+        int n = blockSize;
+        int dimensions = projection.dimensions();
+        double[] point = new double[dimensions];
+        projection.project(target, point, 0);
+        kernels.oneToMany(metric, point, 0, block, n, dimensions, approximate);
+
+        // The query itself is skipped, as in hold-one-out cross-validation
+        int self = -1;
+        for (int i = 0; i < n; i++) {
+            if (m_Instances.instance(i) == target) {
+                self = i;
+                break;
+            }
+        }
+        int eligible = self < 0 ? n : n - 1;
+        double threshold = Double.POSITIVE_INFINITY;
+        if (kNN > 0 && kNN < eligible) {
+            double kth = kthSmallest(approximate, self, kNN);
+            threshold = kth * (1 + SLACK) + SLACK;
+        }
+
+        // Exact distances of the candidates, in the distance function's own units
+        int[] candidates = new int[Math.min(n, Math.max(16, 2 * kNN))];
+        double[] exact = new double[candidates.length];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == self || !(approximate[i] <= threshold || Double.isNaN(approximate[i]))) {
+                continue;
+            }
+            if (count == candidates.length) {
+                candidates = Arrays.copyOf(candidates, count * 2);
+                exact = Arrays.copyOf(exact, count * 2);
+            }
+            candidates[count] = i;
+            exact[count] = m_DistanceFunction.distance(target, m_Instances.instance(i), Double.POSITIVE_INFINITY,
+                    measure ? m_Stats : null);
+            count++;
+        }
+
+        Integer[] order = selectNearest(kNN, candidates, exact, count);
+        Instances neighbours = new Instances(m_Instances, order.length);
+        double[] distances = new double[order.length];
+        for (int c = 0; c < order.length; c++) {
+            neighbours.add(m_Instances.instance(candidates[order[c]]));
+            distances[c] = exact[order[c]];
+        }
+        m_DistanceFunction.postProcessDistances(distances);
+        return new Neighbours(neighbours, distances);
+    }
+
+    /**
+     * Positions of the neighbors among the candidates, nearest first by exact distance then
+     * by index, keeping the k-th distance and every tie with it as LinearNNSearch does.
+     */
+    static Integer[] selectNearest(int kNN, int[] candidates, double[] exact, int count) {
+        Integer[] order = new Integer[count];
+        for (int c = 0; c < count; c++) {
+            order[c] = c;
+        }
+        Arrays.sort(order, (a, b) -> exact[a] != exact[b]
+                ? Double.compare(exact[a], exact[b]) : Integer.compare(candidates[a], candidates[b]));
+        int size = Math.min(kNN, count);
+        while (size > 0 && size < count && exact[order[size]] == exact[order[size - 1]]) {
+            size++;
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    // k-th smallest value (from 1), skipping one index, with a bounded max-heap; NaN counts as infinite
+    static double kthSmallest(double[] values, int skip, int k) {
+        double[] heap = new double[k];
+        Arrays.fill(heap, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < values.length; i++) {
+            double value = values[i];
+            if (i == skip || !(value < heap[0])) {
+                continue;
+            }
+            // Replace the largest of the k smallest and sift it down
+            int hole = 0;
+            while (true) {
+                int child = 2 * hole + 1;
+                if (child >= k) {
+                    break;
+                }
+                if (child + 1 < k && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= value) {
+                    break;
+                }
+                heap[hole] = heap[child];
+                hole = child;
+            }
+            heap[hole] = value;
+        }
+        return heap[0];
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Number of threads for batch queries: 1 runs sequentially, 0 uses all cores.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+}
@@ -1,20 +1,57 @@
 package main.algorithms.clustering;
 
 import weka.clusterers.HierarchicalClusterer;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.EuclideanDistance;
 import weka.core.SelectedTag;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import main.algorithms.distance.PairwiseDistanceCache;
 
 public class CAHClusterer {
     private HierarchicalClusterer clusterer;
     private int numClusters;
     private Instances data;
+    private Instances clusterData; // Data clustered, without the class attribute
     private int linkageType; // 0: SINGLE, 1: COMPLETE, 2: AVERAGE
+    private Engine engine;
+    private NativeHierarchical nativeClusterer;
+    private LinkageMatrix linkageMatrix;
+    private NativeHierarchical.MatrixStorage matrixStorage;
+    private File tempDirectory;
+    private boolean useDistanceCache;
+
+    // CF-tree pre-aggregation of streamed files
+    private int branchingFactor;
+    private double threshold;          // Initial radius of a micro-cluster, raised as needed
+    private int maxMicroClusters;
+    private CFTree cfTree;
+    private long[] rowCounts;          // Rows in each cluster after a streamed build, else null
+
+    // Enum for the engine running the algorithm
+    public enum Engine {
+        WEKA,   // HierarchicalClusterer
+        NATIVE  // NativeHierarchical: SLINK and nearest-neighbor chain, same merges in O(n^2)
+    }
 
     public CAHClusterer(int numClusters, int linkageType) {
         this.numClusters = numClusters;
         this.linkageType = linkageType;
         this.clusterer = new HierarchicalClusterer();
+        this.engine = Engine.WEKA;
+        this.matrixStorage = NativeHierarchical.MatrixStorage.HEAP;
+        this.branchingFactor = 50;
+        this.threshold = 0;
+        this.maxMicroClusters = 2000;
         try {
             clusterer.setNumClusters(numClusters);
             clusterer.setDistanceFunction(new EuclideanDistance());
@@ -38,7 +75,178 @@ public class CAHClusterer {
         if (numClusters > data.numInstances()) {
             throw new IllegalArgumentException("Number of clusters cannot exceed the number of instances.");
         }
-        clusterer.buildClusterer(data);
+        clusterData = data;
+        linkageMatrix = null;
+        cfTree = null;
+        rowCounts = null;
+        if (engine == Engine.NATIVE) {
+            nativeClusterer = buildNativeClusterer(data);
+            linkageMatrix = nativeClusterer.getLinkageMatrix();
+        } else {
+            nativeClusterer = null;
+            clusterer.buildClusterer(data);
+        }
+    }
+
+    private NativeHierarchical buildNativeClusterer(Instances data) throws Exception {
+        NativeHierarchical hierarchical = newNativeClusterer();
+        hierarchical.buildClusterer(data);
+        return hierarchical;
+    }
+
+    private NativeHierarchical newNativeClusterer() {
+        if (linkageType < 0 || linkageType >= NativeHierarchical.Linkage.values().length) {
+            throw new IllegalArgumentException("Linkage type not supported by the native engine: " + linkageType);
+        }
+        NativeHierarchical hierarchical = new NativeHierarchical(numClusters, NativeHierarchical.Linkage.values()[linkageType]);
+        hierarchical.setMatrixStorage(matrixStorage);
+        hierarchical.setTempDirectory(tempDirectory);
+        hierarchical.setDistanceCache(useDistanceCache ? PairwiseDistanceCache.shared() : null);
+        return hierarchical;
+    }
+
+    public void buildClusterer(File input) throws Exception {
+        buildClusterer(input, null);
+    }
+
+    /**
+     * Clusters the rows of an ARFF/CSV file read as a stream, through at most
+     * {@code maxMicroClusters} micro-clusters, and if {@code assignments} is not null writes
+     * the cluster of every row to it, one per line and in input order.
+     *
+     * A first pass records the attribute ranges. The second inserts every row, mapped to a
+     * space where the Euclidean distance is the normalized one of the in-memory clusterer,
+     * into a CF tree. The native engine then clusters the centroids of the micro-clusters,
+     * average linkage weighting each by its number of rows, and a last pass gives every row
+     * the cluster of the micro-cluster the tree routes it to. Memory depends on the number of
+     * micro-clusters and the branching factor, not on the number of rows. The dendrogram and
+     * the linkage matrix are then those of the micro-clusters.
+     */
+    public void buildClusterer(File input, File assignments) throws Exception {
+        Instances header = new DataSource(input.getPath()).getStructure();
+        header.setClassIndex(-1);
+        int d = header.numAttributes();
+
+        // First pass: ranges
+        double[] min = new double[d];
+        double[] max = new double[d];
+        Arrays.fill(min, Double.NaN);
+        long rows = 0;
+        DataSource source = new DataSource(input.getPath());
+        Instances structure = source.getStructure();
+        while (source.hasMoreElements(structure)) {
+            Instance instance = source.nextElement(structure);
+            if (instance.hasMissingValue()) {
+                throw new IllegalArgumentException("Data contains missing values at instance: " + rows);
+            }
+            for (int j = 0; j < d; j++) {
+                double value = instance.value(j);
+                min[j] = Double.isNaN(min[j]) ? value : Math.min(min[j], value);
+                max[j] = Double.isNaN(max[j]) ? value : Math.max(max[j], value);
+            }
+            rows++;
+        }
+        if (numClusters > rows) {
+            throw new IllegalArgumentException("Number of clusters cannot exceed the number of instances.");
+        }
+
+        // Second pass: micro-clusters
+        EuclideanEmbedding embedding = new EuclideanEmbedding(header, min, max);
+        double[] point = new double[embedding.dimensions()];
+        CFTree tree = new CFTree(point.length, branchingFactor, threshold, maxMicroClusters);
+        source = new DataSource(input.getPath());
+        structure = source.getStructure();
+        while (source.hasMoreElements(structure)) {
+            embedding.embed(source.nextElement(structure), point);
+            tree.insert(point);
+        }
+        if (numClusters > tree.numEntries()) {
+            throw new IllegalArgumentException("Number of clusters cannot exceed the number of micro-clusters ("
+                    + tree.numEntries() + ").");
+        }
+
+        // Hierarchy of the micro-clusters, labelled with their index and number of rows
+        double[] weights = tree.getWeights();
+        double[][] centroids = tree.getCentroids();
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("microcluster", (ArrayList<String>) null));
+        for (int j = 0; j < point.length; j++) {
+            attributes.add(new Attribute("x" + j));
+        }
+        Instances micro = new Instances(header.relationName() + "-microclusters", attributes, centroids.length);
+        for (int m = 0; m < centroids.length; m++) {
+            double[] values = new double[point.length + 1];
+            values[0] = micro.attribute(0).addStringValue("m" + m + "_n" + (long) weights[m]);
+            System.arraycopy(centroids[m], 0, values, 1, point.length);
+            micro.add(new DenseInstance(1, values));
+        }
+        NativeHierarchical hierarchical = newNativeClusterer();
+        hierarchical.setDontNormalize(true);
+        hierarchical.setWeights(weights);
+        hierarchical.buildClusterer(micro);
+        int[] microAssignments = hierarchical.getAssignments();
+
+        // Last pass: cluster of every row
+        long[] counts = new long[numClusters];
+        try (BufferedWriter writer = assignments != null ? new BufferedWriter(new FileWriter(assignments)) : null) {
+            source = new DataSource(input.getPath());
+            structure = source.getStructure();
+            while (source.hasMoreElements(structure)) {
+                embedding.embed(source.nextElement(structure), point);
+                int c = microAssignments[tree.nearest(point)];
+                counts[c]++;
+                if (writer != null) {
+                    writer.write(String.valueOf(c));
+                    writer.newLine();
+                }
+            }
+        }
+
+        data = micro;
+        clusterData = micro;
+        nativeClusterer = hierarchical;
+        linkageMatrix = hierarchical.getLinkageMatrix();
+        cfTree = tree;
+        rowCounts = counts;
+    }
+
+    /**
+     * Merge history of the full dendrogram. With the Weka engine, whose hierarchy is not
+     * accessible, it is computed by the native engine on first use.
+     */
+    public LinkageMatrix getLinkageMatrix() throws Exception {
+        if (data == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        if (linkageMatrix == null) {
+            linkageMatrix = buildNativeClusterer(clusterData).getLinkageMatrix();
+        }
+        return linkageMatrix;
+    }
+
+    /**
+     * Writer of the full dendrogram in Newick format, streamed from the linkage matrix.
+     */
+    public NewickWriter getNewickWriter() throws Exception {
+        return new NewickWriter(getLinkageMatrix(), clusterData);
+    }
+
+    public void saveDendrogramNewick(File file) throws Exception {
+        getNewickWriter().write(file);
+    }
+
+    // Assignments for another number of clusters, without rebuilding the hierarchy
+    public int[] cutAtK(int k) throws Exception {
+        return getLinkageMatrix().cutAtK(k);
+    }
+
+    // Assignments after every merge at or below the height
+    public int[] cutAtHeight(double height) throws Exception {
+        return getLinkageMatrix().cutAtHeight(height);
+    }
+
+    public void saveLinkageMatrix(File file) throws Exception {
+        getLinkageMatrix().save(file);
     }
 
     public String getModelSummary() throws Exception {
@@ -68,16 +276,31 @@ public class CAHClusterer {
         summary.append("Distance function: Euclidean Distance\n\n");
         
         summary.append("Clustering Statistics:\n");
-        // Get assignments for each instance
-        int[] assignments = new int[data.numInstances()];
-        for (int i = 0; i < data.numInstances(); i++) {
-            assignments[i] = clusterer.clusterInstance(data.instance(i));
-        }
-        
-        // Count instances per cluster
-        int[] clusterSizes = new int[numClusters];
-        for (int assignment : assignments) {
-            clusterSizes[assignment]++;
+        long[] clusterSizes = new long[numClusters];
+        if (rowCounts != null) {
+            // Streamed build: rows were counted while assigned
+            summary.append("Rows: ").append(cfTree.numPoints()).append(" in ").append(cfTree.numEntries())
+                    .append(" micro-clusters (radius threshold ").append(String.format("%.4f", cfTree.getThreshold()))
+                    .append(")\n");
+            clusterSizes = rowCounts;
+        } else {
+            // Cut of the linkage matrix, numbered like HierarchicalClusterer; with the Weka engine
+            // it is computed once and shared with the dendrogram, instead of classifying every row.
+            // Linkages the native engine lacks have no linkage matrix and classify every row.
+            int[] assignments;
+            if (linkageType >= 0 && linkageType < NativeHierarchical.Linkage.values().length) {
+                assignments = cutAtK(numClusters);
+            } else {
+                assignments = new int[data.numInstances()];
+                for (int i = 0; i < data.numInstances(); i++) {
+                    assignments[i] = clusterer.clusterInstance(data.instance(i));
+                }
+            }
+
+            // Count instances per cluster
+            for (int assignment : assignments) {
+                clusterSizes[assignment]++;
+            }
         }
         
         summary.append("\nCluster Sizes:\n");
@@ -90,6 +313,76 @@ public class CAHClusterer {
 
     // New method to get the Newick representation of the dendrogram
     public String getDendrogramNewick() throws Exception {
+        if (nativeClusterer != null) {
+            return nativeClusterer.graph();
+        }
         return clusterer.graph(); // Get the graph in Newick format
     }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public NativeHierarchical.MatrixStorage getMatrixStorage() {
+        return matrixStorage;
+    }
+
+    // Distance matrix of the native engine: heap doubles, or floats in a mapped temporary file
+    public void setMatrixStorage(NativeHierarchical.MatrixStorage matrixStorage) {
+        this.matrixStorage = matrixStorage;
+    }
+
+    public boolean isUseDistanceCache() {
+        return useDistanceCache;
+    }
+
+    // Native engine: reuse the distances of earlier runs on the same data from the shared cache
+    public void setUseDistanceCache(boolean useDistanceCache) {
+        this.useDistanceCache = useDistanceCache;
+    }
+
+    public int getBranchingFactor() {
+        return branchingFactor;
+    }
+
+    // Entries per node of the CF tree of streamed builds
+    public void setBranchingFactor(int branchingFactor) {
+        this.branchingFactor = branchingFactor;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    // Starting radius of a micro-cluster, in normalized units; raised when the budget is exceeded
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getMaxMicroClusters() {
+        return maxMicroClusters;
+    }
+
+    public void setMaxMicroClusters(int maxMicroClusters) {
+        this.maxMicroClusters = maxMicroClusters;
+    }
+
+    /**
+     * CF tree of the last streamed build, null after an in-memory build.
+     */
+    public CFTree getCFTree() {
+        return cfTree;
+    }
+
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
 }
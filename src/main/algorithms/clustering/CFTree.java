@@ -0,0 +1,329 @@
+package main.algorithms.clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clustering-feature tree of BIRCH, summarizing a stream of points in a bounded number of
+ * weighted micro-clusters.
+ *
+ * Each entry keeps the clustering feature of the points it absorbed: their number, linear
+ * sum and sum of squared norms, from which the centroid and radius follow. A point goes down
+ * to the leaf entry with the nearest centroid and is absorbed if the radius of the entry stays
+ * within the threshold, otherwise it starts a new entry; nodes holding more entries than the
+ * branching factor are split around their two farthest entries. When the leaves hold more
+ * entries than allowed, the threshold is raised and the entries are inserted again into a new
+ * tree until at most three quarters of the budget is used, so memory depends on the branching
+ * factor and the entry budget only, never on the number of points.
+ */
+public class CFTree {
+
+    private final int dimensions;
+    private final int branchingFactor;
+    private final int maxEntries;     // Leaf entries before the tree is rebuilt
+    private double threshold;         // Largest radius of a leaf entry
+    private Node root;
+    private int numEntries;
+    private int rebuilds;
+    private long numPoints;
+    private boolean numbered;         // Leaf entries numbered since the last insertion
+
+    // Clustering feature; entries of inner nodes summarize their child
+    private static final class Entry {
+        double weight;
+        final double[] sum;
+        double squares;
+        Node child;
+        int id;
+
+        Entry(int dimensions) {
+            sum = new double[dimensions];
+        }
+
+        void add(Entry other) {
+            weight += other.weight;
+            for (int j = 0; j < sum.length; j++) {
+                sum[j] += other.sum[j];
+            }
+            squares += other.squares;
+        }
+    }
+
+    private static final class Node {
+        final boolean leaf;
+        final Entry[] entries;
+        int size;
+
+        Node(boolean leaf, int branchingFactor) {
+            this.leaf = leaf;
+            this.entries = new Entry[branchingFactor + 1];
+        }
+    }
+
+    public CFTree(int dimensions, int branchingFactor, double threshold, int maxEntries) {
+        if (branchingFactor < 2) {
+            throw new IllegalArgumentException("Branching factor must be at least 2");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Number of micro-clusters must be at least 1");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative");
+        }
+        this.dimensions = dimensions;
+        this.branchingFactor = branchingFactor;
+        this.maxEntries = maxEntries;
+        this.threshold = threshold;
+        this.root = new Node(true, branchingFactor);
+    }
+
+    public void insert(double[] point) {
+        Entry entry = new Entry(dimensions);
+        entry.weight = 1;
+        for (int j = 0; j < dimensions; j++) {
+            entry.sum[j] = point[j];
+            entry.squares += point[j] * point[j];
+        }
+        insert(entry);
+        numPoints++;
+        numbered = false;
+        if (numEntries > maxEntries) {
+            rebuild();
+        }
+    }
+
+    private void insert(Entry entry) {
+        Node sibling = insert(root, entry);
+        if (sibling != null) {
+            Node parent = new Node(false, branchingFactor);
+            parent.entries[parent.size++] = summary(root);
+            parent.entries[parent.size++] = summary(sibling);
+            root = parent;
+        }
+    }
+
+    // Inserts below the node; returns the new sibling if the node was split
+    private Node insert(Node node, Entry entry) {
+        int closest = closest(node, entry);
+        if (node.leaf) {
+            if (closest >= 0 && mergedRadius2(node.entries[closest], entry) <= threshold * threshold) {
+                node.entries[closest].add(entry);
+                return null;
+            }
+            numEntries++;
+            return append(node, entry);
+        }
+        Entry parent = node.entries[closest];
+        Node split = insert(parent.child, entry);
+        if (split == null) {
+            parent.add(entry);
+            return null;
+        }
+        node.entries[closest] = summary(parent.child);
+        return append(node, summary(split));
+    }
+
+    private Node append(Node node, Entry entry) {
+        node.entries[node.size++] = entry;
+        return node.size > branchingFactor ? split(node) : null;
+    }
+
+    // Moves the entries nearer to the second of the two farthest entries to a new node
+    private Node split(Node node) {
+        int seedA = 0;
+        int seedB = 1;
+        double farthest = -1;
+        for (int a = 0; a < node.size; a++) {
+            for (int b = a + 1; b < node.size; b++) {
+                double distance = centroidDistance2(node.entries[a], node.entries[b]);
+                if (distance > farthest) {
+                    farthest = distance;
+                    seedA = a;
+                    seedB = b;
+                }
+            }
+        }
+        Entry[] entries = node.entries.clone();
+        int size = node.size;
+        Node sibling = new Node(node.leaf, branchingFactor);
+        node.size = 0;
+        for (int e = 0; e < size; e++) {
+            boolean second = e == seedB || e != seedA
+                    && centroidDistance2(entries[e], entries[seedB]) < centroidDistance2(entries[e], entries[seedA]);
+            Node target = second ? sibling : node;
+            target.entries[target.size++] = entries[e];
+        }
+        for (int e = node.size; e < node.entries.length; e++) {
+            node.entries[e] = null;
+        }
+        return sibling;
+    }
+
+    private Entry summary(Node node) {
+        Entry entry = new Entry(dimensions);
+        for (int e = 0; e < node.size; e++) {
+            entry.add(node.entries[e]);
+        }
+        entry.child = node;
+        return entry;
+    }
+
+    private int closest(Node node, Entry entry) {
+        int closest = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int e = 0; e < node.size; e++) {
+            double distance = centroidDistance2(node.entries[e], entry);
+            if (distance < best) {
+                best = distance;
+                closest = e;
+            }
+        }
+        return closest;
+    }
+
+    private double centroidDistance2(Entry a, Entry b) {
+        double sum = 0;
+        for (int j = 0; j < dimensions; j++) {
+            double difference = a.sum[j] / a.weight - b.sum[j] / b.weight;
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    // Squared radius of the union: mean squared norm minus squared norm of the centroid
+    private double mergedRadius2(Entry a, Entry b) {
+        double weight = a.weight + b.weight;
+        double centroid = 0;
+        for (int j = 0; j < dimensions; j++) {
+            double mean = (a.sum[j] + b.sum[j]) / weight;
+            centroid += mean * mean;
+        }
+        return Math.max(0, (a.squares + b.squares) / weight - centroid);
+    }
+
+    private void rebuild() {
+        while (numEntries > maxEntries * 3L / 4) {
+            List<Entry> entries = leafEntries();
+            threshold = nextThreshold();
+            root = new Node(true, branchingFactor);
+            numEntries = 0;
+            for (Entry entry : entries) {
+                insert(entry);
+            }
+            rebuilds++;
+        }
+    }
+
+    // Mean over the leaves of the smallest radius two of their entries would merge at
+    private double nextThreshold() {
+        double total = 0;
+        int leaves = 0;
+        List<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if (!node.leaf) {
+                for (int e = 0; e < node.size; e++) {
+                    stack.add(node.entries[e].child);
+                }
+                continue;
+            }
+            double smallest = Double.POSITIVE_INFINITY;
+            for (int a = 0; a < node.size; a++) {
+                for (int b = a + 1; b < node.size; b++) {
+                    smallest = Math.min(smallest, mergedRadius2(node.entries[a], node.entries[b]));
+                }
+            }
+            if (smallest < Double.POSITIVE_INFINITY) {
+                total += Math.sqrt(smallest);
+                leaves++;
+            }
+        }
+        double mean = leaves > 0 ? total / leaves : 0;
+        // Grow by a quarter at least, so that every rebuild absorbs more
+        return Math.max(mean, threshold > 0 ? threshold * 1.25 : Double.MIN_NORMAL);
+    }
+
+    // Leaf entries in tree order, numbered from 0
+    private List<Entry> leafEntries() {
+        List<Entry> entries = new ArrayList<>(numEntries);
+        collect(root, entries);
+        for (int e = 0; e < entries.size(); e++) {
+            entries.get(e).id = e;
+        }
+        numbered = true;
+        return entries;
+    }
+
+    private void collect(Node node, List<Entry> entries) {
+        for (int e = 0; e < node.size; e++) {
+            if (node.leaf) {
+                entries.add(node.entries[e]);
+            } else {
+                collect(node.entries[e].child, entries);
+            }
+        }
+    }
+
+    /**
+     * Number of points and centroid of each micro-cluster, in the order nearest() numbers them.
+     */
+    public double[] getWeights() {
+        List<Entry> entries = leafEntries();
+        double[] weights = new double[entries.size()];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = entries.get(e).weight;
+        }
+        return weights;
+    }
+
+    public double[][] getCentroids() {
+        List<Entry> entries = leafEntries();
+        double[][] centroids = new double[entries.size()][dimensions];
+        for (int e = 0; e < centroids.length; e++) {
+            Entry entry = entries.get(e);
+            for (int j = 0; j < dimensions; j++) {
+                centroids[e][j] = entry.sum[j] / entry.weight;
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * Micro-cluster a point is routed to, following the nearest centroid at every level as an
+     * insertion does.
+     */
+    public int nearest(double[] point) {
+        if (!numbered) {
+            leafEntries();
+        }
+        Entry query = new Entry(dimensions);
+        query.weight = 1;
+        System.arraycopy(point, 0, query.sum, 0, dimensions);
+        Node node = root;
+        while (true) {
+            Entry entry = node.entries[closest(node, query)];
+            if (node.leaf) {
+                return entry.id;
+            }
+            node = entry.child;
+        }
+    }
+
+    // Getters
+    public int numEntries() {
+        return numEntries;
+    }
+
+    public long numPoints() {
+        return numPoints;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getRebuilds() {
+        return rebuilds;
+    }
+}
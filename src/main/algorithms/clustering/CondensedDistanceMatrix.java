@@ -0,0 +1,147 @@
+package main.algorithms.clustering;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Upper triangle of a symmetric n x n distance matrix, without the diagonal, stored row by
+ * row in n (n - 1) / 2 cells. Cells are read and overwritten in place, so agglomerative
+ * merge loops can keep their updated cluster distances in it.
+ *
+ * Two stores: doubles on the heap, limited by the maximum array size, and floats in a
+ * memory-mapped temporary file, a quarter of the heap size and outside the heap altogether.
+ * The mapped store must be used from the thread that created it.
+ * The operating system pages the mapped file in and out, so the matrix may exceed the
+ * physical memory at the price of disk reads. The file is deleted by {@link #close()}.
+ */
+public abstract class CondensedDistanceMatrix implements AutoCloseable {
+
+    private static final long MAX_HEAP_CELLS = Integer.MAX_VALUE - 8;
+
+    protected final int n;
+
+    protected CondensedDistanceMatrix(int n) {
+        this.n = n;
+    }
+
+    /**
+     * Double precision matrix on the heap.
+     */
+    public static CondensedDistanceMatrix onHeap(int n) {
+        long cells = cells(n);
+        if (cells > MAX_HEAP_CELLS) {
+            throw new IllegalArgumentException("Too many instances for a distance matrix on the heap: " + n);
+        }
+        return new Heap(n, (int) cells);
+    }
+
+    /**
+     * Single precision matrix in a memory-mapped temporary file of the directory, or of the
+     * default temporary directory when null.
+     */
+    public static CondensedDistanceMatrix mapped(int n, File directory) throws IOException {
+        return new Mapped(n, cells(n), directory);
+    }
+
+    public static long cells(int n) {
+        return (long) n * (n - 1) / 2;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Cell of the pair i, j, in either order; i and j must differ.
+     */
+    public long index(int i, int j) {
+        if (i > j) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        return (long) n * i - (long) i * (i + 1) / 2 + j - i - 1;
+    }
+
+    public double get(int i, int j) {
+        return get(index(i, j));
+    }
+
+    public void set(int i, int j, double distance) {
+        set(index(i, j), distance);
+    }
+
+    public abstract double get(long index);
+
+    public abstract void set(long index, double distance);
+
+    @Override
+    public void close() {
+    }
+
+    private static final class Heap extends CondensedDistanceMatrix {
+
+        private final double[] cells;
+
+        Heap(int n, int cells) {
+            super(n);
+            this.cells = new double[cells];
+        }
+
+        @Override
+        public double get(long index) {
+            return cells[(int) index];
+        }
+
+        @Override
+        public void set(long index, double distance) {
+            cells[(int) index] = distance;
+        }
+    }
+
+    private static final class Mapped extends CondensedDistanceMatrix {
+
+        private final File file;
+        private final Arena arena;          // Owns the mapping; closing it unmaps the file
+        private final MemorySegment cells;  // Whole file, indexed with longs
+
+        Mapped(int n, long cells, File directory) throws IOException {
+            super(n);
+            file = File.createTempFile("distances", ".bin", directory);
+            arena = Arena.ofConfined();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE)) {
+                // Grows the file to the mapped size; the mapping stays valid once the channel is closed
+                this.cells = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(4 * cells, 4), arena);
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+                file.delete();
+                throw e;
+            }
+        }
+
+        @Override
+        public double get(long index) {
+            return cells.getAtIndex(ValueLayout.JAVA_FLOAT, index);
+        }
+
+        @Override
+        public void set(long index, double distance) {
+            cells.setAtIndex(ValueLayout.JAVA_FLOAT, index, (float) distance);
+        }
+
+        // Unmaps the file first, so that it can be deleted on systems that lock mapped files
+        @Override
+        public void close() {
+            if (arena.scope().isAlive()) {
+                arena.close();
+            }
+            file.delete();
+        }
+    }
+}
@@ -6,12 +6,24 @@ import weka.core.Instances;
 import weka.core.Utils;
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
+import weka.core.NormalizableDistance;
 import weka.core.OptionHandler;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformationHandler;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import main.algorithms.clustering.index.CachedDistanceIndex;
+import main.algorithms.clustering.index.CoordinateProjection;
+import main.algorithms.clustering.index.GridIndex;
+import main.algorithms.clustering.index.KDTreeIndex;
+import main.algorithms.clustering.index.LSHIndex;
+import main.algorithms.clustering.index.LinearScanIndex;
+import main.algorithms.clustering.index.NeighborBuffer;
+import main.algorithms.clustering.index.RangeQueryIndex;
+import main.algorithms.clustering.index.VectorScanIndex;
 
 /**
  * DBSCAN clustering algorithm implementation.
@@ -24,23 +36,55 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
     private int numClusters;       // Number of clusters
     private DistanceFunction distanceFunction; // Distance function for instance distance calculations
     private PointType[] pointTypes; // Types of points
+    private IndexType indexType;   // Neighbor search structure
+    private transient RangeQueryIndex index; // Index built for the current dataset, not saved with the model
+    private Instances corePoints;  // Core points of the fitted model
+    private int[] coreClusters;    // Cluster of each core point
+    private transient RangeQueryIndex coreIndex; // Index over the core points, rebuilt after loading
+    private int numThreads;        // 1 = sequential, 0 = all available cores
+    private int lshTables;         // LSH tables: more tables, higher recall
+    private int lshHashes;         // Hash functions per LSH table: more hashes, faster queries
+    private int lshSeed;           // Seed of the LSH hash functions
+    private long distanceComputations;      // Of the last build with the LSH index
+    private long distanceComputationsSaved;
 
     // Enum to represent point types
-    private static enum PointType {
+    public static enum PointType {
         CORE, BORDER, NOISE
     }
 
+    // Enum for neighbor search structures
+    public enum IndexType {
+        AUTO,        // Grid for low dimensions, KD-tree otherwise
+        LINEAR_SCAN, // Compare every pair of instances
+        GRID,        // Uniform epsilon grid
+        KD_TREE,     // KD-tree
+        LSH,         // Approximate, random-projection hashing (never chosen by AUTO, DBSCAN only)
+        VECTOR_SCAN,     // Linear scan with SIMD distance kernels over projected coordinates
+        DISTANCE_CACHE   // Linear scan over the shared pairwise distance cache, reused across runs
+    }
+
     public DBSCANClusterer() {
         // Default constructor
         this.epsilon = 0.5; // default value
         this.minPoints = 5; // default value
         distanceFunction = new EuclideanDistance(); // default distance function
+        indexType = IndexType.AUTO;
+        numThreads = 1;
+        lshTables = 8;
+        lshHashes = 4;
+        lshSeed = 1;
     }
 
     public DBSCANClusterer(double epsilon, int minPoints) {
         this.epsilon = epsilon;
         this.minPoints = minPoints;
         distanceFunction = new EuclideanDistance(); // default distance function
+        indexType = IndexType.AUTO;
+        numThreads = 1;
+        lshTables = 8;
+        lshHashes = 4;
+        lshSeed = 1;
     }
 
     @Override
@@ -64,19 +108,40 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
         // Initialize the distance function with the dataset
         distanceFunction.setInstances(data);
 
-        // DBSCAN algorithm implementation
-        boolean[] visited = new boolean[data.numInstances()];
-        for (int i = 0; i < data.numInstances(); i++) {
-            if (!visited[i]) {
-                visited[i] = true;
-                List<Integer> neighbors = getNeighbors(data, i);
+        // Build the neighbor index once for all range queries
+        index = createIndex(data);
+        index.build(data, distanceFunction, epsilon);
+
+        if (numThreads != 1) {
+            buildClustererParallel(data);
+        } else {
+            buildClustererSequential(data);
+        }
+        distanceComputations = index instanceof LSHIndex ? ((LSHIndex) index).getDistanceComputations() : 0;
+        distanceComputationsSaved = index instanceof LSHIndex ? ((LSHIndex) index).getDistanceComputationsSaved() : 0;
+
+        // Keep an index over the core points to label new instances
+        buildCoreIndex(data);
+    }
+
+    private void buildClustererSequential(Instances data) throws Exception {
+        // DBSCAN algorithm implementation. Points are marked visited as soon as they are
+        // queued, so the seed queue never holds a point twice and never exceeds n.
+        int n = data.numInstances();
+        BitSet visited = new BitSet(n);
+        NeighborBuffer neighbors = new NeighborBuffer();
+        int[] seeds = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (!visited.get(i)) {
+                visited.set(i);
+                getNeighbors(data, i, neighbors);
 
                 if (neighbors.size() < minPoints) {
                     clusterAssignments[i] = -1; // Mark as noise
                     pointTypes[i] = PointType.NOISE;
                 } else {
                     numClusters++;
-                    expandCluster(data, i, neighbors, visited);
+                    expandCluster(data, i, neighbors, visited, seeds);
                 }
             }
         }
@@ -89,43 +154,164 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
         }
     }
 
-    private List<Integer> getNeighbors(Instances data, int index) {
-        List<Integer> neighbors = new ArrayList<>();
-        Instance instance = data.instance(index);
+    /**
+     * Parallel DBSCAN: neighbor queries run on a fork-join pool, core points are joined
+     * with a concurrent union-find and border points are attached afterwards.
+     *
+     * Produces the same assignments and point types as the sequential loop: clusters are
+     * numbered by their first core point, and a non-core point only becomes a border point
+     * if a neighboring cluster starts before it (otherwise the sequential loop has already
+     * marked it as noise).
+     */
+    private void buildClustererParallel(Instances data) throws Exception {
+        int n = data.numInstances();
+        int[][] neighborLists = new int[n][];
+        boolean[] core = new boolean[n];
+        ConcurrentUnionFind unionFind = new ConcurrentUnionFind(n);
 
-        for (int i = 0; i < data.numInstances(); i++) {
-            Instance otherInstance = data.instance(i);
-            double distance = distanceFunction.distance(instance, otherInstance);
-            if (instance != otherInstance && distance <= epsilon) {
-                neighbors.add(i);
+        // Weka validates the distance function lazily; do it before sharing it across threads
+        if (n > 0) {
+            distanceFunction.distance(data.instance(0), data.instance(0));
+        }
+
+        ForkJoinPool pool = numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            // Core status and neighbor lists
+            ThreadLocal<NeighborBuffer> buffers = ThreadLocal.withInitial(NeighborBuffer::new);
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+                NeighborBuffer neighbors = buffers.get();
+                getNeighbors(data, i, neighbors);
+                neighborLists[i] = neighbors.toArray();
+                core[i] = neighborLists[i].length >= minPoints;
+            })).get();
+
+            // Join directly connected core points
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+                if (core[i]) {
+                    for (int j : neighborLists[i]) {
+                        if (j > i && core[j]) {
+                            unionFind.union(i, j);
+                        }
+                    }
+                }
+            })).get();
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
             }
         }
-        return neighbors;
-    }
 
-    private void expandCluster(Instances data, int index, List<Integer> neighbors, boolean[] visited) {
-        clusterAssignments[index] = numClusters; // Assign cluster number
-        pointTypes[index] = PointType.CORE; // Mark as core
+        // Number clusters by their smallest core point, i.e. the union-find root
+        int[] clusterOfRoot = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (core[i] && unionFind.find(i) == i) {
+                clusterOfRoot[i] = ++numClusters;
+            }
+        }
 
-        for (int i = 0; i < neighbors.size(); i++) {
-            int neighborIndex = neighbors.get(i);
+        for (int i = 0; i < n; i++) {
+            if (core[i]) {
+                clusterAssignments[i] = clusterOfRoot[unionFind.find(i)];
+                pointTypes[i] = PointType.CORE;
+                continue;
+            }
+            // Attach the border point to the earliest neighboring cluster started before it
+            int firstRoot = n;
+            for (int j : neighborLists[i]) {
+                if (core[j]) {
+                    firstRoot = Math.min(firstRoot, unionFind.find(j));
+                }
+            }
+            if (firstRoot < i) {
+                clusterAssignments[i] = clusterOfRoot[firstRoot];
+                pointTypes[i] = PointType.BORDER;
+            } else {
+                clusterAssignments[i] = -1;
+                pointTypes[i] = PointType.NOISE;
+            }
+        }
+    }
 
-            if (!visited[neighborIndex]) {
-                visited[neighborIndex] = true;
-                List<Integer> neighborNeighbors = getNeighbors(data, neighborIndex);
+    private RangeQueryIndex createIndex(Instances data) throws Exception {
+        if (indexType == IndexType.LSH) {
+            return new LSHIndex(lshTables, lshHashes, 4.0, lshSeed);
+        }
+        return createIndex(indexType, data, distanceFunction, epsilon);
+    }
 
-                if (neighborNeighbors.size() >= minPoints) {
-                    neighbors.addAll(neighborNeighbors); // Add to neighbors if it's a core point
-                    pointTypes[neighborIndex] = PointType.CORE;
+    // Resolves AUTO to a concrete structure for the data and distance function; LSH needs the
+    // settings only DBSCANClusterer carries, so other callers cannot ask for it
+    static RangeQueryIndex createIndex(IndexType indexType, Instances data, DistanceFunction distanceFunction,
+                                       double epsilon) throws Exception {
+        if (indexType == IndexType.LSH) {
+            throw new IllegalArgumentException("The LSH index is only supported by DBSCANClusterer.");
+        }
+        IndexType type = indexType;
+        if (type == IndexType.AUTO) {
+            if (!(distanceFunction instanceof NormalizableDistance) || epsilon <= 0) {
+                type = IndexType.LINEAR_SCAN;
+            } else {
+                int dimensions = CoordinateProjection.create(data, (NormalizableDistance) distanceFunction).dimensions();
+                if (dimensions == 0) {
+                    type = IndexType.LINEAR_SCAN;
+                } else if (dimensions <= GridIndex.MAX_GRID_DIMENSIONS) {
+                    type = IndexType.GRID;
                 } else {
-                    pointTypes[neighborIndex] = PointType.BORDER;
+                    type = IndexType.KD_TREE;
                 }
             }
+        }
+
+        switch (type) {
+            case GRID:
+                return new GridIndex();
+            case KD_TREE:
+                return new KDTreeIndex();
+            case VECTOR_SCAN:
+                return new VectorScanIndex();
+            case DISTANCE_CACHE:
+                return new CachedDistanceIndex();
+            default:
+                return new LinearScanIndex();
+        }
+    }
+
+    // Fills the reused buffer with the neighbors of the instance, excluding itself
+    private void getNeighbors(Instances data, int index, NeighborBuffer neighbors) {
+        this.index.rangeQuery(data.instance(index), neighbors);
+        neighbors.remove(index); // A point is not its own neighbor
+    }
+
+    private void expandCluster(Instances data, int index, NeighborBuffer neighbors, BitSet visited, int[] seeds) {
+        clusterAssignments[index] = numClusters; // Assign cluster number
+        pointTypes[index] = PointType.CORE; // Mark as core
+
+        int head = 0;
+        int tail = queueSeeds(neighbors, visited, seeds, 0);
+        while (head < tail) {
+            int neighborIndex = seeds[head++];
+            getNeighbors(data, neighborIndex, neighbors);
+
+            if (neighbors.size() >= minPoints) {
+                tail = queueSeeds(neighbors, visited, seeds, tail); // Expand through core points
+                pointTypes[neighborIndex] = PointType.CORE;
+            } else {
+                pointTypes[neighborIndex] = PointType.BORDER;
+            }
+        }
+    }
 
-            if (clusterAssignments[neighborIndex] == 0) {
+    // Appends the unvisited neighbors to the seed queue and assigns them to the current cluster
+    private int queueSeeds(NeighborBuffer neighbors, BitSet visited, int[] seeds, int tail) {
+        for (int i = 0; i < neighbors.size(); i++) {
+            int neighborIndex = neighbors.get(i);
+            if (!visited.get(neighborIndex)) {
+                visited.set(neighborIndex);
                 clusterAssignments[neighborIndex] = numClusters; // Assign cluster number
+                seeds[tail++] = neighborIndex;
             }
         }
+        return tail;
     }
 
     @Override
@@ -133,20 +319,100 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
         return numClusters;
     }
 
+    private void buildCoreIndex(Instances data) throws Exception {
+        int numCore = 0;
+        for (PointType type : pointTypes) {
+            if (type == PointType.CORE) {
+                numCore++;
+            }
+        }
+
+        corePoints = new Instances(data, numCore);
+        coreClusters = new int[numCore];
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (pointTypes[i] == PointType.CORE) {
+                coreClusters[corePoints.numInstances()] = clusterAssignments[i];
+                corePoints.add(data.instance(i));
+            }
+        }
+
+        coreIndex = null;
+        coreIndex();
+    }
+
+    // Index over the core points, built on first use after training or loading a saved model
+    private synchronized RangeQueryIndex coreIndex() throws Exception {
+        if (corePoints == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        if (coreIndex == null) {
+            // The distance function keeps the ranges of the training data
+            RangeQueryIndex built = createIndex(corePoints);
+            built.build(corePoints, distanceFunction, epsilon);
+            coreIndex = built;
+        }
+        return coreIndex;
+    }
+
+    /**
+     * Assigns an instance to the cluster of a core point within epsilon, or -1 (noise).
+     * When several clusters are in reach, the one numbered first wins, as for border points.
+     */
     @Override
     public int clusterInstance(Instance instance) throws Exception {
-        int index = instance.classIndex(); // Get the index of the instance
-        if (index >= 0 && index < clusterAssignments.length) {
-            return clusterAssignments[index]; // Return the cluster assignment
-        } else {
-            throw new IllegalArgumentException("Instance index out of bounds.");
+        return clusterInstance(coreIndex(), instance, new NeighborBuffer());
+    }
+
+    private int clusterInstance(RangeQueryIndex coreIndex, Instance instance, NeighborBuffer neighbors) {
+        coreIndex.rangeQuery(instance, neighbors);
+        int cluster = -1;
+        for (int i = 0; i < neighbors.size(); i++) {
+            int candidate = coreClusters[neighbors.get(i)];
+            if (cluster == -1 || candidate < cluster) {
+                cluster = candidate;
+            }
         }
+        return cluster;
     }
 
+    /**
+     * Assigns every instance of the batch, in parallel when more than one thread is configured.
+     */
+    public int[] clusterInstances(Instances instances) throws Exception {
+        RangeQueryIndex coreIndex = coreIndex();
+        int[] assignments = new int[instances.numInstances()];
+        if (numThreads == 1) {
+            NeighborBuffer neighbors = new NeighborBuffer();
+            for (int i = 0; i < assignments.length; i++) {
+                assignments[i] = clusterInstance(coreIndex, instances.instance(i), neighbors);
+            }
+            return assignments;
+        }
+
+        ForkJoinPool pool = numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            ThreadLocal<NeighborBuffer> buffers = ThreadLocal.withInitial(NeighborBuffer::new);
+            pool.submit(() -> IntStream.range(0, assignments.length).parallel().forEach(i ->
+                    assignments[i] = clusterInstance(coreIndex, instances.instance(i), buffers.get()))).get();
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+        return assignments;
+    }
+
+    /**
+     * Puts all the probability on the assigned cluster (clusters are numbered from 1);
+     * noise gets an all-zero distribution.
+     */
     @Override
     public double[] distributionForInstance(Instance instance) throws Exception {
         double[] distribution = new double[numberOfClusters()];
-        // Logic for generating distribution can be added here
+        int cluster = clusterInstance(instance);
+        if (cluster > 0) {
+            distribution[cluster - 1] = 1.0;
+        }
         return distribution;
     }
 
@@ -157,6 +423,10 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
         sb.append("Epsilon: ").append(epsilon).append("\n");
         sb.append("Minimum Points: ").append(minPoints).append("\n");
         sb.append("Number of clusters: ").append(numClusters).append("\n");
+        if (distanceComputations > 0) {
+            sb.append("Distance computations: ").append(getDistanceComputations())
+              .append(" (").append(getDistanceComputationsSaved()).append(" saved by LSH)\n");
+        }
         sb.append("Cluster Assignments and Point Types:\n");
 
         for (int i = 0; i < clusterAssignments.length; i++) {
@@ -168,11 +438,99 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
         return sb.toString();
     }
 
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public int getMinPoints() {
+        return minPoints;
+    }
+
+    public DistanceFunction getDistanceFunction() {
+        return distanceFunction;
+    }
+
+    public void setDistanceFunction(DistanceFunction distanceFunction) {
+        this.distanceFunction = distanceFunction;
+    }
+
+    public int[] getClusterAssignments() {
+        return clusterAssignments;
+    }
+
+    public PointType[] getPointTypes() {
+        return pointTypes;
+    }
+
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    public void setIndexType(IndexType indexType) {
+        this.indexType = indexType;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the number of worker threads: 1 runs the sequential algorithm,
+     * 0 uses all available cores.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public int getLshTables() {
+        return lshTables;
+    }
+
+    public void setLshTables(int lshTables) {
+        this.lshTables = lshTables;
+    }
+
+    public int getLshHashes() {
+        return lshHashes;
+    }
+
+    public void setLshHashes(int lshHashes) {
+        this.lshHashes = lshHashes;
+    }
+
+    public int getLshSeed() {
+        return lshSeed;
+    }
+
+    public void setLshSeed(int lshSeed) {
+        this.lshSeed = lshSeed;
+    }
+
+    /**
+     * Exact distances computed by the last build; only tracked with the LSH index.
+     */
+    public long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+    /**
+     * Exact distances the last build skipped compared with a linear scan; only tracked
+     * with the LSH index.
+     */
+    public long getDistanceComputationsSaved() {
+        return distanceComputationsSaved;
+    }
+
     @Override
     public String[] getOptions() {
         return new String[]{
                 "-E", String.valueOf(epsilon),
-                "-M", String.valueOf(minPoints)
+                "-M", String.valueOf(minPoints),
+                "-I", indexType.name(),
+                "-T", String.valueOf(numThreads),
+                "-L", String.valueOf(lshTables),
+                "-K", String.valueOf(lshHashes),
+                "-S", String.valueOf(lshSeed)
         };
     }
 
@@ -187,6 +545,31 @@ public class DBSCANClusterer extends AbstractClusterer implements OptionHandler,
         if (minPointsString.length() != 0) {
             minPoints = Integer.parseInt(minPointsString);
         }
+
+        String indexString = Utils.getOption("I", options);
+        if (indexString.length() != 0) {
+            indexType = IndexType.valueOf(indexString);
+        }
+
+        String threadsString = Utils.getOption("T", options);
+        if (threadsString.length() != 0) {
+            numThreads = Integer.parseInt(threadsString);
+        }
+
+        String tablesString = Utils.getOption("L", options);
+        if (tablesString.length() != 0) {
+            lshTables = Integer.parseInt(tablesString);
+        }
+
+        String hashesString = Utils.getOption("K", options);
+        if (hashesString.length() != 0) {
+            lshHashes = Integer.parseInt(hashesString);
+        }
+
+        String seedString = Utils.getOption("S", options);
+        if (seedString.length() != 0) {
+            lshSeed = Integer.parseInt(seedString);
+        }
     }
 
     @Override
@@ -0,0 +1,776 @@
+package main.algorithms.clustering;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import main.algorithms.clustering.DBSCANClusterer.IndexType;
+import main.algorithms.clustering.index.NeighborBuffer;
+import main.algorithms.clustering.index.RangeQueryIndex;
+
+/**
+ * Out-of-core DBSCAN for ARFF/CSV files larger than the heap.
+ *
+ * The numeric attributes are normalized like Weka's distance functions do, and the space is
+ * split into slabs along the attribute with the largest spread, each holding about
+ * {@code cellCapacity} points. A slab that holds more than {@code maxCellSize} points once its
+ * epsilon-wide margins are counted, as happens on skewed data, is cut again along whichever
+ * attribute shrinks it most, until every cell fits. Every cell is written to its own file
+ * together with the margin taken from its neighbors, so the neighborhood of each point it owns
+ * is complete. Cells are then loaded and clustered one at a time: a first sweep computes core
+ * flags, a second one labels the core points and merges the labels of core points shared with
+ * neighboring cells, and a last sweep attaches border points. Core flags, labels and the final
+ * assignments live in memory-mapped files, so peak heap usage depends on the cell size and the
+ * number of clusters, not on the number of rows.
+ *
+ * The assignments are the ones DBSCANClusterer produces on the same data. Nominal attributes
+ * are rejected, and date attributes ignored as the distance functions ignore them.
+ */
+public class DiskDBSCANClusterer {
+
+    private static final int HISTOGRAM_BINS = 4096;
+    private static final int SPLIT_BINS = 256;   // Per attribute when cutting an oversized cell
+
+    private double epsilon;        // Epsilon distance
+    private int minPoints;         // Minimum points to form a cluster
+    private DistanceMetric distanceMetric;
+    private int cellCapacity;      // Target number of points owned by a slab
+    private int maxCellSize;       // Most points, margins included, loaded at once
+    private int classIndex;        // Attribute ignored by the distance, -1 for none
+    private File tempDirectory;    // Where the slab, flag and label files are written
+    private int numClusters;       // Number of clusters
+    private long numInstances;     // Number of rows read
+
+    // Enum for distance metrics
+    public enum DistanceMetric {
+        EUCLIDEAN,
+        MANHATTAN
+    }
+
+    public DiskDBSCANClusterer(double epsilon, int minPoints) {
+        this.epsilon = epsilon;
+        this.minPoints = minPoints;
+        this.distanceMetric = DistanceMetric.EUCLIDEAN;
+        this.cellCapacity = 100000;
+        this.maxCellSize = 400000;
+        this.classIndex = -1;
+    }
+
+    /**
+     * Clusters the rows of the input file and writes one cluster number per line, in input
+     * order, to the assignments file (clusters from 1, -1 for noise).
+     */
+    public void buildClusterer(File input, File assignments) throws Exception {
+        File workDirectory = Files.createTempDirectory(
+                tempDirectory != null ? tempDirectory.toPath() : new File(System.getProperty("java.io.tmpdir")).toPath(),
+                "dbscan").toFile();
+        try {
+            Instances structure = new DataSource(input.getPath()).getStructure();
+            structure.setClassIndex(classIndex);
+            int[] attributes = selectAttributes(structure);
+
+            // Pass 1: ranges and spread of every attribute
+            double[] minimums = new double[attributes.length];
+            double[] maximums = new double[attributes.length];
+            Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+            Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+            double[] sums = new double[attributes.length];
+            double[] squares = new double[attributes.length];
+            numInstances = 0;
+            DataSource source = new DataSource(input.getPath());
+            Instances header = source.getStructure();
+            while (source.hasMoreElements(header)) {
+                Instance instance = source.nextElement(header);
+                if (instance.hasMissingValue()) {
+                    throw new IllegalArgumentException("Data contains missing values at instance: " + numInstances);
+                }
+                for (int j = 0; j < attributes.length; j++) {
+                    double value = instance.value(attributes[j]);
+                    minimums[j] = Math.min(minimums[j], value);
+                    maximums[j] = Math.max(maximums[j], value);
+                    sums[j] += value;
+                    squares[j] += value * value;
+                }
+                numInstances++;
+            }
+            if (numInstances > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many instances: " + numInstances);
+            }
+            int n = (int) numInstances;
+            double[] widths = new double[attributes.length];
+            int splitDimension = 0;
+            double bestSpread = -1;
+            for (int j = 0; j < attributes.length; j++) {
+                widths[j] = maximums[j] - minimums[j];
+                double variance = n > 0 ? squares[j] / n - (sums[j] / n) * (sums[j] / n) : 0;
+                double spread = widths[j] == 0 ? 0 : variance / (widths[j] * widths[j]);
+                if (spread > bestSpread) {
+                    bestSpread = spread;
+                    splitDimension = j;
+                }
+            }
+
+            // Pass 2: slab boundaries from a histogram of the split attribute
+            Partition root = new Partition(attributes.length);
+            root.split(splitDimension, computeBoundaries(input, attributes, minimums, widths, splitDimension));
+
+            // Further passes: cut the cells that do not fit
+            int numCells = refine(input, attributes, minimums, widths, root);
+
+            // Write every point to the cells whose extended range contains it
+            File[] cellFiles = writeCells(input, attributes, minimums, widths, root, numCells, workDirectory);
+
+            // Closing the arena unmaps the files, so that the work directory can be deleted
+            try (Arena arena = Arena.ofConfined();
+                 FileChannel coreChannel = FileChannel.open(new File(workDirectory, "core.bin").toPath(),
+                         StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileChannel labelChannel = FileChannel.open(new File(workDirectory, "labels.bin").toPath(),
+                         StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MemorySegment core = coreChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(n, 1), arena);
+                MemorySegment labels = labelChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(4L * n, 4), arena);
+
+                // Sweep 1: core flags of the owned points
+                for (int c = 0; c < numCells; c++) {
+                    Cell cell = loadCell(cellFiles[c], attributes.length, root, c);
+                    NeighborBuffer neighbors = new NeighborBuffer();
+                    for (int i = 0; i < cell.size(); i++) {
+                        if (cell.owns(i)) {
+                            cell.index.rangeQuery(cell.points.instance(i), neighbors);
+                            setCore(core, cell.ids[i], neighbors.size() - 1 >= minPoints);
+                        }
+                    }
+                }
+
+                // Sweep 2: local components, merged across slabs through shared core points
+                LabelUnion union = new LabelUnion();
+                Map<Integer, Integer> pending = new HashMap<>(); // Labels waiting for the owner of a point
+                for (int c = 0; c < numCells; c++) {
+                    Cell cell = loadCell(cellFiles[c], attributes.length, root, c);
+                    labelCell(cell, c, core, labels, union, pending);
+                }
+
+                // Number clusters by their first core point, as DBSCANClusterer does
+                Map<Integer, Integer> firstCore = new HashMap<>();
+                Map<Integer, Integer> clusterOf = new HashMap<>();
+                for (int id = 0; id < n; id++) {
+                    if (isCore(core, id)) {
+                        int label = union.find(getLabel(labels, id));
+                        if (!clusterOf.containsKey(label)) {
+                            firstCore.put(label, id);
+                            clusterOf.put(label, clusterOf.size() + 1);
+                        }
+                    }
+                }
+
+                // Sweep 3: attach border points now that the clusters are final
+                for (int c = 0; c < numCells; c++) {
+                    Cell cell = loadCell(cellFiles[c], attributes.length, root, c);
+                    labelBorderPoints(cell, core, labels, union, firstCore);
+                }
+
+                numClusters = clusterOf.size();
+                writeAssignments(n, labels, union, clusterOf, assignments);
+            }
+        } finally {
+            deleteRecursively(workDirectory);
+        }
+    }
+
+    // Numeric attributes taking part in the distance; dates count no difference in it
+    private int[] selectAttributes(Instances structure) {
+        ArrayList<Integer> selected = new ArrayList<>();
+        for (int i = 0; i < structure.numAttributes(); i++) {
+            Attribute attribute = structure.attribute(i);
+            if (i == structure.classIndex()) {
+                continue;
+            }
+            if (attribute.isNominal()) {
+                throw new IllegalArgumentException("Nominal attributes are not supported: " + attribute.name());
+            }
+            if (attribute.type() == Attribute.NUMERIC) {
+                selected.add(i);
+            }
+        }
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("Data has no numeric attribute to cluster on.");
+        }
+        int[] attributes = new int[selected.size()];
+        for (int j = 0; j < attributes.length; j++) {
+            attributes[j] = selected.get(j);
+        }
+        return attributes;
+    }
+
+    private double[] normalize(Instance instance, int[] attributes, double[] minimums, double[] widths) {
+        double[] point = new double[attributes.length];
+        for (int j = 0; j < attributes.length; j++) {
+            double value = instance.value(attributes[j]);
+            point[j] = widths[j] == 0 ? 0 : (value - minimums[j]) / widths[j];
+        }
+        return point;
+    }
+
+    private double[] computeBoundaries(File input, int[] attributes, double[] minimums, double[] widths,
+                                       int splitDimension) throws Exception {
+        long[] histogram = new long[HISTOGRAM_BINS];
+        DataSource source = new DataSource(input.getPath());
+        Instances header = source.getStructure();
+        while (source.hasMoreElements(header)) {
+            double value = normalize(source.nextElement(header), attributes, minimums, widths)[splitDimension];
+            histogram[Math.min(HISTOGRAM_BINS - 1, (int) (value * HISTOGRAM_BINS))]++;
+        }
+
+        // Close a slab as soon as it holds enough points
+        ArrayList<Double> boundaries = new ArrayList<>();
+        long count = 0;
+        for (int bin = 0; bin < HISTOGRAM_BINS - 1; bin++) {
+            count += histogram[bin];
+            if (count >= cellCapacity) {
+                boundaries.add((bin + 1) / (double) HISTOGRAM_BINS);
+                count = 0;
+            }
+        }
+        double[] result = new double[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Cuts every cell holding more than maxCellSize points, margins included, in two along the
+     * attribute and coordinate that leave the larger half smallest, one pass over the file per
+     * round, and numbers the cells. Fails when a cell is too dense for any cut to shrink it.
+     */
+    private int refine(File input, int[] attributes, double[] minimums, double[] widths, Partition root)
+            throws Exception {
+        double margin = epsilon * (1 + 1e-9);
+        ArrayList<Partition> covering = new ArrayList<>();
+        while (true) {
+            List<Partition> cells = root.number();
+            long[] sizes = new long[cells.size()];
+            DataSource source = new DataSource(input.getPath());
+            Instances header = source.getStructure();
+            while (source.hasMoreElements(header)) {
+                double[] point = normalize(source.nextElement(header), attributes, minimums, widths);
+                root.covering(point, margin, covering);
+                for (Partition cell : covering) {
+                    sizes[cell.number]++;
+                }
+            }
+
+            long[][][] histograms = new long[cells.size()][][];
+            boolean oversized = false;
+            for (int c = 0; c < sizes.length; c++) {
+                if (sizes[c] > maxCellSize) {
+                    histograms[c] = new long[attributes.length][SPLIT_BINS];
+                    oversized = true;
+                }
+            }
+            if (!oversized) {
+                return cells.size();
+            }
+
+            // Histograms, over each extended box, of the points the oversized cells load
+            source = new DataSource(input.getPath());
+            header = source.getStructure();
+            while (source.hasMoreElements(header)) {
+                double[] point = normalize(source.nextElement(header), attributes, minimums, widths);
+                root.covering(point, margin, covering);
+                for (Partition cell : covering) {
+                    long[][] histogram = histograms[cell.number];
+                    if (histogram != null) {
+                        for (int j = 0; j < point.length; j++) {
+                            histogram[j][cell.bin(j, point[j], margin)]++;
+                        }
+                    }
+                }
+            }
+            for (int c = 0; c < sizes.length; c++) {
+                if (histograms[c] != null) {
+                    cut(cells.get(c), histograms[c], sizes[c], margin);
+                }
+            }
+        }
+    }
+
+    private void cut(Partition cell, long[][] histogram, long size, double margin) {
+        long best = size;
+        int bestDimension = -1;
+        double bestCoordinate = 0;
+        for (int j = 0; j < histogram.length; j++) {
+            double start = cell.lows[j] - margin;
+            double binWidth = (cell.highs[j] - cell.lows[j] + 2 * margin) / SPLIT_BINS;
+            long[] cumulative = new long[SPLIT_BINS + 1];
+            for (int b = 0; b < SPLIT_BINS; b++) {
+                cumulative[b + 1] = cumulative[b] + histogram[j][b];
+            }
+            // Whole bins overlapping a half's extended range, so the counts are upper bounds
+            int reach = (int) Math.ceil(margin / binWidth);
+            for (int edge = 1; edge < SPLIT_BINS; edge++) {
+                double coordinate = start + edge * binWidth;
+                if (coordinate <= cell.lows[j] || coordinate >= cell.highs[j]) {
+                    continue;
+                }
+                long lower = cumulative[Math.min(SPLIT_BINS, edge + reach)];
+                long upper = size - cumulative[Math.max(0, edge - reach)];
+                if (Math.max(lower, upper) < best) {
+                    best = Math.max(lower, upper);
+                    bestDimension = j;
+                    bestCoordinate = coordinate;
+                }
+            }
+        }
+        if (bestDimension < 0) {
+            throw new IllegalArgumentException("A cell of " + size + " points, margins included, cannot be cut "
+                    + "below the maximum cell size of " + maxCellSize + ": raise it or lower epsilon.");
+        }
+        cell.split(bestDimension, new double[]{bestCoordinate});
+    }
+
+    private File[] writeCells(File input, int[] attributes, double[] minimums, double[] widths, Partition root,
+                              int numCells, File workDirectory) throws Exception {
+        File[] files = new File[numCells];
+        DataOutputStream[] outputs = new DataOutputStream[numCells];
+        double margin = epsilon * (1 + 1e-9);
+        try {
+            for (int c = 0; c < numCells; c++) {
+                files[c] = new File(workDirectory, "cell" + c + ".bin");
+                outputs[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[c]), 1 << 16));
+            }
+            DataSource source = new DataSource(input.getPath());
+            Instances header = source.getStructure();
+            ArrayList<Partition> covering = new ArrayList<>();
+            int id = 0;
+            while (source.hasMoreElements(header)) {
+                double[] point = normalize(source.nextElement(header), attributes, minimums, widths);
+                root.covering(point, margin, covering);
+                for (Partition cell : covering) {
+                    DataOutputStream output = outputs[cell.number];
+                    output.writeInt(id);
+                    for (double value : point) {
+                        output.writeDouble(value);
+                    }
+                }
+                id++;
+            }
+        } finally {
+            for (DataOutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+        return files;
+    }
+
+    // Part owning a coordinate of the split attribute
+    private static int cellOf(double value, double[] boundaries) {
+        int position = Arrays.binarySearch(boundaries, value);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    // Box of the normalized space: a leaf is a cell, an inner node is cut along one attribute
+    private static class Partition {
+        int dimension = -1;     // Attribute cut along, -1 for a cell
+        double[] boundaries;    // Sorted cut coordinates
+        Partition[] children;   // One per part, lowest first
+        double[] lows;
+        double[] highs;
+        int number;             // Cell number, in depth-first order
+
+        Partition(int dimensions) {
+            lows = new double[dimensions];
+            highs = new double[dimensions];
+            Arrays.fill(highs, 1);
+        }
+
+        void split(int dimension, double[] boundaries) {
+            this.dimension = dimension;
+            this.boundaries = boundaries;
+            children = new Partition[boundaries.length + 1];
+            for (int i = 0; i < children.length; i++) {
+                Partition child = new Partition(lows.length);
+                child.lows = lows.clone();
+                child.highs = highs.clone();
+                if (i > 0) {
+                    child.lows[dimension] = boundaries[i - 1];
+                }
+                if (i < boundaries.length) {
+                    child.highs[dimension] = boundaries[i];
+                }
+                children[i] = child;
+            }
+        }
+
+        // Cells in depth-first order, numbered
+        List<Partition> number() {
+            List<Partition> cells = new ArrayList<>();
+            collect(cells);
+            return cells;
+        }
+
+        private void collect(List<Partition> cells) {
+            if (dimension < 0) {
+                number = cells.size();
+                cells.add(this);
+            } else {
+                for (Partition child : children) {
+                    child.collect(cells);
+                }
+            }
+        }
+
+        Partition owner(double[] point) {
+            Partition node = this;
+            while (node.dimension >= 0) {
+                node = node.children[cellOf(point[node.dimension], node.boundaries)];
+            }
+            return node;
+        }
+
+        // Cells whose box, widened by the margin, contains the point
+        void covering(double[] point, double margin, List<Partition> cells) {
+            cells.clear();
+            addCovering(point, margin, cells);
+        }
+
+        private void addCovering(double[] point, double margin, List<Partition> cells) {
+            if (dimension < 0) {
+                cells.add(this);
+                return;
+            }
+            int first = cellOf(point[dimension] - margin, boundaries);
+            int last = cellOf(point[dimension] + margin, boundaries);
+            for (int i = first; i <= last; i++) {
+                children[i].addCovering(point, margin, cells);
+            }
+        }
+
+        // Histogram bin of a coordinate within the box widened by the margin
+        int bin(int j, double value, double margin) {
+            double start = lows[j] - margin;
+            double width = highs[j] - lows[j] + 2 * margin;
+            return Math.max(0, Math.min(SPLIT_BINS - 1, (int) ((value - start) / width * SPLIT_BINS)));
+        }
+    }
+
+    // Points of a cell file, including its margins, with an in-memory index over them
+    private static class Cell {
+        int number;
+        int[] ids;
+        int[] owners; // Cell owning each point
+        Instances points;
+        RangeQueryIndex index;
+
+        int size() {
+            return ids.length;
+        }
+
+        boolean owns(int i) {
+            return owners[i] == number;
+        }
+    }
+
+    private Cell loadCell(File file, int dimensions, Partition root, int c) throws Exception {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int j = 0; j < dimensions; j++) {
+            attributes.add(new Attribute("a" + j));
+        }
+
+        Cell cell = new Cell();
+        cell.number = c;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            int count = (int) (file.length() / (4 + 8L * dimensions));
+            cell.ids = new int[count];
+            cell.owners = new int[count];
+            cell.points = new Instances("cell" + c, attributes, count);
+            for (int i = 0; i < count; i++) {
+                cell.ids[i] = in.readInt();
+                double[] values = new double[dimensions];
+                for (int j = 0; j < dimensions; j++) {
+                    values[j] = in.readDouble();
+                }
+                cell.owners[i] = root.owner(values).number;
+                cell.points.add(new DenseInstance(1.0, values));
+            }
+        }
+
+        // Coordinates are already normalized with the global ranges
+        NormalizableDistance distance = distanceMetric == DistanceMetric.MANHATTAN
+                ? new ManhattanDistance() : new EuclideanDistance();
+        distance.setDontNormalize(true);
+        distance.setInstances(cell.points);
+        cell.index = DBSCANClusterer.createIndex(IndexType.AUTO, cell.points, distance, epsilon);
+        cell.index.build(cell.points, distance, epsilon);
+        return cell;
+    }
+
+    private void labelCell(Cell cell, int c, MemorySegment core, MemorySegment labels,
+                           LabelUnion union, Map<Integer, Integer> pending) {
+        int size = cell.size();
+        int[] parent = new int[size];
+        boolean[] isCore = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+            isCore[i] = isCore(core, cell.ids[i]);
+        }
+
+        // Join core points within epsilon of each other
+        NeighborBuffer neighbors = new NeighborBuffer();
+        for (int i = 0; i < size; i++) {
+            if (!isCore[i]) {
+                continue;
+            }
+            cell.index.rangeQuery(cell.points.instance(i), neighbors);
+            for (int k = 0; k < neighbors.size(); k++) {
+                int j = neighbors.get(k);
+                if (isCore[j]) {
+                    link(parent, i, j);
+                }
+            }
+        }
+
+        // One global label per local component
+        int[] localLabel = new int[size];
+        Arrays.fill(localLabel, -1);
+        for (int i = 0; i < size; i++) {
+            if (isCore[i]) {
+                int root = root(parent, i);
+                if (localLabel[root] == -1) {
+                    localLabel[root] = union.newLabel();
+                }
+                localLabel[i] = localLabel[root];
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            int id = cell.ids[i];
+            if (isCore[i]) {
+                if (cell.owns(i)) {
+                    setLabel(labels, id, localLabel[i]);
+                    Integer waiting = pending.remove(id);
+                    if (waiting != null) {
+                        union.join(waiting, localLabel[i]);
+                    }
+                } else if (cell.owners[i] < c) {
+                    // Owned by a cell labeled before
+                    union.join(getLabel(labels, id), localLabel[i]);
+                } else {
+                    Integer waiting = pending.get(id);
+                    if (waiting != null) {
+                        union.join(waiting, localLabel[i]);
+                    } else {
+                        pending.put(id, localLabel[i]);
+                    }
+                }
+            } else if (cell.owns(i)) {
+                setLabel(labels, id, -1); // Noise until border points are attached
+            }
+        }
+    }
+
+    /**
+     * Gives each owned non-core point the earliest cluster among its core neighbors, provided
+     * that cluster starts before the point; otherwise the sequential DBSCAN loop would already
+     * have marked it as noise.
+     */
+    private void labelBorderPoints(Cell cell, MemorySegment core, MemorySegment labels,
+                                   LabelUnion union, Map<Integer, Integer> firstCore) {
+        NeighborBuffer neighbors = new NeighborBuffer();
+        for (int i = 0; i < cell.size(); i++) {
+            int id = cell.ids[i];
+            if (!cell.owns(i) || isCore(core, id)) {
+                continue;
+            }
+            cell.index.rangeQuery(cell.points.instance(i), neighbors);
+            int label = -1;
+            int earliest = id;
+            for (int k = 0; k < neighbors.size(); k++) {
+                int neighbor = cell.ids[neighbors.get(k)];
+                if (isCore(core, neighbor)) {
+                    int root = union.find(getLabel(labels, neighbor));
+                    if (firstCore.get(root) < earliest) {
+                        earliest = firstCore.get(root);
+                        label = root;
+                    }
+                }
+            }
+            setLabel(labels, id, label);
+        }
+    }
+
+    private static boolean isCore(MemorySegment core, int id) {
+        return core.get(ValueLayout.JAVA_BYTE, id) == 1;
+    }
+
+    private static void setCore(MemorySegment core, int id, boolean isCore) {
+        core.set(ValueLayout.JAVA_BYTE, id, (byte) (isCore ? 1 : 0));
+    }
+
+    private static int getLabel(MemorySegment labels, int id) {
+        return labels.get(ValueLayout.JAVA_INT, 4L * id);
+    }
+
+    private static void setLabel(MemorySegment labels, int id, int label) {
+        labels.set(ValueLayout.JAVA_INT, 4L * id, label);
+    }
+
+    private static int root(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static void link(int[] parent, int a, int b) {
+        int rootA = root(parent, a);
+        int rootB = root(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    // Union-find over cluster labels, whose count grows with cells and clusters, not rows
+    private static class LabelUnion {
+        private int[] parent = new int[64];
+        private int size;
+
+        int newLabel() {
+            if (size == parent.length) {
+                parent = Arrays.copyOf(parent, size * 2);
+            }
+            parent[size] = size;
+            return size++;
+        }
+
+        int find(int x) {
+            return root(parent, x);
+        }
+
+        void join(int a, int b) {
+            link(parent, a, b);
+        }
+    }
+
+    // Writes one assignment per line, in input order
+    private void writeAssignments(int n, MemorySegment labels, LabelUnion union, Map<Integer, Integer> clusterOf,
+                                  File assignments) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(assignments))) {
+            for (int id = 0; id < n; id++) {
+                int label = getLabel(labels, id);
+                writer.write(String.valueOf(label < 0 ? -1 : clusterOf.get(union.find(label))));
+                writer.newLine();
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    public int numberOfClusters() {
+        return numClusters;
+    }
+
+    public long getNumInstances() {
+        return numInstances;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public int getMinPoints() {
+        return minPoints;
+    }
+
+    public DistanceMetric getDistanceMetric() {
+        return distanceMetric;
+    }
+
+    public void setDistanceMetric(DistanceMetric distanceMetric) {
+        this.distanceMetric = distanceMetric;
+    }
+
+    public int getCellCapacity() {
+        return cellCapacity;
+    }
+
+    public void setCellCapacity(int cellCapacity) {
+        this.cellCapacity = cellCapacity;
+    }
+
+    public int getMaxCellSize() {
+        return maxCellSize;
+    }
+
+    /**
+     * Most points, margins included, a cell may hold in memory; larger slabs are cut again.
+     */
+    public void setMaxCellSize(int maxCellSize) {
+        this.maxCellSize = maxCellSize;
+    }
+
+    public int getClassIndex() {
+        return classIndex;
+    }
+
+    public void setClassIndex(int classIndex) {
+        this.classIndex = classIndex;
+    }
+
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Disk-based DBSCAN Clustering Algorithm\n");
+        sb.append("Epsilon: ").append(epsilon).append("\n");
+        sb.append("Minimum Points: ").append(minPoints).append("\n");
+        sb.append("Distance metric: ").append(distanceMetric).append("\n");
+        sb.append("Number of instances: ").append(numInstances).append("\n");
+        sb.append("Number of clusters: ").append(numClusters).append("\n");
+        return sb.toString();
+    }
+}
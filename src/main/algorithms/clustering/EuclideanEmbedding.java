@@ -0,0 +1,93 @@
+package main.algorithms.clustering;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * Maps instances to vectors whose plain Euclidean distance is Weka's normalized
+ * EuclideanDistance between them.
+ *
+ * A numeric attribute becomes one coordinate scaled to [0, 1] by its range, or 0 if the
+ * range is empty, as NormalizableDistance.norm() scales it. A nominal attribute becomes one
+ * coordinate per value, 1 / sqrt(2) for the value taken and 0 elsewhere, so two different
+ * values are at distance 1 and equal values at 0. Other attributes, dates included, are
+ * ignored, as the distance function ignores them. Averages of these vectors are the
+ * centroids clustering features need; a nominal centroid holds the scaled frequency of each
+ * value.
+ */
+public class EuclideanEmbedding {
+
+    private static final double NOMINAL_SCALE = Math.sqrt(0.5);
+
+    private final int[] attributes;   // Attribute of each numeric or nominal slot
+    private final int[] offsets;      // First coordinate of each slot
+    private final boolean[] nominal;
+    private final double[] min;
+    private final double[] width;     // 0 for an empty range
+    private final int dimensions;
+
+    /**
+     * @param min smallest value of each attribute, NaN if it has none
+     * @param max largest value of each attribute
+     */
+    public EuclideanEmbedding(Instances header, double[] min, double[] max) {
+        int count = 0;
+        for (int j = 0; j < header.numAttributes(); j++) {
+            if (used(header.attribute(j))) {
+                count++;
+            }
+        }
+        attributes = new int[count];
+        offsets = new int[count];
+        nominal = new boolean[count];
+        this.min = new double[count];
+        width = new double[count];
+        int slot = 0;
+        int offset = 0;
+        for (int j = 0; j < header.numAttributes(); j++) {
+            Attribute attribute = header.attribute(j);
+            if (!used(attribute)) {
+                continue;
+            }
+            attributes[slot] = j;
+            offsets[slot] = offset;
+            nominal[slot] = attribute.isNominal();
+            if (nominal[slot]) {
+                offset += attribute.numValues();
+            } else {
+                this.min[slot] = min[j];
+                boolean empty = Double.isNaN(min[j]) || max[j] == min[j];
+                width[slot] = empty ? 0 : max[j] - min[j];
+                offset++;
+            }
+            slot++;
+        }
+        dimensions = offset;
+    }
+
+    private static boolean used(Attribute attribute) {
+        return attribute.type() == Attribute.NUMERIC || attribute.isNominal();
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Writes the vector of an instance without missing values.
+     */
+    public void embed(Instance instance, double[] out) {
+        Arrays.fill(out, 0);
+        for (int s = 0; s < attributes.length; s++) {
+            double value = instance.value(attributes[s]);
+            if (nominal[s]) {
+                out[offsets[s] + (int) value] = NOMINAL_SCALE;
+            } else if (width[s] > 0) {
+                out[offsets[s]] = (value - min[s]) / width[s];
+            }
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package main.algorithms.clustering;
+
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import main.algorithms.clustering.DBSCANClusterer.PointType;
+import main.algorithms.clustering.index.DynamicGridIndex;
+import main.algorithms.clustering.index.NeighborBuffer;
+
+/**
+ * Incremental DBSCAN: instances can be inserted and deleted without rebuilding the clustering.
+ *
+ * Neighbor lists, core status and the connected components of core points are kept up to date.
+ * An update only queries the neighborhood of the changed point; merges relabel the smaller
+ * component, and a component that lost core points is searched from their neighbors only
+ * until the pieces cut off are found. Assignments and point types are the ones a
+ * DBSCANClusterer would produce on the live instances, in insertion order, with the same
+ * distance function.
+ *
+ * A normalizing distance function must keep the ranges of the live instances, as a batch run
+ * normalizes with those of its own data: an insert outside the ranges, or a delete that
+ * narrows them, rebuilds the whole model.
+ */
+public class IncrementalDBSCANClusterer {
+
+    private double epsilon;
+    private int minPoints;
+    private DistanceFunction distanceFunction;
+    private Instances header;
+    private DynamicGridIndex index;
+
+    // Per-point state, indexed by the id returned by insertInstance
+    private Instance[] instances;
+    private NeighborBuffer[] neighbors; // Neighbors within epsilon, excluding the point itself
+    private boolean[] core;
+    private int[] component;            // Component of each core point
+    private int[] search;               // Search reaching each point during a split, -1 otherwise
+    private int nextId;
+    private int numLive;
+
+    // Members of each component of connected core points
+    private Map<Integer, NeighborBuffer> components;
+    private int nextComponent;
+
+    public IncrementalDBSCANClusterer(double epsilon, int minPoints) {
+        this.epsilon = epsilon;
+        this.minPoints = minPoints;
+        distanceFunction = new EuclideanDistance(); // default distance function
+    }
+
+    /**
+     * Same settings as the batch clusterer, with a copy of its distance function: initialize()
+     * sets new ranges on it, which must not change those the batch model was indexed with.
+     */
+    public IncrementalDBSCANClusterer(DBSCANClusterer clusterer) throws Exception {
+        this(clusterer.getEpsilon(), clusterer.getMinPoints());
+        DistanceFunction original = clusterer.getDistanceFunction();
+        distanceFunction = original.getClass().getDeclaredConstructor().newInstance();
+        distanceFunction.setOptions(original.getOptions());
+    }
+
+    /**
+     * Resets the model and inserts the initial instances in order.
+     */
+    public void initialize(Instances data) throws Exception {
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+        distanceFunction.setInstances(data);
+        header = new Instances(data, 0);
+        index = new DynamicGridIndex(header, distanceFunction, epsilon);
+
+        int capacity = Math.max(16, data.numInstances());
+        instances = new Instance[capacity];
+        neighbors = new NeighborBuffer[capacity];
+        core = new boolean[capacity];
+        component = new int[capacity];
+        search = new int[capacity];
+        Arrays.fill(search, -1);
+        nextId = 0;
+        numLive = 0;
+        components = new HashMap<>();
+        nextComponent = 0;
+
+        for (int i = 0; i < data.numInstances(); i++) {
+            insertInstance(data.instance(i));
+        }
+    }
+
+    /**
+     * Adds an instance after the existing ones and returns its id.
+     */
+    public int insertInstance(Instance instance) throws Exception {
+        if (header == null) {
+            throw new IllegalStateException("The clusterer has not been initialized yet.");
+        }
+        if (instance.hasMissingValue()) {
+            throw new IllegalArgumentException("Instance contains missing values.");
+        }
+        int id = nextId++;
+        ensureCapacity(id + 1);
+        if (normalizes() && !((NormalizableDistance) distanceFunction).inRanges(instance, ranges())) {
+            instances[id] = instance;
+            numLive++;
+            updateRanges();
+            rebuild();
+        } else {
+            add(id, instance);
+        }
+        return id;
+    }
+
+    private void add(int id, Instance instance) {
+        NeighborBuffer found = new NeighborBuffer();
+        index.rangeQuery(instance, found);
+        index.insert(id, instance);
+        instances[id] = instance;
+        neighbors[id] = found;
+        numLive++;
+
+        // Update neighbor counts and collect the points that became core
+        NeighborBuffer newCores = new NeighborBuffer();
+        if (found.size() >= minPoints) {
+            core[id] = true;
+            newCores.add(id);
+        }
+        for (int i = 0; i < found.size(); i++) {
+            int neighbor = found.get(i);
+            neighbors[neighbor].add(id);
+            if (!core[neighbor] && neighbors[neighbor].size() >= minPoints) {
+                core[neighbor] = true;
+                newCores.add(neighbor);
+            }
+        }
+
+        // New core points start their own component and merge with neighboring ones
+        for (int i = 0; i < newCores.size(); i++) {
+            int point = newCores.get(i);
+            NeighborBuffer members = new NeighborBuffer(4);
+            members.add(point);
+            component[point] = nextComponent;
+            components.put(nextComponent++, members);
+        }
+        for (int i = 0; i < newCores.size(); i++) {
+            int point = newCores.get(i);
+            NeighborBuffer around = neighbors[point];
+            for (int j = 0; j < around.size(); j++) {
+                if (core[around.get(j)]) {
+                    merge(component[point], component[around.get(j)]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the instance with the given id.
+     */
+    public void deleteInstance(int id) throws Exception {
+        if (id < 0 || id >= nextId || instances[id] == null) {
+            throw new IllegalArgumentException("Unknown instance id: " + id);
+        }
+        if (normalizes() && onRangeBoundary(instances[id])) {
+            Instance removed = instances[id];
+            instances[id] = null;
+            numLive--;
+            if (updateRanges()) {
+                rebuild();
+                return;
+            }
+            instances[id] = removed;
+            numLive++;
+        }
+        index.remove(id);
+
+        // Update neighbor counts and collect the components that lost a core point
+        NeighborBuffer lostCores = new NeighborBuffer();
+        if (core[id]) {
+            lostCores.add(id);
+        }
+        NeighborBuffer around = neighbors[id];
+        for (int i = 0; i < around.size(); i++) {
+            int neighbor = around.get(i);
+            neighbors[neighbor].remove(id);
+            if (core[neighbor] && neighbors[neighbor].size() < minPoints) {
+                lostCores.add(neighbor);
+            }
+        }
+        instances[id] = null;
+        numLive--;
+
+        NeighborBuffer affected = new NeighborBuffer();
+        for (int i = 0; i < lostCores.size(); i++) {
+            int point = lostCores.get(i);
+            core[point] = false;
+            components.get(component[point]).remove(point);
+            affected.remove(component[point]); // Once per component
+            affected.add(component[point]);
+        }
+        for (int i = 0; i < affected.size(); i++) {
+            split(affected.get(i), lostCores);
+        }
+        neighbors[id] = null; // Kept for the splits, which start from its neighbors
+    }
+
+    // Joins two components, relabeling the smaller one
+    private void merge(int first, int second) {
+        if (first == second) {
+            return;
+        }
+        NeighborBuffer a = components.get(first);
+        NeighborBuffer b = components.get(second);
+        int kept = a.size() >= b.size() ? first : second;
+        int moved = kept == first ? second : first;
+        NeighborBuffer keptMembers = components.get(kept);
+        NeighborBuffer movedMembers = components.remove(moved);
+        for (int i = 0; i < movedMembers.size(); i++) {
+            int point = movedMembers.get(i);
+            component[point] = kept;
+            keptMembers.add(point);
+        }
+    }
+
+    // Splits a component that lost core points into its connected pieces. A search starts
+    // from each core neighbor of the lost points, and the searches advance one point in turn,
+    // joining when they meet; a group of searches that runs out is a piece cut off, and the
+    // walk stops once a single group is left, which keeps the label.
+    private void split(int label, NeighborBuffer lostCores) {
+        NeighborBuffer members = components.get(label);
+        if (members == null) {
+            return;
+        }
+        if (members.size() == 0) {
+            components.remove(label);
+            return;
+        }
+        NeighborBuffer seeds = new NeighborBuffer();
+        for (int i = 0; i < lostCores.size(); i++) {
+            int lost = lostCores.get(i);
+            if (component[lost] != label) {
+                continue;
+            }
+            NeighborBuffer around = neighbors[lost];
+            for (int j = 0; j < around.size(); j++) {
+                int neighbor = around.get(j);
+                if (core[neighbor] && component[neighbor] == label && search[neighbor] == -1) {
+                    search[neighbor] = seeds.size();
+                    seeds.add(neighbor);
+                }
+            }
+        }
+
+        int count = seeds.size();
+        int[][] queues = new int[count][];
+        int[] heads = new int[count];
+        int[] tails = new int[count];
+        int[] group = new int[count];   // Union-find over the searches
+        int[] running = new int[count]; // Searches of each group not run out yet
+        for (int s = 0; s < count; s++) {
+            queues[s] = new int[] {seeds.get(s)};
+            tails[s] = 1;
+            group[s] = s;
+            running[s] = 1;
+        }
+        int groups = count;
+        boolean cut = false;
+        while (groups > 1) {
+            for (int s = 0; s < count && groups > 1; s++) {
+                if (heads[s] == tails[s]) {
+                    continue;
+                }
+                NeighborBuffer around = neighbors[queues[s][heads[s]++]];
+                for (int j = 0; j < around.size(); j++) {
+                    int neighbor = around.get(j);
+                    if (!core[neighbor]) {
+                        continue;
+                    }
+                    if (search[neighbor] == -1) {
+                        search[neighbor] = s;
+                        if (tails[s] == queues[s].length) {
+                            queues[s] = Arrays.copyOf(queues[s], 2 * tails[s]);
+                        }
+                        queues[s][tails[s]++] = neighbor;
+                    } else {
+                        int mine = find(group, s);
+                        int theirs = find(group, search[neighbor]);
+                        if (mine != theirs) {
+                            group[theirs] = mine;
+                            running[mine] += running[theirs];
+                            groups--;
+                        }
+                    }
+                }
+                if (heads[s] == tails[s] && --running[find(group, s)] == 0 && groups > 1) {
+                    // Every search of the group ran out: its points are a piece of their own
+                    int root = find(group, s);
+                    int piece = nextComponent++;
+                    NeighborBuffer pieceMembers = new NeighborBuffer(4);
+                    components.put(piece, pieceMembers);
+                    for (int t = 0; t < count; t++) {
+                        if (find(group, t) == root) {
+                            for (int q = 0; q < tails[t]; q++) {
+                                component[queues[t][q]] = piece;
+                                pieceMembers.add(queues[t][q]);
+                            }
+                        }
+                    }
+                    groups--;
+                    cut = true;
+                }
+            }
+        }
+        for (int s = 0; s < count; s++) {
+            for (int q = 0; q < tails[s]; q++) {
+                search[queues[s][q]] = -1;
+            }
+        }
+        if (cut) {
+            NeighborBuffer kept = new NeighborBuffer(members.size());
+            for (int i = 0; i < members.size(); i++) {
+                if (component[members.get(i)] == label) {
+                    kept.add(members.get(i));
+                }
+            }
+            components.put(label, kept);
+        }
+    }
+
+    private static int find(int[] group, int s) {
+        while (group[s] != s) {
+            group[s] = group[group[s]];
+            s = group[s];
+        }
+        return s;
+    }
+
+    private boolean normalizes() {
+        return distanceFunction instanceof NormalizableDistance
+                && !((NormalizableDistance) distanceFunction).getDontNormalize();
+    }
+
+    private double[][] ranges() throws Exception {
+        return ((NormalizableDistance) distanceFunction).getRanges();
+    }
+
+    // True when the instance holds the smallest or largest value of an attribute
+    private boolean onRangeBoundary(Instance instance) throws Exception {
+        double[][] ranges = ranges();
+        for (int j = 0; j < ranges.length; j++) {
+            double value = instance.value(j);
+            if (value == ranges[j][NormalizableDistance.R_MIN] || value == ranges[j][NormalizableDistance.R_MAX]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sets the ranges of the live instances on the distance function; true if they changed
+    private boolean updateRanges() throws Exception {
+        double[][] before = ranges();
+        double[][] previous = new double[before.length][];
+        for (int j = 0; j < before.length; j++) {
+            previous[j] = before[j].clone();
+        }
+        distanceFunction.setInstances(getInstances());
+        return !Arrays.deepEquals(previous, ranges());
+    }
+
+    // Inserts the live instances again, under their ids, with the current ranges
+    private void rebuild() throws Exception {
+        index = new DynamicGridIndex(header, distanceFunction, epsilon);
+        Arrays.fill(core, false);
+        numLive = 0;
+        components.clear();
+        nextComponent = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (instances[id] != null) {
+                add(id, instances[id]);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > instances.length) {
+            int size = Math.max(capacity, instances.length * 2);
+            instances = Arrays.copyOf(instances, size);
+            neighbors = Arrays.copyOf(neighbors, size);
+            core = Arrays.copyOf(core, size);
+            component = Arrays.copyOf(component, size);
+            int previous = search.length;
+            search = Arrays.copyOf(search, size);
+            Arrays.fill(search, previous, size, -1);
+        }
+    }
+
+    /**
+     * Returns the live instances, in insertion order.
+     */
+    public Instances getInstances() {
+        Instances data = new Instances(header, numLive);
+        for (int id = 0; id < nextId; id++) {
+            if (instances[id] != null) {
+                data.add(instances[id]);
+            }
+        }
+        return data;
+    }
+
+    public int numberOfClusters() {
+        return components.size();
+    }
+
+    /**
+     * Cluster assignments of the live instances in insertion order, numbered like
+     * DBSCANClusterer: clusters from 1 in order of their first core point, -1 for noise.
+     */
+    public int[] getClusterAssignments() {
+        int[] assignments = new int[numLive];
+        label(assignments, null);
+        return assignments;
+    }
+
+    public PointType[] getPointTypes() {
+        PointType[] types = new PointType[numLive];
+        label(null, types);
+        return types;
+    }
+
+    private void label(int[] assignments, PointType[] types) {
+        // Number the components in order of their first core point
+        Map<Integer, Integer> clusterOf = new HashMap<>();
+        Map<Integer, Integer> firstCoreOf = new HashMap<>();
+        for (int id = 0; id < nextId; id++) {
+            if (instances[id] != null && core[id] && !clusterOf.containsKey(component[id])) {
+                clusterOf.put(component[id], clusterOf.size() + 1);
+                firstCoreOf.put(component[id], id);
+            }
+        }
+
+        int position = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (instances[id] == null) {
+                continue;
+            }
+            int cluster;
+            PointType type;
+            if (core[id]) {
+                cluster = clusterOf.get(component[id]);
+                type = PointType.CORE;
+            } else {
+                // A border point joins the earliest neighboring cluster started before it
+                int firstCluster = Integer.MAX_VALUE;
+                int firstCore = Integer.MAX_VALUE;
+                NeighborBuffer around = neighbors[id];
+                for (int j = 0; j < around.size(); j++) {
+                    int neighbor = around.get(j);
+                    if (core[neighbor] && clusterOf.get(component[neighbor]) < firstCluster) {
+                        firstCluster = clusterOf.get(component[neighbor]);
+                        firstCore = firstCoreOf.get(component[neighbor]);
+                    }
+                }
+                if (firstCore < id) {
+                    cluster = firstCluster;
+                    type = PointType.BORDER;
+                } else {
+                    cluster = -1;
+                    type = PointType.NOISE;
+                }
+            }
+            if (assignments != null) {
+                assignments[position] = cluster;
+            }
+            if (types != null) {
+                types[position] = type;
+            }
+            position++;
+        }
+    }
+
+    public void setDistanceFunction(DistanceFunction distanceFunction) {
+        this.distanceFunction = distanceFunction;
+    }
+
+    public DistanceFunction getDistanceFunction() {
+        return distanceFunction;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public int getMinPoints() {
+        return minPoints;
+    }
+
+    @Override
+    public String toString() {
+        int[] assignments = getClusterAssignments();
+        PointType[] types = getPointTypes();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("DBSCAN Clustering Algorithm\n");
+        sb.append("Epsilon: ").append(epsilon).append("\n");
+        sb.append("Minimum Points: ").append(minPoints).append("\n");
+        sb.append("Number of clusters: ").append(numberOfClusters()).append("\n");
+        sb.append("Cluster Assignments and Point Types:\n");
+
+        for (int i = 0; i < assignments.length; i++) {
+            sb.append("Instance ").append(i).append(": Cluster ")
+              .append(assignments[i]).append(", Type ")
+              .append(types[i]).append("\n");
+        }
+
+        return sb.toString();
+    }
+}
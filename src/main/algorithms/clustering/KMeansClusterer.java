@@ -5,15 +5,28 @@ import weka.core.Instances;
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
 import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
 import weka.core.SelectedTag;
 import weka.core.Instance;
 
+import java.io.File;
+
+import main.algorithms.distance.DistanceKernels;
+
 public class KMeansClusterer {
     private SimpleKMeans clusterer;
     private int numClasses;
     private Instances initialCenters;
     private DistanceMetric distanceMetric;
     private Instances data;
+    private Engine engine;
+    private int numThreads;
+    private NativeKMeans.Acceleration acceleration;
+    private NativeKMeans.Initialization seeding;
+    private boolean vectorized;
+    private NativeKMeans nativeClusterer;
+    private MiniBatchKMeans miniBatchClusterer;
+    private int batchSize;
 
     // Enum for distance metrics
     public enum DistanceMetric {
@@ -21,12 +34,23 @@ public class KMeansClusterer {
         MANHATTAN
     }
 
+    // Enum for the engine running the algorithm
+    public enum Engine {
+        WEKA,   // SimpleKMeans
+        NATIVE  // NativeKMeans: flat arrays, parallel assignment step
+    }
+
     // Constructor with all parameters
     public KMeansClusterer(int numClasses, Instances initialCenters, DistanceMetric metric) {
         this.numClasses = numClasses;
         this.initialCenters = initialCenters;
         this.distanceMetric = metric;
         this.clusterer = new SimpleKMeans();
+        this.engine = Engine.WEKA;
+        this.numThreads = 0;
+        this.acceleration = NativeKMeans.Acceleration.AUTO;
+        this.seeding = NativeKMeans.Initialization.RANDOM;
+        this.batchSize = 1000;
         
         initializeClusterer();
     }
@@ -56,12 +80,11 @@ public class KMeansClusterer {
             // Configure other parameters
             clusterer.setPreserveInstancesOrder(true);
             
-            // If we have initial centers, we'll use a specific seed and initialization method
-            if (initialCenters != null) {
-                clusterer.setSeed(1);  // Fixed seed for reproducibility
-                clusterer.setInitializationMethod(new SelectedTag(
-                    SimpleKMeans.KMEANS_PLUS_PLUS, SimpleKMeans.TAGS_SELECTION));
-            }
+            // SimpleKMeans only knows random and k-means++ seeding; the others run natively
+            clusterer.setInitializationMethod(new SelectedTag(
+                seeding == NativeKMeans.Initialization.KMEANS_PLUS_PLUS
+                    ? SimpleKMeans.KMEANS_PLUS_PLUS : SimpleKMeans.RANDOM,
+                SimpleKMeans.TAGS_SELECTION));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -86,28 +109,87 @@ public class KMeansClusterer {
             }
         }
 
-        // If initial centers are provided, replace the first numClasses instances with them
+        // Initial centers are the starting centroids; the data itself is left as it is
         if (initialCenters != null) {
             validateInitialCenters(data);
-            Instances modifiedData = new Instances(data);
-            
-            // Replace first numClasses instances with initial centers
-            for (int i = 0; i < numClasses && i < initialCenters.numInstances(); i++) {
-                if (i < modifiedData.numInstances()) {
-                    modifiedData.set(i, initialCenters.instance(i));
-                } else {
-                    modifiedData.add(initialCenters.instance(i));
-                }
-            }
-            
-            this.data = modifiedData;
-            clusterer.buildClusterer(modifiedData);
+        }
+        this.data = data;
+
+        miniBatchClusterer = null;
+        if (usesNativeEngine()) {
+            nativeClusterer = new NativeKMeans(numClasses, distanceMetric);
+            nativeClusterer.setNumThreads(numThreads);
+            nativeClusterer.setAcceleration(acceleration);
+            nativeClusterer.setInitialization(seeding);
+            nativeClusterer.setInitialCenters(initialCenters);
+            nativeClusterer.setDistanceKernels(vectorized ? DistanceKernels.get() : null);
+            nativeClusterer.buildClusterer(this.data);
         } else {
-            this.data = data;
-            clusterer.buildClusterer(data);
+            nativeClusterer = null;
+            clusterer.buildClusterer(this.data);
         }
     }
 
+    // SimpleKMeans can neither start from given centroids, seed with k-means|| nor use SIMD
+    private boolean usesNativeEngine() {
+        return engine == Engine.NATIVE || initialCenters != null || vectorized
+            || seeding == NativeKMeans.Initialization.KMEANS_PARALLEL;
+    }
+
+    /**
+     * Mini-batch mode: clusters an ARFF/CSV file read in batches, without loading it.
+     */
+    public void buildClusterer(File input) throws Exception {
+        buildClusterer(input, null);
+    }
+
+    /**
+     * Mini-batch mode, also writing the cluster of every row (one per line) to the assignments
+     * file, since they are not kept in memory.
+     */
+    public void buildClusterer(File input, File assignments) throws Exception {
+        if (input == null) {
+            throw new IllegalArgumentException("Le fichier de données ne peut pas être nul");
+        }
+        if (initialCenters != null && initialCenters.numInstances() != numClasses) {
+            throw new IllegalArgumentException(
+                "Le nombre de centres initiaux doit être égal au nombre de classes");
+        }
+        MiniBatchKMeans miniBatch = new MiniBatchKMeans(numClasses, distanceMetric);
+        miniBatch.setBatchSize(batchSize);
+        miniBatch.setInitialCenters(initialCenters);
+        miniBatch.buildClusterer(input, assignments);
+
+        data = null;
+        nativeClusterer = null;
+        miniBatchClusterer = miniBatch;
+    }
+
+    /**
+     * Runs K-means for every k from minK to maxK with several random starts each, in parallel
+     * on the configured threads, with this clusterer's seeding and SIMD setting, and keeps the
+     * lowest-error run of each k.
+     * The returned sweep prints as an SSE-vs-k table.
+     */
+    public KMeansSweep sweep(Instances data, int minK, int maxK, int restarts) throws Exception {
+        if (data == null) {
+            throw new IllegalArgumentException("Les données ne peuvent pas être nulles");
+        }
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (data.instance(i).hasMissingValue()) {
+                throw new IllegalArgumentException("Les données contiennent des valeurs manquantes à l'instance: " + i);
+            }
+        }
+
+        KMeansSweep sweep = new KMeansSweep(minK, maxK, restarts, distanceMetric);
+        sweep.setNumThreads(numThreads);
+        sweep.setAcceleration(acceleration);
+        sweep.setSeeding(seeding);
+        sweep.setVectorized(vectorized);
+        sweep.run(data);
+        return sweep;
+    }
+
     private void validateInitialCenters(Instances data) throws Exception {
         if (initialCenters.numAttributes() != data.numAttributes()) {
             throw new IllegalArgumentException(
@@ -127,28 +209,68 @@ public class KMeansClusterer {
         summary.append("Nombre de classes: ").append(numClasses).append("\n");
         summary.append("Métrique de distance: ").append(distanceMetric).append("\n");
         summary.append("Centres initiaux: ")
-               .append(initialCenters != null ? "Personnalisés" : "Aléatoires")
+               .append(initialCenters != null ? "Personnalisés" : switch (seeding) {
+                   case RANDOM -> "Aléatoires";
+                   case KMEANS_PLUS_PLUS -> "k-means++";
+                   case KMEANS_PARALLEL -> "k-means||";
+               })
                .append("\n\n");
 
+        // Results of whichever engine built the model
+        int maxIterations;
+        double squaredError;
+        Instances centroids;
+        double[] sizes;
+        double numInstances;
+        if (miniBatchClusterer != null) {
+            maxIterations = miniBatchClusterer.getEpochs();
+            squaredError = miniBatchClusterer.getSquaredError();
+            centroids = miniBatchClusterer.getClusterCentroids();
+            sizes = miniBatchClusterer.getClusterSizes();
+            numInstances = miniBatchClusterer.getNumInstances();
+        } else if (nativeClusterer != null) {
+            maxIterations = nativeClusterer.getMaxIterations();
+            squaredError = nativeClusterer.getSquaredError();
+            centroids = nativeClusterer.getClusterCentroids();
+            sizes = nativeClusterer.getClusterSizes();
+            numInstances = data.numInstances();
+        } else {
+            maxIterations = clusterer.getMaxIterations();
+            squaredError = clusterer.getSquaredError();
+            centroids = clusterer.getClusterCentroids();
+            sizes = clusterer.getClusterSizes();
+            numInstances = data.numInstances();
+        }
+
         summary.append("Statistiques du Clustering:\n");
-        summary.append("Nombre d'itérations: ").append(clusterer.getMaxIterations()).append("\n");
+        if (miniBatchClusterer != null) {
+            summary.append("Mode: mini-batch (lots de ").append(miniBatchClusterer.getBatchSize())
+                   .append(" instances)\n");
+            summary.append("Nombre de passes: ").append(maxIterations).append("\n");
+        } else {
+            summary.append("Nombre d'itérations: ").append(maxIterations).append("\n");
+        }
         summary.append("Somme des erreurs quadratiques: ")
-               .append(String.format("%.2f", clusterer.getSquaredError()))
-               .append("\n\n");
+               .append(String.format("%.2f", squaredError))
+               .append("\n");
+        if (nativeClusterer != null && nativeClusterer.getAcceleration() != NativeKMeans.Acceleration.NONE) {
+            summary.append("Calculs de distance: ").append(nativeClusterer.getDistanceComputations())
+                   .append(" (").append(nativeClusterer.getDistanceComputationsSaved())
+                   .append(" évités par les bornes)\n");
+        }
+        summary.append("\n");
 
         summary.append("Centroïdes des Clusters:\n");
-        Instances centroids = clusterer.getClusterCentroids();
         for (int i = 0; i < numClasses; i++) {
             summary.append("Cluster ").append(i).append(": ").append(centroids.instance(i)).append("\n");
         }
 
         summary.append("\nTaille des Clusters:\n");
-        double[] sizes = clusterer.getClusterSizes();
         for (int i = 0; i < numClasses; i++) {
             summary.append("Cluster ").append(i).append(": ")
                    .append((int)sizes[i])
                    .append(" instances (")
-                   .append(String.format("%.2f", (sizes[i] * 100.0 / data.numInstances())))
+                   .append(String.format("%.2f", (sizes[i] * 100.0 / numInstances)))
                    .append("%)\n");
         }
 
@@ -161,12 +283,52 @@ public class KMeansClusterer {
     }
 
     public int[] getClusterAssignments() throws Exception {
+        if (miniBatchClusterer != null) {
+            throw new IllegalStateException(
+                "En mode mini-batch, les affectations sont écrites dans un fichier.");
+        }
         if (data == null) {
             throw new IllegalStateException("Le clusterer n'a pas encore été construit.");
         }
+        if (nativeClusterer != null) {
+            return nativeClusterer.getAssignments();
+        }
         return clusterer.getAssignments();
     }
 
+    /**
+     * Fitted model of whichever engine was used, to label new data without re-clustering.
+     */
+    public KMeansModel getModel() throws Exception {
+        if (miniBatchClusterer != null) {
+            return miniBatchClusterer.getModel();
+        }
+        if (data == null) {
+            throw new IllegalStateException("Le clusterer n'a pas encore été construit.");
+        }
+        if (nativeClusterer != null) {
+            return nativeClusterer.getModel();
+        }
+        Instances centroids = clusterer.getClusterCentroids();
+        int d = centroids.numAttributes();
+        double[] values = new double[centroids.numInstances() * d];
+        for (int c = 0; c < centroids.numInstances(); c++) {
+            System.arraycopy(centroids.instance(c).toDoubleArray(), 0, values, c * d, d);
+        }
+        double[][] ranges = ((NormalizableDistance) clusterer.getDistanceFunction()).getRanges();
+        double[] min = new double[d];
+        double[] width = new double[d];
+        for (int j = 0; j < d; j++) {
+            min[j] = ranges[j][NormalizableDistance.R_MIN];
+            width[j] = ranges[j][NormalizableDistance.R_WIDTH];
+        }
+        return new KMeansModel(data, distanceMetric, values, centroids.numInstances(), min, width);
+    }
+
+    public void saveModel(File file) throws Exception {
+        getModel().save(file);
+    }
+
     public void setInitialCenters(Instances centers) {
         this.initialCenters = centers;
         initializeClusterer(); // Reinitialize with new centers
@@ -181,6 +343,63 @@ public class KMeansClusterer {
         clusterer.setDistanceFunction(distanceFunction);
     }
 
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    // Threads used by the native engine: 1 = sequential, 0 = all available cores
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public NativeKMeans.Acceleration getAcceleration() {
+        return acceleration;
+    }
+
+    // Triangle-inequality acceleration of the native engine (Hamerly, Elkan or automatic)
+    public void setAcceleration(NativeKMeans.Acceleration acceleration) {
+        this.acceleration = acceleration;
+    }
+
+    public NativeKMeans.Initialization getSeeding() {
+        return seeding;
+    }
+
+    // Seeding used without initial centers: random, k-means++ or parallel k-means||
+    public void setSeeding(NativeKMeans.Initialization seeding) {
+        this.seeding = seeding;
+        initializeClusterer();
+    }
+
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    // SIMD distance kernels in the native engine, for data with numeric attributes only
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public MiniBatchKMeans getMiniBatchClusterer() {
+        return miniBatchClusterer;
+    }
+
     public int getNumClasses() {
         return numClasses;
     }
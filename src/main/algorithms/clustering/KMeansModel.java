@@ -0,0 +1,382 @@
+package main.algorithms.clustering;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import main.algorithms.clustering.KMeansClusterer.DistanceMetric;
+
+/**
+ * Fitted K-means model detached from the clusterer that trained it: the centroids, the metric
+ * and the attribute ranges the distances were normalized with. It labels new rows exactly as
+ * training did (normalized values, nominal attributes counting 0 or 1, ties going to the first
+ * centroid), and can be saved to and loaded from a compact binary file.
+ *
+ * Batch assignment works on primitive arrays: each worker normalizes rows into its own buffer
+ * and stops a distance as soon as it exceeds the best one found, so no object is created per
+ * row.
+ */
+public class KMeansModel {
+
+    private static final int MAGIC = 0x53574B4D; // "SWKM"
+    private static final int VERSION = 1;
+    private static final int MIN_CHUNK = 4096;   // Rows below which a worker is not worth starting
+
+    private final Instances header;
+    private final DistanceMetric metric;
+    private final int numClusters;
+    private final int d;
+    private final double[] centroids;            // Raw values, row-major
+    private final double[] normalizedCentroids;
+    private final double[] min;
+    private final double[] width;
+    private final boolean[] nominal;
+    private final int[] active;                  // Numeric and nominal attributes; others never differ
+    private final boolean numericOnly;           // No nominal attribute: plain arithmetic loop
+    private int numThreads;                      // 1 = sequential, 0 = all available cores
+
+    KMeansModel(Instances header, DistanceMetric metric, double[] centroids, int numClusters,
+                double[] min, double[] width) {
+        this.header = new Instances(header, 0);
+        this.header.setClassIndex(-1);
+        this.metric = metric;
+        this.numClusters = numClusters;
+        this.d = header.numAttributes();
+        this.centroids = Arrays.copyOf(centroids, numClusters * d);
+        this.min = min.clone();
+        this.width = width.clone();
+        nominal = new boolean[d];
+        int[] indices = new int[d];
+        int count = 0;
+        boolean anyNominal = false;
+        for (int j = 0; j < d; j++) {
+            Attribute attribute = header.attribute(j);
+            if (attribute.isString() || attribute.isRelationValued()) {
+                throw new IllegalArgumentException("Unsupported attribute type: " + attribute.name());
+            }
+            nominal[j] = attribute.isNominal();
+            anyNominal |= nominal[j];
+            if (attribute.type() == Attribute.NUMERIC || nominal[j]) {
+                indices[count++] = j;
+            }
+        }
+        active = Arrays.copyOf(indices, count);
+        numericOnly = !anyNominal;
+        normalizedCentroids = new double[numClusters * d];
+        for (int c = 0; c < numClusters; c++) {
+            normalizeRow(this.centroids, c * d, normalizedCentroids, c * d);
+        }
+        numThreads = 0;
+    }
+
+    private void normalizeRow(double[] source, int from, double[] target, int to) {
+        for (int j = 0; j < d; j++) {
+            double x = source[from + j];
+            if (nominal[j]) {
+                target[to + j] = x; // Nominal values are compared as indices
+            } else {
+                target[to + j] = width[j] == 0 ? 0 : (x - min[j]) / width[j];
+            }
+        }
+    }
+
+    // First centroid with the smallest distance, as SimpleKMeans breaks ties
+    private int nearest(double[] point) {
+        if (numericOnly) {
+            return metric == DistanceMetric.EUCLIDEAN ? nearestEuclidean(point) : nearestManhattan(point);
+        }
+        int best = 0;
+        double bestSum = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numClusters; c++) {
+            int offset = c * d;
+            double sum = 0;
+            for (int j : active) {
+                double diff;
+                if (nominal[j]) {
+                    diff = (int) point[j] != (int) normalizedCentroids[offset + j] ? 1 : 0;
+                } else {
+                    diff = point[j] - normalizedCentroids[offset + j];
+                }
+                sum += metric == DistanceMetric.EUCLIDEAN ? diff * diff : Math.abs(diff);
+                if (sum > bestSum) {
+                    break; // Already farther than the best centroid
+                }
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int nearestEuclidean(double[] point) {
+        int best = 0;
+        double bestSum = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numClusters; c++) {
+            int offset = c * d;
+            double sum = 0;
+            for (int j : active) {
+                double diff = point[j] - normalizedCentroids[offset + j];
+                sum += diff * diff;
+                if (sum > bestSum) {
+                    break;
+                }
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private int nearestManhattan(double[] point) {
+        int best = 0;
+        double bestSum = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numClusters; c++) {
+            int offset = c * d;
+            double sum = 0;
+            for (int j : active) {
+                sum += Math.abs(point[j] - normalizedCentroids[offset + j]);
+                if (sum > bestSum) {
+                    break;
+                }
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Cluster of a single row of raw values, in attribute order, nominal values as indices.
+     * Missing values (NaN) are rejected.
+     */
+    public int assign(double[] row) {
+        checkRow(row, 0);
+        double[] point = new double[d];
+        normalizeRow(row, 0, point, 0);
+        return nearest(point);
+    }
+
+    /**
+     * Clusters of rows of raw values, in attribute order, nominal values as indices.
+     * Missing values (NaN) are rejected.
+     */
+    public int[] assign(double[][] rows) throws Exception {
+        for (int i = 0; i < rows.length; i++) {
+            checkRow(rows[i], i);
+        }
+        int[] result = new int[rows.length];
+        run(rows.length, (from, to) -> {
+            double[] point = new double[d];
+            for (int i = from; i < to; i++) {
+                normalizeRow(rows[i], 0, point, 0);
+                result[i] = nearest(point);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Clusters of the instances of a dataset with the attributes the model was trained on.
+     * The class attribute, if any, is compared like the others, as in KMeansClusterer.
+     */
+    public int[] assign(Instances data) throws Exception {
+        checkCompatible(data);
+        int[] result = new int[data.numInstances()];
+        run(result.length, (from, to) -> {
+            double[] row = new double[d];
+            double[] point = new double[d];
+            for (int i = from; i < to; i++) {
+                Instance instance = data.instance(i);
+                for (int j = 0; j < d; j++) {
+                    row[j] = instance.value(j);
+                    if (Double.isNaN(row[j])) {
+                        throw new IllegalArgumentException("Data contains missing values at instance: " + i);
+                    }
+                }
+                normalizeRow(row, 0, point, 0);
+                result[i] = nearest(point);
+            }
+        });
+        return result;
+    }
+
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    // Splits 0 to count - 1 into contiguous chunks, run on a pool unless there is only one
+    private void run(int count, RangeTask task) throws Exception {
+        int parallelism = numThreads > 0 ? numThreads : ForkJoinPool.commonPool().getParallelism();
+        int chunks = Math.max(1, Math.min(parallelism, count / MIN_CHUNK));
+        if (chunks == 1) {
+            task.run(0, count);
+            return;
+        }
+        ForkJoinPool pool = numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            NativeKMeans.forEach(pool, chunks, c -> task.run(
+                    (int) ((long) count * c / chunks), (int) ((long) count * (c + 1) / chunks)));
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void checkRow(double[] values, int row) {
+        if (values.length != d) {
+            throw new IllegalArgumentException("Row " + row + " has " + values.length + " values, expected " + d);
+        }
+        for (double value : values) {
+            if (Double.isNaN(value)) {
+                throw new IllegalArgumentException("Data contains missing values at row: " + row);
+            }
+        }
+    }
+
+    private void checkCompatible(Instances data) {
+        if (data.numAttributes() != d) {
+            throw new IllegalArgumentException("Data must have " + d + " attributes, found " + data.numAttributes());
+        }
+        for (int j = 0; j < d; j++) {
+            Attribute expected = header.attribute(j);
+            Attribute actual = data.attribute(j);
+            if (expected.type() != actual.type()
+                    || expected.isNominal() && expected.numValues() != actual.numValues()) {
+                throw new IllegalArgumentException("Attribute " + (j + 1) + " (" + actual.name()
+                        + ") does not match the model attribute " + expected.name());
+            }
+        }
+    }
+
+    /**
+     * Writes the model: attribute layout, metric, centroids and ranges.
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(header.relationName());
+            out.writeUTF(metric.name());
+            out.writeInt(d);
+            for (int j = 0; j < d; j++) {
+                Attribute attribute = header.attribute(j);
+                out.writeUTF(attribute.name());
+                out.writeByte(attribute.type());
+                if (attribute.isNominal()) {
+                    out.writeInt(attribute.numValues());
+                    for (int v = 0; v < attribute.numValues(); v++) {
+                        out.writeUTF(attribute.value(v));
+                    }
+                } else if (attribute.isDate()) {
+                    out.writeUTF(attribute.getDateFormat());
+                }
+            }
+            out.writeInt(numClusters);
+            for (double value : centroids) {
+                out.writeDouble(value);
+            }
+            for (int j = 0; j < d; j++) {
+                out.writeDouble(min[j]);
+                out.writeDouble(width[j]);
+            }
+        }
+    }
+
+    public static KMeansModel load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a K-means model file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported K-means model version: " + version);
+            }
+            String relation = in.readUTF();
+            DistanceMetric metric = DistanceMetric.valueOf(in.readUTF());
+            int d = in.readInt();
+            ArrayList<Attribute> attributes = new ArrayList<>(d);
+            for (int j = 0; j < d; j++) {
+                String name = in.readUTF();
+                int type = in.readByte();
+                if (type == Attribute.NOMINAL) {
+                    int numValues = in.readInt();
+                    ArrayList<String> labels = new ArrayList<>(numValues);
+                    for (int v = 0; v < numValues; v++) {
+                        labels.add(in.readUTF());
+                    }
+                    attributes.add(new Attribute(name, labels));
+                } else if (type == Attribute.DATE) {
+                    attributes.add(new Attribute(name, in.readUTF()));
+                } else if (type == Attribute.NUMERIC) {
+                    attributes.add(new Attribute(name));
+                } else {
+                    throw new IOException("Unsupported attribute type in model: " + type);
+                }
+            }
+            Instances header = new Instances(relation, attributes, 0);
+            int numClusters = in.readInt();
+            double[] centroids = new double[numClusters * d];
+            for (int k = 0; k < centroids.length; k++) {
+                centroids[k] = in.readDouble();
+            }
+            double[] min = new double[d];
+            double[] width = new double[d];
+            for (int j = 0; j < d; j++) {
+                min[j] = in.readDouble();
+                width[j] = in.readDouble();
+            }
+            return new KMeansModel(header, metric, centroids, numClusters, min, width);
+        }
+    }
+
+    // Getters and setters
+    public Instances getClusterCentroids() {
+        Instances result = new Instances(header, numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            result.add(new DenseInstance(1.0, Arrays.copyOfRange(centroids, c * d, (c + 1) * d)));
+        }
+        return result;
+    }
+
+    public Instances getHeader() {
+        return new Instances(header, 0);
+    }
+
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+}
@@ -0,0 +1,197 @@
+package main.algorithms.clustering;
+
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import main.algorithms.clustering.KMeansClusterer.DistanceMetric;
+import main.algorithms.distance.DistanceKernels;
+
+/**
+ * Runs K-means for a range of k values with several random starts each, all at the same time
+ * on a worker pool, to pick k from the SSE-vs-k curve (elbow method).
+ *
+ * Every run is a sequential NativeKMeans working on one shared prepared copy of the data.
+ * Restart r uses seed 10 + r, so with random seeding the first restart of each k is the run
+ * SimpleKMeans would make with its default seed. The seeding and SIMD kernels are those of the
+ * clusterer the sweep is for, so k is ranked with the runs it would train. For each k the run with the lowest squared error is kept, ties
+ * going to the smaller seed.
+ */
+public class KMeansSweep {
+
+    private static final int FIRST_SEED = 10; // SimpleKMeans default
+
+    private int minK;
+    private int maxK;
+    private int restarts;              // Random starts per k
+    private DistanceMetric metric;
+    private NativeKMeans.Acceleration acceleration;
+    private NativeKMeans.Initialization seeding;
+    private boolean vectorized;        // SIMD distance kernels
+    private int numThreads;            // 1 = sequential, 0 = all available cores
+
+    private NativeKMeans[] bestModels; // Indexed by k - minK
+    private double[][] squaredErrors;  // [k - minK][restart]
+
+    public KMeansSweep(int minK, int maxK, int restarts, DistanceMetric metric) {
+        this.minK = minK;
+        this.maxK = maxK;
+        this.restarts = restarts;
+        this.metric = metric;
+        acceleration = NativeKMeans.Acceleration.AUTO;
+        seeding = NativeKMeans.Initialization.RANDOM;
+        numThreads = 0;
+    }
+
+    public void run(Instances data) throws Exception {
+        if (minK < 1 || maxK < minK) {
+            throw new IllegalArgumentException("Invalid range of k: " + minK + " to " + maxK);
+        }
+        if (restarts < 1) {
+            throw new IllegalArgumentException("Number of restarts must be at least 1");
+        }
+        NativeKMeans.Data shared = NativeKMeans.prepare(data);
+        DistanceKernels kernels = vectorized ? DistanceKernels.get() : null;
+        int numK = maxK - minK + 1;
+        NativeKMeans[] best = new NativeKMeans[numK];
+        squaredErrors = new double[numK][restarts];
+
+        ForkJoinPool pool = numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            pool.submit(() -> IntStream.range(0, numK * restarts).parallel().forEach(task -> {
+                int k = task / restarts;
+                int restart = task % restarts;
+                NativeKMeans model = new NativeKMeans(minK + k, metric);
+                model.setSeed(FIRST_SEED + restart);
+                model.setAcceleration(acceleration);
+                model.setInitialization(seeding);
+                model.setDistanceKernels(kernels);
+                model.setNumThreads(1); // The runs themselves are the parallel tasks
+                try {
+                    model.buildClusterer(shared);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                double error = model.getSquaredError();
+                squaredErrors[k][restart] = error;
+                // Only the best run of each k is kept alive
+                synchronized (best) {
+                    NativeKMeans current = best[k];
+                    if (current == null || error < current.getSquaredError()
+                            || (error == current.getSquaredError() && model.getSeed() < current.getSeed())) {
+                        best[k] = model;
+                    }
+                }
+            })).get();
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+        }
+        bestModels = best;
+    }
+
+    private int indexOf(int k) {
+        if (bestModels == null) {
+            throw new IllegalStateException("The sweep has not been run yet.");
+        }
+        if (k < minK || k > maxK) {
+            throw new IllegalArgumentException("k outside the swept range: " + k);
+        }
+        return k - minK;
+    }
+
+    /**
+     * Lowest-error run for k.
+     */
+    public NativeKMeans getBestModel(int k) {
+        return bestModels[indexOf(k)];
+    }
+
+    public double getSquaredError(int k) {
+        return getBestModel(k).getSquaredError();
+    }
+
+    public int getBestSeed(int k) {
+        return getBestModel(k).getSeed();
+    }
+
+    /**
+     * Squared error of every restart for k, in seed order.
+     */
+    public double[] getSquaredErrors(int k) {
+        return squaredErrors[indexOf(k)].clone();
+    }
+
+    // Getters and setters
+    public int getMinK() {
+        return minK;
+    }
+
+    public int getMaxK() {
+        return maxK;
+    }
+
+    public int getRestarts() {
+        return restarts;
+    }
+
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    public NativeKMeans.Acceleration getAcceleration() {
+        return acceleration;
+    }
+
+    public void setAcceleration(NativeKMeans.Acceleration acceleration) {
+        this.acceleration = acceleration;
+    }
+
+    public NativeKMeans.Initialization getSeeding() {
+        return seeding;
+    }
+
+    public void setSeeding(NativeKMeans.Initialization seeding) {
+        this.seeding = seeding;
+    }
+
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * SSE-vs-k table: best and mean squared error over the restarts of each k.
+     */
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append("=== Choix de k (méthode du coude) ===\n\n");
+        table.append("Métrique de distance: ").append(metric).append("\n");
+        table.append("Départs aléatoires par k: ").append(restarts).append("\n\n");
+        if (bestModels == null) {
+            return table.append("Balayage non exécuté.\n").toString();
+        }
+        table.append(String.format("%4s  %10s  %16s  %16s%n", "k", "Clusters", "SSE minimale", "SSE moyenne"));
+        for (int k = minK; k <= maxK; k++) {
+            double mean = Arrays.stream(squaredErrors[k - minK]).average().orElse(Double.NaN);
+            table.append(String.format("%4d  %10d  %16.2f  %16.2f%n",
+                    k, getBestModel(k).getNumClusters(), getSquaredError(k), mean));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,236 @@
+package main.algorithms.clustering;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Merge history of an agglomerative clustering: the n - 1 merges of the full dendrogram in
+ * increasing height, each with the two clusters it joins, its height and the size of the
+ * result. Instances are clusters 0 to n - 1 and merge m creates cluster n + m, as in SciPy's
+ * linkage matrix. The first cluster of a merge is the one holding the lower instance index,
+ * the left child in HierarchicalClusterer's trees.
+ *
+ * Cutting the dendrogram only replays merges, so assignments for any number of clusters or
+ * any height take O(n) without computing a single distance. Clusters are numbered by their
+ * first instance, as HierarchicalClusterer numbers them.
+ *
+ * The matrix is saved as text: a header line with the number of instances, then one line
+ * per merge with the two clusters, the height and the size, separated by tabs.
+ */
+public class LinkageMatrix {
+
+    private static final String HEADER = "LINKAGE";
+
+    private final int n;
+    private final int[] first;
+    private final int[] second;
+    private final double[] height;
+    private final int[] size;
+
+    LinkageMatrix(int n, int[] first, int[] second, double[] height, int[] size) {
+        this.n = n;
+        this.first = first;
+        this.second = second;
+        this.height = height;
+        this.size = size;
+    }
+
+    /**
+     * Builds the matrix from merges naming each cluster by any of its instances, in any
+     * order; merges at the same height keep their relative order.
+     */
+    static LinkageMatrix fromMerges(int n, int[] a, int[] b, double[] h) {
+        int count = h.length;
+        Integer[] order = new Integer[count];
+        for (int m = 0; m < count; m++) {
+            order[m] = m;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(h[x], h[y]));
+
+        int[] parent = new int[n];  // Union-find; a root is the lowest instance of its cluster
+        int[] id = new int[n];      // Cluster id of the cluster rooted here
+        int[] members = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            id[i] = i;
+            members[i] = 1;
+        }
+        int[] first = new int[count];
+        int[] second = new int[count];
+        double[] height = new double[count];
+        int[] size = new int[count];
+        for (int m = 0; m < count; m++) {
+            int x = find(parent, a[order[m]]);
+            int y = find(parent, b[order[m]]);
+            int low = Math.min(x, y);
+            int high = Math.max(x, y);
+            first[m] = id[low];
+            second[m] = id[high];
+            height[m] = h[order[m]];
+            size[m] = members[low] + members[high];
+            parent[high] = low;
+            id[low] = n + m;
+            members[low] = size[m];
+        }
+        return new LinkageMatrix(n, first, second, height, size);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Assignments with k clusters, numbered by their first instance.
+     */
+    public int[] cutAtK(int k) {
+        if (k < 1 || k > n) {
+            throw new IllegalArgumentException("Number of clusters must be between 1 and " + n);
+        }
+        return cut(n - k);
+    }
+
+    /**
+     * Assignments after every merge at or below the height, numbered by their first instance.
+     */
+    public int[] cutAtHeight(double threshold) {
+        int count = 0;
+        while (count < height.length && height[count] <= threshold) {
+            count++;
+        }
+        return cut(count);
+    }
+
+    /**
+     * Number of clusters left after every merge at or below the height.
+     */
+    public int numClustersAtHeight(double threshold) {
+        int count = 0;
+        while (count < height.length && height[count] <= threshold) {
+            count++;
+        }
+        return n - count;
+    }
+
+    // Assignments after the first merges
+    int[] cut(int merges) {
+        int[] parent = new int[n];
+        int[] lowest = new int[n + merges]; // Lowest instance of each cluster id
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            lowest[i] = i;
+        }
+        for (int m = 0; m < merges; m++) {
+            int low = Math.min(lowest[first[m]], lowest[second[m]]);
+            parent[Math.max(lowest[first[m]], lowest[second[m]])] = low;
+            lowest[n + m] = low;
+        }
+        // A root is the lowest instance of its cluster, so it is numbered before its members
+        int[] assignments = new int[n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            assignments[i] = root == i ? k++ : assignments[root];
+        }
+        return assignments;
+    }
+
+    public void save(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(HEADER + "\t" + n);
+            writer.newLine();
+            for (int m = 0; m < first.length; m++) {
+                writer.write(first[m] + "\t" + second[m] + "\t" + height[m] + "\t" + size[m]);
+                writer.newLine();
+            }
+        }
+    }
+
+    public static LinkageMatrix load(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            String[] header = line == null ? new String[0] : line.trim().split("\t");
+            if (header.length != 2 || !header[0].equals(HEADER)) {
+                throw new IOException("Not a linkage matrix file: " + file);
+            }
+            return read(reader, Integer.parseInt(header[1]));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number in linkage matrix file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static LinkageMatrix read(BufferedReader reader, int n) throws IOException {
+        if (n < 1) {
+            throw new IOException("Invalid number of instances: " + n);
+        }
+        int[] first = new int[n - 1];
+        int[] second = new int[n - 1];
+        double[] height = new double[n - 1];
+        int[] size = new int[n - 1];
+        int[] sizes = new int[2 * n - 1];
+        boolean[] used = new boolean[2 * n - 1];
+        Arrays.fill(sizes, 0, n, 1);
+        for (int m = 0; m < n - 1; m++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Expected " + (n - 1) + " merges, found " + m);
+            }
+            String[] fields = line.trim().split("\t");
+            if (fields.length != 4) {
+                throw new IOException("Malformed merge at line " + (m + 2) + ": " + line);
+            }
+            first[m] = Integer.parseInt(fields[0]);
+            second[m] = Integer.parseInt(fields[1]);
+            height[m] = Double.parseDouble(fields[2]);
+            size[m] = Integer.parseInt(fields[3]);
+            // Each merge joins two existing clusters that were not merged before
+            for (int c : new int[]{first[m], second[m]}) {
+                if (c < 0 || c >= n + m || used[c] || first[m] == second[m]) {
+                    throw new IOException("Invalid cluster " + c + " in merge at line " + (m + 2));
+                }
+                used[c] = true;
+            }
+            if (m > 0 && height[m] < height[m - 1]) {
+                throw new IOException("Merge heights must not decrease, line " + (m + 2));
+            }
+            if (size[m] != sizes[first[m]] + sizes[second[m]]) {
+                throw new IOException("Wrong cluster size in merge at line " + (m + 2));
+            }
+            sizes[n + m] = size[m];
+        }
+        return new LinkageMatrix(n, first, second, height, size);
+    }
+
+    // Getters
+    public int getNumInstances() {
+        return n;
+    }
+
+    public int getNumMerges() {
+        return first.length;
+    }
+
+    public int getFirst(int merge) {
+        return first[merge];
+    }
+
+    public int getSecond(int merge) {
+        return second[merge];
+    }
+
+    public double getHeight(int merge) {
+        return height[merge];
+    }
+
+    public int getSize(int merge) {
+        return size[merge];
+    }
+}
@@ -0,0 +1,484 @@
+package main.algorithms.clustering;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import main.algorithms.clustering.KMeansClusterer.DistanceMetric;
+
+/**
+ * Mini-batch K-means over an ARFF/CSV file read as a stream, for data that does not fit in
+ * memory.
+ *
+ * A first pass records the attribute ranges (distances are normalized like Weka's) and draws
+ * the initial centroids by reservoir sampling: every row gets a random key, and the centroids
+ * are the distinct rows with the highest keys, as if the file were shuffled and the first
+ * distinct rows taken the way SimpleKMeans does. A value repeated on many rows is therefore
+ * more likely to be drawn, but never twice. Each epoch then reads the file in batches of
+ * {@code batchSize} rows: the batch is assigned to the current centroids, and every row pulls
+ * its centroid towards itself with a per-center learning rate of 1 / (rows seen by that
+ * center). Manhattan centroids take a bounded step towards the row instead, which tracks the
+ * median. Nominal attributes keep per-center value counts and use the most frequent value.
+ * Epochs stop once no centroid moves more than {@code tolerance}. A final pass assigns every
+ * row to compute cluster sizes and the squared error, and optionally writes the assignments.
+ *
+ * Only the centroids, the nominal counts and one batch are held in memory.
+ */
+public class MiniBatchKMeans {
+
+    private int numClusters;           // Requested, then actual number of clusters
+    private DistanceMetric metric;
+    private int batchSize;
+    private int maxEpochs;
+    private double tolerance;          // Largest centroid move, in normalized units, to stop at
+    private int seed;
+    private Instances initialCenters;  // Optional starting centroids
+
+    // Attributes
+    private Instances header;
+    private int d;
+    private boolean[] nominal;
+    private boolean[] active;          // Numeric and nominal attributes; others never differ
+    private int[] nominalOffset;
+    private int nominalSlots;
+    private double[] min;
+    private double[] width;
+
+    // Model
+    private double[] centroids;        // Raw values, row-major
+    private double[] normalizedCentroids;
+    private double[] seen;             // Weight of the rows each center has learned from
+    private double[] nominalCounts;    // [center * nominalSlots + value slot]
+    private double[] clusterSizes;
+    private double[] squaredErrors;
+    private long numInstances;
+    private int epochs;
+
+    public MiniBatchKMeans(int numClusters, DistanceMetric metric) {
+        this.numClusters = numClusters;
+        this.metric = metric;
+        batchSize = 1000;
+        maxEpochs = 10;
+        tolerance = 1e-4;
+        seed = 10;
+    }
+
+    public void buildClusterer(File input) throws Exception {
+        buildClusterer(input, null);
+    }
+
+    /**
+     * Clusters the rows of the input file and, if {@code assignments} is not null, writes the
+     * cluster of every row to it, one per line and in input order (clusters from 0).
+     */
+    public void buildClusterer(File input, File assignments) throws Exception {
+        if (numClusters < 1) {
+            throw new IllegalArgumentException("Number of clusters must be at least 1");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        readStructure(input);
+        scanRangesAndSeed(input);
+
+        nominalCounts = new double[numClusters * nominalSlots];
+        seen = new double[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            for (int j = 0; j < d; j++) {
+                if (nominal[j]) {
+                    nominalCounts[c * nominalSlots + nominalOffset[j] + (int) centroids[c * d + j]] = 1;
+                }
+            }
+        }
+
+        double[] batch = new double[batchSize * d];
+        double[] batchWeights = new double[batchSize];
+        int[] batchClusters = new int[batchSize];
+        epochs = 0;
+        double largestMove;
+        do {
+            epochs++;
+            double[] start = centroids.clone();
+            DataSource source = new DataSource(input.getPath());
+            Instances structure = source.getStructure();
+            int size;
+            while ((size = readBatch(source, structure, batch, batchWeights)) > 0) {
+                normalizeCentroids();
+                for (int r = 0; r < size; r++) {
+                    batchClusters[r] = nearest(normalize(batch, r * d), 0);
+                }
+                for (int r = 0; r < size; r++) {
+                    learn(batch, r * d, batchWeights[r], batchClusters[r]);
+                }
+            }
+
+            // Compare where the centroids stand with where the epoch started
+            normalizeCentroids();
+            double[] normalizedStart = new double[start.length];
+            for (int c = 0; c < numClusters; c++) {
+                normalizeRow(start, normalizedStart, c * d);
+            }
+            largestMove = 0;
+            for (int c = 0; c < numClusters; c++) {
+                largestMove = Math.max(largestMove, metricDistance(
+                        distance(normalizedStart, c * d, normalizedCentroids, c * d)));
+            }
+        } while (largestMove > tolerance && epochs < maxEpochs);
+
+        assignAll(input, assignments);
+    }
+
+    private void readStructure(File input) throws Exception {
+        header = new DataSource(input.getPath()).getStructure();
+        header.setClassIndex(-1); // As in KMeansClusterer, the class is just another attribute
+        d = header.numAttributes();
+        nominal = new boolean[d];
+        active = new boolean[d];
+        nominalOffset = new int[d];
+        nominalSlots = 0;
+        for (int j = 0; j < d; j++) {
+            Attribute attribute = header.attribute(j);
+            if (attribute.isString() || attribute.isRelationValued()) {
+                throw new IllegalArgumentException("Unsupported attribute type: " + attribute.name());
+            }
+            nominal[j] = attribute.isNominal();
+            active[j] = attribute.type() == Attribute.NUMERIC || nominal[j];
+            if (nominal[j]) {
+                nominalOffset[j] = nominalSlots;
+                nominalSlots += attribute.numValues();
+            }
+        }
+        if (initialCenters != null) {
+            if (initialCenters.numAttributes() != d) {
+                throw new IllegalArgumentException("Initial centers must have the same attributes as the data");
+            }
+            numClusters = initialCenters.numInstances();
+        }
+    }
+
+    // First pass: attribute ranges and a reservoir sample of distinct rows as initial centroids.
+    // A value keeps the highest key of its rows: once dropped it has lost to every kept key,
+    // so only its later rows can bring it back.
+    private void scanRangesAndSeed(File input) throws Exception {
+        min = new double[d];
+        double[] max = new double[d];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        double[] reservoir = new double[numClusters * d];
+        double[] keys = new double[numClusters];
+        int sampled = 0;
+        Random random = new Random(seed);
+
+        numInstances = 0;
+        DataSource source = new DataSource(input.getPath());
+        Instances structure = source.getStructure();
+        double[] row = new double[d];
+        while (source.hasMoreElements(structure)) {
+            Instance instance = source.nextElement(structure);
+            if (instance.hasMissingValue()) {
+                throw new IllegalArgumentException("Data contains missing values at instance: " + numInstances);
+            }
+            for (int j = 0; j < d; j++) {
+                row[j] = instance.value(j);
+                min[j] = Math.min(min[j], row[j]);
+                max[j] = Math.max(max[j], row[j]);
+            }
+            numInstances++;
+
+            if (initialCenters != null) {
+                continue;
+            }
+            double key = random.nextDouble();
+            int kept = indexOf(reservoir, sampled, row);
+            if (kept >= 0) {
+                keys[kept] = Math.max(keys[kept], key);
+            } else if (sampled < numClusters) {
+                keys[sampled] = key;
+                System.arraycopy(row, 0, reservoir, sampled++ * d, d);
+            } else {
+                int lowest = 0;
+                for (int c = 1; c < sampled; c++) {
+                    if (keys[c] < keys[lowest]) {
+                        lowest = c;
+                    }
+                }
+                if (key > keys[lowest]) {
+                    keys[lowest] = key;
+                    System.arraycopy(row, 0, reservoir, lowest * d, d);
+                }
+            }
+        }
+        if (numInstances == 0) {
+            throw new IllegalArgumentException("Data must contain at least one instance");
+        }
+
+        width = new double[d];
+        for (int j = 0; j < d; j++) {
+            width[j] = max[j] - min[j];
+        }
+        if (initialCenters != null) {
+            centroids = new double[numClusters * d];
+            for (int c = 0; c < numClusters; c++) {
+                for (int j = 0; j < d; j++) {
+                    centroids[c * d + j] = initialCenters.instance(c).value(j);
+                }
+            }
+        } else {
+            numClusters = sampled; // Fewer distinct rows than requested clusters
+            // In shuffled order: highest key first
+            Integer[] order = new Integer[sampled];
+            for (int c = 0; c < sampled; c++) {
+                order[c] = c;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(keys[b], keys[a]));
+            centroids = new double[sampled * d];
+            for (int c = 0; c < sampled; c++) {
+                System.arraycopy(reservoir, order[c] * d, centroids, c * d, d);
+            }
+        }
+    }
+
+    // Position of the row among the first count rows, -1 if absent
+    private int indexOf(double[] rows, int count, double[] row) {
+        for (int c = 0; c < count; c++) {
+            boolean same = true;
+            for (int j = 0; j < d && same; j++) {
+                same = rows[c * d + j] == row[j];
+            }
+            if (same) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int readBatch(DataSource source, Instances structure, double[] batch, double[] batchWeights)
+            throws Exception {
+        int size = 0;
+        while (size < batchSize && source.hasMoreElements(structure)) {
+            Instance instance = source.nextElement(structure);
+            for (int j = 0; j < d; j++) {
+                batch[size * d + j] = instance.value(j);
+            }
+            batchWeights[size++] = instance.weight();
+        }
+        return size;
+    }
+
+    // Moves center c towards the row starting at offset, with the center's own learning rate
+    private void learn(double[] rows, int offset, double weight, int c) {
+        seen[c] += weight;
+        if (seen[c] <= 0) {
+            return;
+        }
+        double rate = weight / seen[c];
+        for (int j = 0; j < d; j++) {
+            double x = rows[offset + j];
+            int k = c * d + j;
+            if (nominal[j]) {
+                int base = c * nominalSlots + nominalOffset[j];
+                nominalCounts[base + (int) x] += weight;
+                int mode = 0;
+                for (int v = 1; v < header.attribute(j).numValues(); v++) {
+                    if (nominalCounts[base + v] > nominalCounts[base + mode]) {
+                        mode = v;
+                    }
+                }
+                centroids[k] = mode;
+            } else if (metric == DistanceMetric.EUCLIDEAN) {
+                centroids[k] += rate * (x - centroids[k]);
+            } else {
+                // Step towards the row by at most rate times the attribute range
+                double gap = x - centroids[k];
+                centroids[k] += Math.signum(gap) * Math.min(Math.abs(gap), rate * width[j]);
+            }
+        }
+    }
+
+    // Final pass: sizes, squared error and assignments of every row
+    private void assignAll(File input, File assignments) throws Exception {
+        normalizeCentroids();
+        clusterSizes = new double[numClusters];
+        squaredErrors = new double[numClusters];
+        BufferedWriter writer = assignments != null ? new BufferedWriter(new FileWriter(assignments)) : null;
+        try {
+            DataSource source = new DataSource(input.getPath());
+            Instances structure = source.getStructure();
+            double[] row = new double[d];
+            while (source.hasMoreElements(structure)) {
+                Instance instance = source.nextElement(structure);
+                for (int j = 0; j < d; j++) {
+                    row[j] = instance.value(j);
+                }
+                double[] point = normalize(row, 0);
+                int c = nearest(point, 0);
+                double distance = metricDistance(distance(point, 0, normalizedCentroids, c * d));
+                // Same error convention as SimpleKMeans
+                squaredErrors[c] += metric == DistanceMetric.EUCLIDEAN
+                        ? distance * (distance * instance.weight())
+                        : distance * instance.weight();
+                clusterSizes[c] += instance.weight();
+                if (writer != null) {
+                    writer.write(String.valueOf(c));
+                    writer.newLine();
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private double[] normalize(double[] rows, int offset) {
+        double[] point = new double[d];
+        for (int j = 0; j < d; j++) {
+            double x = rows[offset + j];
+            if (nominal[j]) {
+                point[j] = x; // Nominal values are compared as indices
+            } else {
+                point[j] = width[j] == 0 ? 0 : (x - min[j]) / width[j];
+            }
+        }
+        return point;
+    }
+
+    private void normalizeRow(double[] source, double[] target, int offset) {
+        System.arraycopy(normalize(source, offset), 0, target, offset, d);
+    }
+
+    private void normalizeCentroids() {
+        normalizedCentroids = new double[numClusters * d];
+        for (int c = 0; c < numClusters; c++) {
+            normalizeRow(centroids, normalizedCentroids, c * d);
+        }
+    }
+
+    // First centroid with the smallest distance, as SimpleKMeans breaks ties
+    private int nearest(double[] point, int offset) {
+        int best = 0;
+        double bestSum = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numClusters; c++) {
+            double sum = distance(point, offset, normalizedCentroids, c * d);
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // Running sum of the normalized differences: squared for Euclidean, absolute for Manhattan
+    private double distance(double[] x, int a, double[] y, int b) {
+        double sum = 0;
+        for (int j = 0; j < d; j++) {
+            if (!active[j]) {
+                continue;
+            }
+            double diff;
+            if (nominal[j]) {
+                diff = (int) x[a + j] != (int) y[b + j] ? 1 : 0;
+            } else {
+                diff = x[a + j] - y[b + j];
+            }
+            sum += metric == DistanceMetric.EUCLIDEAN ? diff * diff : Math.abs(diff);
+        }
+        return sum;
+    }
+
+    private double metricDistance(double sum) {
+        return metric == DistanceMetric.EUCLIDEAN ? Math.sqrt(sum) : sum;
+    }
+
+    // Getters and setters
+    public Instances getClusterCentroids() {
+        if (centroids == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        Instances result = new Instances(header, numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            result.add(new DenseInstance(1.0, Arrays.copyOfRange(centroids, c * d, (c + 1) * d)));
+        }
+        return result;
+    }
+
+    public KMeansModel getModel() {
+        if (centroids == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        return new KMeansModel(header, metric, centroids, numClusters, min, width);
+    }
+
+    public double[] getClusterSizes() {
+        return clusterSizes.clone();
+    }
+
+    public double getSquaredError() {
+        return Utils.sum(squaredErrors);
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public long getNumInstances() {
+        return numInstances;
+    }
+
+    public int getEpochs() {
+        return epochs;
+    }
+
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    public Instances getInitialCenters() {
+        return initialCenters;
+    }
+
+    public void setInitialCenters(Instances initialCenters) {
+        this.initialCenters = initialCenters;
+    }
+}
@@ -0,0 +1,372 @@
+package main.algorithms.clustering;
+
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import main.algorithms.distance.PairwiseDistanceCache;
+
+/**
+ * Agglomerative clustering engine giving the results of Weka's HierarchicalClusterer for
+ * single, complete and average linkage in O(n^2) time instead of O(n^2 log n).
+ *
+ * Single linkage uses SLINK, which only needs one row of distances at a time. Complete and
+ * average linkage use the nearest-neighbor chain over a condensed distance matrix, with the
+ * Lance-Williams update after each merge. Both produce the full dendrogram, whose merges are
+ * then sorted by height and replayed the way HierarchicalClusterer merges: the cluster of the
+ * lower instance index keeps its slot and becomes the left child, merging stops at the
+ * requested number of clusters, and clusters are numbered by their first instance. The Newick
+ * text is that of HierarchicalClusterer.graph(), the tree of cluster 0.
+ *
+ * The merges are the same as long as no two candidate merges are at the same distance; on
+ * ties HierarchicalClusterer takes whichever its priority queue returns first. Average linkage
+ * heights are updated incrementally and may differ from Weka's in the last bits.
+ *
+ * The matrix of complete and average linkage is kept in doubles on the heap by default. The
+ * MAPPED storage keeps it in floats in a memory-mapped temporary file instead, which takes a
+ * quarter of the memory and none of the heap; float distances round at about 7 significant
+ * digits, so near-ties may merge in another order than with doubles.
+ *
+ * With a distance cache, the pairwise distances are read from it and only computed, in
+ * parallel tiles, when the same data and distance were not clustered before.
+ */
+public class NativeHierarchical {
+
+    public enum Linkage {
+        SINGLE,   // Same order as HierarchicalClusterer.TAGS_LINK_TYPE
+        COMPLETE,
+        AVERAGE
+    }
+
+    // Where the distance matrix of complete and average linkage is kept
+    public enum MatrixStorage {
+        HEAP,   // Doubles on the heap, up to about 65,000 instances
+        MAPPED  // Floats in a memory-mapped temporary file, outside the heap
+    }
+
+    private final int numClusters;
+    private final Linkage linkage;
+    private MatrixStorage storage;
+    private File tempDirectory;      // Where the mapped matrix is written, null for the default
+    private PairwiseDistanceCache distanceCache; // Distances reused across runs, null to compute them
+    private boolean dontNormalize;   // Instances already normalized, as micro-cluster centroids are
+    private double[] weights;        // Instances each one stands for in average linkage, null for 1
+    private DistanceFunction distanceFunction;
+    private Instances instances;
+
+    // Merges of the full dendrogram, clusters named by any of their instances
+    private int[] mergeFirst;
+    private int[] mergeSecond;
+    private double[] mergeHeight;
+    private LinkageMatrix linkageMatrix;
+
+    private int[] roots;        // Linkage matrix id of each cluster: an instance, or n + its top merge
+    private int[] assignments;
+
+    public NativeHierarchical(int numClusters, Linkage linkage) {
+        this.numClusters = numClusters;
+        this.linkage = linkage;
+        this.storage = MatrixStorage.HEAP;
+    }
+
+    public void buildClusterer(Instances data) throws Exception {
+        int n = data.numInstances();
+        if (numClusters < 1 || numClusters > n) {
+            throw new IllegalArgumentException("Number of clusters must be between 1 and " + n);
+        }
+        if (weights != null && weights.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " weights, got " + weights.length);
+        }
+        instances = data;
+        EuclideanDistance euclidean = new EuclideanDistance();
+        euclidean.setDontNormalize(dontNormalize);
+        euclidean.setInstances(data);
+        distanceFunction = euclidean;
+
+        mergeFirst = new int[n - 1];
+        mergeSecond = new int[n - 1];
+        mergeHeight = new double[n - 1];
+        if (linkage == Linkage.SINGLE) {
+            slink(n);
+        } else {
+            nearestNeighborChain(n);
+        }
+        linkageMatrix = LinkageMatrix.fromMerges(n, mergeFirst, mergeSecond, mergeHeight);
+        mergeFirst = null;
+        mergeSecond = null;
+        mergeHeight = null;
+        replay(n);
+    }
+
+    // Sibson's pointer representation: each instance points to the last one it joins
+    private void slink(int n) throws Exception {
+        int[] pointer = new int[n];
+        double[] lambda = new double[n];
+        double[] row = new double[n];
+        PairwiseDistanceCache.Matrix cached = cachedDistances();
+        for (int i = 0; i < n; i++) {
+            pointer[i] = i;
+            lambda[i] = Double.POSITIVE_INFINITY;
+            if (cached != null) {
+                cached.row(i, row);
+            } else {
+                Instance current = instances.instance(i);
+                for (int j = 0; j < i; j++) {
+                    row[j] = distanceFunction.distance(instances.instance(j), current);
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                int p = pointer[j];
+                if (lambda[j] >= row[j]) {
+                    row[p] = Math.min(row[p], lambda[j]);
+                    lambda[j] = row[j];
+                    pointer[j] = i;
+                } else {
+                    row[p] = Math.min(row[p], row[j]);
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                if (lambda[j] >= lambda[pointer[j]]) {
+                    pointer[j] = i;
+                }
+            }
+        }
+        for (int j = 0; j < n - 1; j++) {
+            mergeFirst[j] = j;
+            mergeSecond[j] = pointer[j];
+            mergeHeight[j] = lambda[j];
+        }
+    }
+
+    // Distances of the shared cache, computed in parallel tiles if missing; null without a cache
+    // or when the matrix exceeds its budget, whose rows would be computed whole instead of halved
+    private PairwiseDistanceCache.Matrix cachedDistances() throws Exception {
+        if (distanceCache == null) {
+            return null;
+        }
+        PairwiseDistanceCache.Matrix matrix = distanceCache.matrix(instances, distanceFunction);
+        if (!matrix.isCached()) {
+            return null;
+        }
+        matrix.prefetch();
+        return matrix;
+    }
+
+    // Follows nearest neighbors until two clusters are each other's nearest, then merges them
+    private void nearestNeighborChain(int n) throws Exception {
+        try (CondensedDistanceMatrix matrix = storage == MatrixStorage.MAPPED
+                ? CondensedDistanceMatrix.mapped(n, tempDirectory) : CondensedDistanceMatrix.onHeap(n)) {
+            PairwiseDistanceCache.Matrix cached = cachedDistances();
+            double[] row = cached != null ? new double[n] : null;
+            long cell = 0;
+            for (int i = 0; i < n; i++) {
+                if (cached != null) {
+                    cached.row(i, row);
+                    for (int j = i + 1; j < n; j++) {
+                        matrix.set(cell++, row[j]);
+                    }
+                    continue;
+                }
+                Instance first = instances.instance(i);
+                for (int j = i + 1; j < n; j++) {
+                    matrix.set(cell++, distanceFunction.distance(first, instances.instance(j)));
+                }
+            }
+
+            double[] size = weights != null ? weights.clone() : new double[n];
+            if (weights == null) {
+                Arrays.fill(size, 1);
+            }
+            int[] active = new int[n]; // Active clusters in increasing order
+            for (int i = 0; i < n; i++) {
+                active[i] = i;
+            }
+            int numActive = n;
+            int[] chain = new int[n];
+            int length = 0;
+            for (int m = 0; m < n - 1; m++) {
+                while (true) {
+                    if (length == 0) {
+                        chain[length++] = active[0];
+                    }
+                    int a = chain[length - 1];
+                    int previous = length > 1 ? chain[length - 2] : -1;
+                    // The previous element wins ties, so the chain cannot cycle
+                    int nearest = previous;
+                    double best = previous >= 0 ? matrix.get(a, previous) : Double.POSITIVE_INFINITY;
+                    for (int k = 0; k < numActive; k++) {
+                        int c = active[k];
+                        if (c != a) {
+                            double distance = matrix.get(a, c);
+                            if (distance < best) {
+                                best = distance;
+                                nearest = c;
+                            }
+                        }
+                    }
+                    if (nearest != previous) {
+                        chain[length++] = nearest;
+                        continue;
+                    }
+                    length -= 2;
+                    int kept = Math.min(a, previous);
+                    int removed = Math.max(a, previous);
+                    mergeFirst[m] = kept;
+                    mergeSecond[m] = removed;
+                    mergeHeight[m] = best;
+                    int position = -1;
+                    for (int k = 0; k < numActive; k++) {
+                        int c = active[k];
+                        if (c == removed) {
+                            position = k;
+                        }
+                        if (c == kept || c == removed) {
+                            continue;
+                        }
+                        long toKept = matrix.index(c, kept);
+                        double toRemoved = matrix.get(c, removed);
+                        if (linkage == Linkage.COMPLETE) {
+                            matrix.set(toKept, Math.max(matrix.get(toKept), toRemoved));
+                        } else {
+                            matrix.set(toKept, (size[kept] * matrix.get(toKept) + size[removed] * toRemoved)
+                                    / (size[kept] + size[removed]));
+                        }
+                    }
+                    size[kept] += size[removed];
+                    System.arraycopy(active, position + 1, active, position, numActive - position - 1);
+                    numActive--;
+                    break;
+                }
+            }
+        }
+    }
+
+    // Numbers the clusters of the first n - numClusters merges as HierarchicalClusterer does
+    private void replay(int n) {
+        int merges = n - numClusters;
+        int[] top = new int[n];      // Id of the cluster whose lowest instance is here
+        int[] lowest = new int[n + merges];
+        for (int i = 0; i < n; i++) {
+            top[i] = i;
+            lowest[i] = i;
+        }
+        for (int m = 0; m < merges; m++) {
+            int a = lowest[linkageMatrix.getFirst(m)];
+            int b = lowest[linkageMatrix.getSecond(m)];
+            lowest[n + m] = Math.min(a, b);
+            top[Math.min(a, b)] = n + m;
+        }
+
+        assignments = linkageMatrix.cutAtK(numClusters);
+        roots = new int[numClusters];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (assignments[i] == k) {
+                roots[k++] = top[i]; // First instance of cluster k
+            }
+        }
+    }
+
+    /**
+     * Cluster of the nearest training instance, the first one on ties, as in
+     * HierarchicalClusterer.
+     */
+    public int clusterInstance(Instance instance) {
+        checkBuilt();
+        double best = Double.MAX_VALUE;
+        int nearest = -1;
+        for (int i = 0; i < instances.numInstances(); i++) {
+            double distance = distanceFunction.distance(instance, instances.instance(i));
+            if (distance < best) {
+                best = distance;
+                nearest = i;
+            }
+        }
+        return assignments[nearest];
+    }
+
+    /**
+     * Dendrogram of cluster 0 in Newick format, as HierarchicalClusterer.graph() writes it.
+     */
+    public String graph() {
+        checkBuilt();
+        StringBuilder newick = new StringBuilder("Newick:");
+        try {
+            new NewickWriter(linkageMatrix, instances).writeSubtree(newick, roots[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by a StringBuilder
+        }
+        return newick.toString();
+    }
+
+    private void checkBuilt() {
+        if (assignments == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+    }
+
+    // Getters and setters
+    public MatrixStorage getMatrixStorage() {
+        return storage;
+    }
+
+    public void setMatrixStorage(MatrixStorage storage) {
+        this.storage = storage;
+    }
+
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Full merge history, to cut the dendrogram at any number of clusters or height.
+     */
+    public LinkageMatrix getLinkageMatrix() {
+        checkBuilt();
+        return linkageMatrix;
+    }
+
+    // Distances on the raw values, for data already in a normalized space
+    void setDontNormalize(boolean dontNormalize) {
+        this.dontNormalize = dontNormalize;
+    }
+
+    // Number of instances each instance stands for, weighting average linkage
+    void setWeights(double[] weights) {
+        this.weights = weights;
+    }
+
+    public PairwiseDistanceCache getDistanceCache() {
+        return distanceCache;
+    }
+
+    public void setDistanceCache(PairwiseDistanceCache distanceCache) {
+        this.distanceCache = distanceCache;
+    }
+
+    public int numberOfClusters() {
+        return numClusters;
+    }
+
+    public Linkage getLinkage() {
+        return linkage;
+    }
+
+    /**
+     * Cluster of each training instance.
+     */
+    public int[] getAssignments() {
+        checkBuilt();
+        return assignments.clone();
+    }
+}
@@ -0,0 +1,1154 @@
+package main.algorithms.clustering;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import main.algorithms.clustering.KMeansClusterer.DistanceMetric;
+import main.algorithms.distance.DistanceKernels;
+
+/**
+ * K-means engine working on a flat row-major copy of the data instead of Weka instances.
+ *
+ * Follows SimpleKMeans step by step: same random or k-means++ seeding, same normalized
+ * distances (nominal attributes count 0 or 1), ties going to the first centroid, means for
+ * Euclidean and medians for Manhattan, empty clusters dropped, and the same squared error.
+ * The assignment step runs in fixed chunks on a fork-join pool; each chunk accumulates its
+ * own partial sums, merged in chunk order once all chunks are done. With one thread the
+ * results are bit for bit those of SimpleKMeans; with more, centroid sums are added in a
+ * different order and may differ in the last bits.
+ *
+ * The assignment step can skip distances with the triangle inequality, keeping for each point
+ * an upper bound on the distance to its centroid and lower bounds on the others: one lower
+ * bound per point (Hamerly) or one per point and centroid (Elkan). A centroid is only skipped
+ * when it is provably farther than the current one, so the accelerated runs make exactly the
+ * assignments of the plain loop.
+ *
+ * Besides the SimpleKMeans seedings, the engine can start from given centroids or seed with
+ * k-means||, which replaces the k sequential passes of k-means++ by a few parallel ones.
+ */
+public class NativeKMeans {
+
+    public enum Initialization {
+        RANDOM,
+        KMEANS_PLUS_PLUS,
+        KMEANS_PARALLEL   // k-means||: a few parallel oversampling rounds, then k-means++ on the candidates
+    }
+
+    public enum Acceleration {
+        NONE,     // Plain Lloyd iteration
+        HAMERLY,  // One lower bound per point; best for small k
+        ELKAN,    // One lower bound per point and centroid; best for large k
+        AUTO      // Hamerly below ELKAN_MIN_CLUSTERS clusters, Elkan from there if the bounds fit
+    }
+
+    private static final int ELKAN_MIN_CLUSTERS = 20;
+    private static final long ELKAN_MAX_BOUNDS = 1L << 24;
+    private static final double BOUND_SLACK = 1e-9; // Absorbs rounding in the bound updates
+    private static final int PARALLEL_ROUNDS = 5;
+    private static final int PARALLEL_MAX_ROUNDS = 50;    // Extra rounds while there are fewer than k candidates
+    private static final double OVERSAMPLING = 2.0;       // Expected candidates per round, times k
+
+    private int numClusters;           // Requested, then actual number of clusters
+    private DistanceMetric metric;
+    private Initialization initialization;
+    private Instances initialCenters;  // Starting centroids; replace the seeding when set
+    private int seed;
+    private int maxIterations;
+    private int numThreads;            // 1 = sequential, 0 = all available cores
+    private Acceleration acceleration;
+    private DistanceKernels kernels;   // Null: Weka's attribute-by-attribute loop
+
+    // Data block, possibly shared with other engines
+    private Data data;
+    private Instances header;
+    private int n;
+    private int d;
+    private double[] values;           // Raw values, row-major
+    private double[] normalized;       // Values as the distance function sees them
+    private double[] weights;
+    private boolean[] nominal;
+    private boolean[] active;          // Numeric and nominal attributes; others never differ
+    private int[] nominalOffset;       // Start of each nominal attribute in the count block
+    private int nominalSlots;
+    private DistanceKernels activeKernels; // Kernels, when every attribute is numeric
+    private DistanceKernels.Metric kernelMetric;
+
+    // Model
+    private double[] centroids;        // Raw values, row-major
+    private double[] normalizedCentroids;
+    private int[] assignments;
+    private double[] clusterSizes;
+    private double[] squaredErrors;
+    private int iterations;
+
+    // Triangle inequality bounds
+    private Acceleration activeAcceleration;
+    private boolean boundsValid;       // False until every distance has been computed once
+    private double[] upper;            // Upper bound on the distance to the assigned centroid
+    private double[] lower;            // Hamerly: [point]; Elkan: [point * k + centroid]
+    private double[] drift;            // How far each centroid moved in the last update
+    private int largestDrift;          // Centroid that moved most
+    private double secondDrift;        // Largest move among the other centroids
+    private double[] halfSeparation;   // Half the distance to the nearest other centroid
+    private double[] centroidDistances; // Elkan: half distances between centroids, [k * k]
+    private long distanceComputations;
+    private long distanceComputationsSaved;
+
+    public NativeKMeans(int numClusters, DistanceMetric metric) {
+        this.numClusters = numClusters;
+        this.metric = metric;
+        initialization = Initialization.RANDOM;
+        seed = 10;          // SimpleKMeans defaults
+        maxIterations = 500;
+        numThreads = 1;
+        acceleration = Acceleration.AUTO;
+    }
+
+    /**
+     * Flat copy of a dataset and its distance ranges. It is never modified once prepared, so
+     * any number of engines can cluster the same copy at the same time.
+     */
+    public static final class Data {
+        private final Instances header;
+        private final int n;
+        private final int d;
+        private final double[] values;       // Raw values, row-major
+        private final double[] normalized;   // Values as the distance function sees them
+        private final double[] weights;
+        private final boolean[] nominal;
+        private final boolean[] active;      // Numeric and nominal attributes; others never differ
+        private final int[] nominalOffset;   // Start of each nominal attribute in the count block
+        private final int nominalSlots;
+        private final double[] min;
+        private final double[] width;
+
+        private Data(Instances data) throws Exception {
+            header = new Instances(data, 0);
+            n = data.numInstances();
+            d = data.numAttributes();
+            values = new double[n * d];
+            weights = new double[n];
+            nominal = new boolean[d];
+            active = new boolean[d];
+            nominalOffset = new int[d];
+            int slots = 0;
+            for (int j = 0; j < d; j++) {
+                Attribute attribute = data.attribute(j);
+                if (attribute.isString() || attribute.isRelationValued()) {
+                    throw new IllegalArgumentException("Unsupported attribute type: " + attribute.name());
+                }
+                nominal[j] = attribute.isNominal();
+                active[j] = attribute.type() == Attribute.NUMERIC || nominal[j];
+                if (nominal[j]) {
+                    nominalOffset[j] = slots;
+                    slots += attribute.numValues();
+                }
+            }
+            nominalSlots = slots;
+            for (int i = 0; i < n; i++) {
+                Instance instance = data.instance(i);
+                if (instance.hasMissingValue()) {
+                    throw new IllegalArgumentException("Data contains missing values at instance: " + i);
+                }
+                for (int j = 0; j < d; j++) {
+                    values[i * d + j] = instance.value(j);
+                }
+                weights[i] = instance.weight();
+            }
+
+            // SimpleKMeans ignores the class index, so the ranges cover every attribute
+            Instances unlabeled = data;
+            if (data.classIndex() >= 0) {
+                unlabeled = new Instances(data);
+                unlabeled.setClassIndex(-1);
+            }
+            double[][] ranges = new EuclideanDistance(unlabeled).getRanges();
+            min = new double[d];
+            width = new double[d];
+            for (int j = 0; j < d; j++) {
+                min[j] = ranges[j][EuclideanDistance.R_MIN];
+                width[j] = ranges[j][EuclideanDistance.R_WIDTH];
+            }
+            normalized = new double[n * d];
+            for (int i = 0; i < n; i++) {
+                normalizeRow(values, normalized, i * d);
+            }
+        }
+
+        private void normalizeRow(double[] source, double[] target, int offset) {
+            for (int j = 0; j < d; j++) {
+                double x = source[offset + j];
+                if (nominal[j]) {
+                    target[offset + j] = x; // Nominal values are compared as indices
+                } else {
+                    target[offset + j] = width[j] == 0 ? 0 : (x - min[j]) / width[j];
+                }
+            }
+        }
+
+        public int numInstances() {
+            return n;
+        }
+
+        public int numAttributes() {
+            return d;
+        }
+    }
+
+    /**
+     * Copies a dataset into the flat layout the engine works on.
+     */
+    public static Data prepare(Instances data) throws Exception {
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+        return new Data(data);
+    }
+
+    public void buildClusterer(Instances data) throws Exception {
+        buildClusterer(prepare(data));
+    }
+
+    /**
+     * Clusters a prepared data block, which may be shared with engines running concurrently.
+     */
+    public void buildClusterer(Data data) throws Exception {
+        if (numClusters < 1) {
+            throw new IllegalArgumentException("Number of clusters must be at least 1");
+        }
+        use(data);
+        activeKernels = kernels != null && nominalSlots == 0 && allActive() ? kernels : null;
+        kernelMetric = metric == DistanceMetric.EUCLIDEAN
+                ? DistanceKernels.Metric.SQUARED_EUCLIDEAN : DistanceKernels.Metric.MANHATTAN;
+        if (n == 0) {
+            throw new IllegalArgumentException("Data must contain at least one instance");
+        }
+
+        // No pool at all for a sequential run, which may itself be one task of a larger pool
+        ForkJoinPool pool = numThreads == 1 ? null
+                : numThreads > 0 ? new ForkJoinPool(numThreads) : ForkJoinPool.commonPool();
+        try {
+            int chunks = pool == null ? 1 : Math.min(n, pool.getParallelism());
+            if (initialCenters != null) {
+                givenInit();
+            } else if (initialization == Initialization.KMEANS_PARALLEL) {
+                kMeansParallelInit(pool, chunks);
+            } else if (initialization == Initialization.KMEANS_PLUS_PLUS) {
+                kMeansPlusPlusInit();
+            } else {
+                randomInit();
+            }
+
+            assignments = new int[n];
+            iterations = 0;
+            distanceComputations = 0;
+            distanceComputationsSaved = 0;
+            activeAcceleration = resolveAcceleration();
+            boundsValid = false;
+            upper = activeAcceleration == Acceleration.NONE ? null : new double[n];
+            Partial total;
+            boolean converged;
+            do {
+                iterations++;
+                prepareCentroids();
+                Partial[] partials = new Partial[chunks];
+                forEach(pool, chunks, c -> partials[c] = assignChunk(n * c / chunks, n * (c + 1) / chunks));
+
+                total = partials[0];
+                for (int c = 1; c < chunks; c++) {
+                    total.merge(partials[c]);
+                }
+                distanceComputations += total.computed;
+                distanceComputationsSaved += (long) n * numClusters - total.computed;
+                boundsValid = upper != null;
+                converged = !total.changed || iterations == maxIterations;
+                moveCentroids(total, pool);
+            } while (!converged);
+
+            clusterSizes = Arrays.copyOf(total.weightSums, numClusters);
+            computeSquaredErrors(pool, chunks);
+        } finally {
+            if (pool != null && pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+            // The bounds are only needed while iterating
+            upper = null;
+            lower = null;
+        }
+    }
+
+    // Runs the body for 0 to count - 1, on the pool if there is one
+    static void forEach(ForkJoinPool pool, int count, IntConsumer body) throws Exception {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                body.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(body)).get();
+        }
+    }
+
+    // Points the engine at a prepared data block; the arrays are shared, never written
+    private void use(Data data) {
+        this.data = data;
+        header = data.header;
+        n = data.n;
+        d = data.d;
+        values = data.values;
+        normalized = data.normalized;
+        weights = data.weights;
+        nominal = data.nominal;
+        active = data.active;
+        nominalOffset = data.nominalOffset;
+        nominalSlots = data.nominalSlots;
+    }
+
+    private boolean allActive() {
+        for (boolean used : active) {
+            if (!used) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void normalizeRow(double[] source, double[] target, int offset) {
+        data.normalizeRow(source, target, offset);
+    }
+
+    private void normalizeCentroids() {
+        normalizedCentroids = new double[numClusters * d];
+        for (int c = 0; c < numClusters; c++) {
+            normalizeRow(centroids, normalizedCentroids, c * d);
+        }
+    }
+
+    /**
+     * Distance between instance i and centroid c, with Weka's conventions: squared for
+     * Euclidean, infinite as soon as the running sum exceeds the cutoff.
+     */
+    private double distance(int i, int c, double cutoff) {
+        return distance(normalized, i * d, normalizedCentroids, c * d, cutoff);
+    }
+
+    private double distance(double[] x, int a, double[] y, int b, double cutoff) {
+        if (activeKernels != null) {
+            double sum = activeKernels.distance(kernelMetric, x, a, y, b, d);
+            return sum > cutoff ? Double.POSITIVE_INFINITY : sum;
+        }
+        double sum = 0;
+        for (int j = 0; j < d; j++) {
+            if (!active[j]) {
+                continue;
+            }
+            double diff;
+            if (nominal[j]) {
+                diff = (int) x[a + j] != (int) y[b + j] ? 1 : 0;
+            } else {
+                diff = x[a + j] - y[b + j];
+            }
+            sum += metric == DistanceMetric.EUCLIDEAN ? diff * diff : Math.abs(diff);
+            if (sum > cutoff) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+        return sum;
+    }
+
+    // The distance SimpleKMeans reports outside the main loop
+    private double fullDistance(int i, int c) {
+        return metricDistance(distance(i, c, Double.POSITIVE_INFINITY));
+    }
+
+    // Turns a running sum into a distance that satisfies the triangle inequality
+    private double metricDistance(double sum) {
+        return metric == DistanceMetric.EUCLIDEAN ? Math.sqrt(sum) : sum;
+    }
+
+    // Per-chunk sums for the centroid update
+    private class Partial {
+        final int[] counts = new int[numClusters];
+        final double[] weightSums = new double[numClusters];
+        final double[] sums = new double[numClusters * d];
+        final double[] nominalCounts = new double[numClusters * nominalSlots];
+        boolean changed;
+        long computed;
+
+        void add(int i, int c) {
+            double w = weights[i];
+            counts[c]++;
+            weightSums[c] += w;
+            for (int j = 0; j < d; j++) {
+                double x = values[i * d + j];
+                if (nominal[j]) {
+                    nominalCounts[c * nominalSlots + nominalOffset[j] + (int) x] += w;
+                } else {
+                    sums[c * d + j] += w * x;
+                }
+            }
+        }
+
+        void merge(Partial other) {
+            changed |= other.changed;
+            computed += other.computed;
+            for (int c = 0; c < weightSums.length; c++) {
+                counts[c] += other.counts[c];
+                weightSums[c] += other.weightSums[c];
+            }
+            for (int k = 0; k < sums.length; k++) {
+                sums[k] += other.sums[k];
+            }
+            for (int k = 0; k < nominalCounts.length; k++) {
+                nominalCounts[k] += other.nominalCounts[k];
+            }
+        }
+    }
+
+    private Partial assignChunk(int from, int to) {
+        Partial partial = new Partial();
+        for (int i = from; i < to; i++) {
+            int best;
+            if (activeAcceleration == Acceleration.NONE) {
+                best = nearest(i);
+                partial.computed += numClusters;
+            } else if (!boundsValid) {
+                best = initializeBounds(i);
+                partial.computed += numClusters;
+            } else if (activeAcceleration == Acceleration.HAMERLY) {
+                shiftBounds(i);
+                best = hamerly(i, partial);
+            } else {
+                shiftBounds(i);
+                best = elkan(i, partial);
+            }
+            if (best != assignments[i]) {
+                partial.changed = true;
+            }
+            assignments[i] = best;
+            partial.add(i, best);
+        }
+        return partial;
+    }
+
+    // Plain scan, exactly as SimpleKMeans: first centroid with the smallest running sum
+    private int nearest(int i) {
+        double minDistance = Integer.MAX_VALUE;
+        int best = 0;
+        for (int c = 0; c < numClusters; c++) {
+            double distance = distance(i, c, minDistance);
+            if (distance < minDistance) {
+                minDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // Full scan that also sets the bounds of point i
+    private int initializeBounds(int i) {
+        int best = 0;
+        double bestSum = Double.POSITIVE_INFINITY;
+        double second = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numClusters; c++) {
+            double sum = distance(i, c, Double.POSITIVE_INFINITY);
+            if (activeAcceleration == Acceleration.ELKAN) {
+                lower[i * numClusters + c] = metricDistance(sum);
+            }
+            if (sum < bestSum) {
+                second = bestSum;
+                bestSum = sum;
+                best = c;
+            } else if (sum < second) {
+                second = sum;
+            }
+        }
+        upper[i] = metricDistance(bestSum);
+        if (activeAcceleration == Acceleration.HAMERLY) {
+            lower[i] = metricDistance(second);
+        }
+        return best;
+    }
+
+    // True when a centroid whose distance is at least {@code bound} cannot beat one at {@code u}
+    private static boolean dominates(double bound, double u) {
+        return u + BOUND_SLACK * (1 + u) < bound;
+    }
+
+    /**
+     * Hamerly: the assigned centroid stays when the upper bound is below both the lower bound
+     * on every other centroid and half the gap to the nearest other centroid.
+     */
+    private int hamerly(int i, Partial partial) {
+        int a = assignments[i];
+        double bound = Math.max(lower[i], halfSeparation[a]);
+        if (dominates(bound, upper[i])) {
+            return a;
+        }
+        upper[i] = metricDistance(distance(i, a, Double.POSITIVE_INFINITY));
+        partial.computed++;
+        if (dominates(bound, upper[i])) {
+            return a;
+        }
+        partial.computed += numClusters;
+        return initializeBounds(i);
+    }
+
+    /**
+     * Elkan: every other centroid is checked against its own lower bound and against half
+     * its distance to the assigned centroid before any distance is computed.
+     */
+    private int elkan(int i, Partial partial) {
+        int a = assignments[i];
+        if (dominates(halfSeparation[a], upper[i])) {
+            return a;
+        }
+        int row = i * numClusters;
+        double bestSum = Double.NaN; // Distance sum to a, computed on demand
+        for (int c = 0; c < numClusters; c++) {
+            if (c == a || dominates(lower[row + c], upper[i])
+                    || dominates(centroidDistances[a * numClusters + c], upper[i])) {
+                continue;
+            }
+            if (Double.isNaN(bestSum)) {
+                bestSum = distance(i, a, Double.POSITIVE_INFINITY);
+                partial.computed++;
+                upper[i] = metricDistance(bestSum);
+                lower[row + a] = upper[i];
+                if (dominates(lower[row + c], upper[i])
+                        || dominates(centroidDistances[a * numClusters + c], upper[i])) {
+                    continue;
+                }
+            }
+            double sum = distance(i, c, Double.POSITIVE_INFINITY);
+            partial.computed++;
+            lower[row + c] = metricDistance(sum);
+            // Ties go to the first centroid, as in the plain scan
+            if (sum < bestSum || (sum == bestSum && c < a)) {
+                a = c;
+                bestSum = sum;
+                upper[i] = lower[row + c];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Normalizes the new centroids and, when bounds are kept, moves them by how far each
+     * centroid drifted and refreshes the centroid separations.
+     */
+    private void prepareCentroids() {
+        double[] previous = normalizedCentroids;
+        normalizeCentroids();
+        if (activeAcceleration == Acceleration.NONE) {
+            return;
+        }
+        int k = numClusters;
+        if (boundsValid) {
+            if (previous == null || previous.length != normalizedCentroids.length) {
+                boundsValid = false; // Clusters were dropped; recompute everything once
+            } else {
+                drift = new double[k];
+                largestDrift = 0;
+                secondDrift = 0;
+                for (int c = 0; c < k; c++) {
+                    drift[c] = metricDistance(distance(previous, c * d, normalizedCentroids, c * d,
+                            Double.POSITIVE_INFINITY));
+                    if (drift[c] > drift[largestDrift]) {
+                        secondDrift = drift[largestDrift];
+                        largestDrift = c;
+                    } else if (c != largestDrift) {
+                        secondDrift = Math.max(secondDrift, drift[c]);
+                    }
+                }
+            }
+        }
+        if (!boundsValid) {
+            lower = new double[activeAcceleration == Acceleration.ELKAN ? n * k : n];
+        }
+
+        halfSeparation = new double[k];
+        Arrays.fill(halfSeparation, Double.POSITIVE_INFINITY);
+        centroidDistances = activeAcceleration == Acceleration.ELKAN ? new double[k * k] : null;
+        for (int c = 0; c < k; c++) {
+            for (int o = c + 1; o < k; o++) {
+                double half = metricDistance(distance(normalizedCentroids, c * d, normalizedCentroids,
+                        o * d, Double.POSITIVE_INFINITY)) / 2;
+                halfSeparation[c] = Math.min(halfSeparation[c], half);
+                halfSeparation[o] = Math.min(halfSeparation[o], half);
+                if (centroidDistances != null) {
+                    centroidDistances[c * k + o] = half;
+                    centroidDistances[o * k + c] = half;
+                }
+            }
+        }
+    }
+
+    // Loosens the bounds of point i by how far the centroids moved
+    private void shiftBounds(int i) {
+        int a = assignments[i];
+        upper[i] += drift[a];
+        if (activeAcceleration == Acceleration.HAMERLY) {
+            lower[i] -= a == largestDrift ? secondDrift : drift[largestDrift];
+        } else {
+            int row = i * numClusters;
+            for (int c = 0; c < numClusters; c++) {
+                lower[row + c] -= drift[c];
+            }
+        }
+    }
+
+    private Acceleration resolveAcceleration() {
+        if (acceleration != Acceleration.AUTO) {
+            return acceleration;
+        }
+        boolean elkanFits = (long) n * numClusters <= ELKAN_MAX_BOUNDS;
+        return numClusters >= ELKAN_MIN_CLUSTERS && elkanFits ? Acceleration.ELKAN : Acceleration.HAMERLY;
+    }
+
+    // New centroids from the merged sums; empty clusters are dropped as SimpleKMeans does
+    private void moveCentroids(Partial total, ForkJoinPool pool) throws Exception {
+        int[][] members = metric == DistanceMetric.MANHATTAN ? membersByCluster() : null;
+        int kept = 0;
+        double[] moved = new double[numClusters * d];
+        int[] source = new int[numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            if (total.counts[c] > 0) {
+                source[kept++] = c;
+            }
+        }
+
+        int keptClusters = kept;
+        forEach(pool, keptClusters, k -> {
+            int c = source[k];
+            int row = k * d;
+            for (int j = 0; j < d; j++) {
+                if (nominal[j]) {
+                    double max = -Double.MAX_VALUE;
+                    int mode = -1;
+                    int base = c * nominalSlots + nominalOffset[j];
+                    for (int v = 0; v < header.attribute(j).numValues(); v++) {
+                        if (total.nominalCounts[base + v] > max) {
+                            max = total.nominalCounts[base + v];
+                            mode = v;
+                        }
+                    }
+                    moved[row + j] = mode;
+                } else if (total.weightSums[c] <= 0) {
+                    moved[row + j] = Utils.missingValue();
+                } else if (members != null) {
+                    moved[row + j] = median(members[c], j);
+                } else {
+                    moved[row + j] = total.sums[c * d + j] / total.weightSums[c];
+                }
+            }
+        });
+
+        if (kept < numClusters) {
+            // Keep the sizes aligned with the surviving clusters
+            double[] weightSums = new double[kept];
+            for (int k = 0; k < kept; k++) {
+                weightSums[k] = total.weightSums[source[k]];
+            }
+            System.arraycopy(weightSums, 0, total.weightSums, 0, kept);
+            numClusters = kept;
+        }
+        centroids = Arrays.copyOf(moved, numClusters * d);
+    }
+
+    private int[][] membersByCluster() {
+        int[] counts = new int[numClusters];
+        for (int i = 0; i < n; i++) {
+            counts[assignments[i]]++;
+        }
+        int[][] members = new int[numClusters][];
+        for (int c = 0; c < numClusters; c++) {
+            members[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            int c = assignments[i];
+            members[c][counts[c]++] = i;
+        }
+        return members;
+    }
+
+    // Median as SimpleKMeans computes it: middle value, or mean of the two middle values
+    private double median(int[] members, int j) {
+        double[] column = new double[members.length];
+        for (int m = 0; m < members.length; m++) {
+            column[m] = values[members[m] * d + j];
+        }
+        if (column.length == 1) {
+            return column[0];
+        }
+        int middle = (column.length - 1) / 2;
+        double value = select(column, middle);
+        if (column.length % 2 == 0) {
+            // Everything after the middle is at least as large; the next value is their minimum
+            double next = Double.POSITIVE_INFINITY;
+            for (int m = middle + 1; m < column.length; m++) {
+                next = Math.min(next, column[m]);
+            }
+            value = (value + next) / 2.0;
+        }
+        return value;
+    }
+
+    // Quickselect: moves the k-th smallest value to position k and returns it
+    private static double select(double[] a, int k) {
+        int left = 0;
+        int right = a.length - 1;
+        while (left < right) {
+            double pivot = a[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmp = a[i];
+                    a[i++] = a[j];
+                    a[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return a[k];
+    }
+
+    private void computeSquaredErrors(ForkJoinPool pool, int chunks) throws Exception {
+        normalizeCentroids();
+        int[] best = new int[n];
+        double[] errors = new double[n];
+        forEach(pool, chunks, chunk -> {
+            for (int i = n * chunk / chunks; i < n * (chunk + 1) / chunks; i++) {
+                double minDistance = Integer.MAX_VALUE;
+                for (int c = 0; c < numClusters; c++) {
+                    double distance = fullDistance(i, c);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        best[i] = c;
+                    }
+                }
+                errors[i] = metric == DistanceMetric.EUCLIDEAN
+                        ? minDistance * (minDistance * weights[i])
+                        : minDistance * weights[i];
+            }
+        });
+
+        // Accumulated per cluster in instance order, as SimpleKMeans does
+        squaredErrors = new double[numClusters];
+        for (int i = 0; i < n; i++) {
+            squaredErrors[best[i]] += errors[i];
+        }
+    }
+
+    // SimpleKMeans random seeding: distinct instances drawn by a partial Fisher-Yates shuffle
+    private void randomInit() {
+        Random random = new Random(seed);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        double[] chosen = new double[numClusters * d];
+        int count = 0;
+        for (int j = n - 1; j >= 0; j--) {
+            int index = random.nextInt(j + 1);
+            int candidate = order[index];
+            if (!isChosen(chosen, count, candidate)) {
+                System.arraycopy(values, candidate * d, chosen, count * d, d);
+                count++;
+            }
+            order[index] = order[j];
+            order[j] = candidate;
+            if (count == numClusters) {
+                break;
+            }
+        }
+        numClusters = count;
+        centroids = Arrays.copyOf(chosen, count * d);
+    }
+
+    // SimpleKMeans k-means++ seeding, using unsquared distances as Weka does
+    private void kMeansPlusPlusInit() {
+        Random random = new Random(seed);
+        double[] chosen = new double[numClusters * d];
+        int first = random.nextInt(n);
+        System.arraycopy(values, first * d, chosen, 0, d);
+        int count = 1;
+        int remaining = n - 1;
+
+        if (numClusters > 1) {
+            centroids = chosen;
+            normalizedCentroids = new double[numClusters * d];
+            normalizeRow(centroids, normalizedCentroids, 0);
+            double[] distances = new double[n];
+            for (int i = 0; i < n; i++) {
+                distances[i] = fullDistance(i, 0);
+            }
+            double[] cumulative = new double[n];
+            for (int c = 1; c < numClusters; c++) {
+                double[] probabilities = distances.clone();
+                Utils.normalize(probabilities);
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += probabilities[i];
+                    cumulative[i] = sum;
+                }
+                cumulative[n - 1] = 1.0;
+
+                double p = random.nextDouble();
+                for (int i = 0; i < n; i++) {
+                    if (p < cumulative[i]) {
+                        if (!isChosen(chosen, count, i)) {
+                            System.arraycopy(values, i * d, chosen, count * d, d);
+                            normalizeRow(centroids, normalizedCentroids, count * d);
+                            count++;
+                        }
+                        remaining--;
+                        break;
+                    }
+                }
+                if (remaining == 0) {
+                    break;
+                }
+
+                int newest = count - 1;
+                for (int i = 0; i < n; i++) {
+                    if (distances[i] > 0) {
+                        double distance = fullDistance(i, newest);
+                        if (distance < distances[i]) {
+                            distances[i] = distance;
+                        }
+                    }
+                }
+            }
+        }
+        numClusters = count;
+        centroids = Arrays.copyOf(chosen, count * d);
+    }
+
+    // Starts from the supplied centroids as they are
+    private void givenInit() {
+        if (initialCenters.numAttributes() != d) {
+            throw new IllegalArgumentException("Initial centers must have " + d + " attributes, found "
+                    + initialCenters.numAttributes());
+        }
+        numClusters = initialCenters.numInstances();
+        if (numClusters == 0) {
+            throw new IllegalArgumentException("Initial centers cannot be empty");
+        }
+        centroids = new double[numClusters * d];
+        for (int c = 0; c < numClusters; c++) {
+            Instance center = initialCenters.instance(c);
+            if (center.hasMissingValue()) {
+                throw new IllegalArgumentException("Initial center " + (c + 1) + " contains missing values");
+            }
+            for (int j = 0; j < d; j++) {
+                centroids[c * d + j] = center.value(j);
+            }
+        }
+    }
+
+    /**
+     * k-means|| seeding (Bahmani et al., 2012). Starting from one random point, each round
+     * keeps every point independently with probability min(1, l * cost / total cost), where
+     * cost is the distance to the nearest candidate (squared for Euclidean) and l is
+     * OVERSAMPLING * k. The rounds are data-parallel; the draw for a point only depends on the
+     * seed, the round and its index, so the candidates do not depend on the number of threads.
+     * The candidates, weighted by the points nearest to them, are then reduced to k centroids
+     * with k-means++.
+     */
+    private void kMeansParallelInit(ForkJoinPool pool, int chunks) throws Exception {
+        Random random = new Random(seed);
+        double[] cost = new double[n];
+        int[] nearest = new int[n];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        int[] candidates = new int[Math.max(16, numClusters)];
+        candidates[0] = random.nextInt(n);
+        int count = 1;
+        updateCosts(pool, chunks, candidates, 0, count, cost, nearest);
+
+        double expected = OVERSAMPLING * numClusters;
+        double total = Utils.sum(cost);
+        for (int round = 0; total > 0 && round < PARALLEL_MAX_ROUNDS
+                && (round < PARALLEL_ROUNDS || count < numClusters); round++) {
+            int r = round;
+            double scale = expected / total;
+            int[][] sampled = new int[chunks][];
+            forEach(pool, chunks, c -> {
+                int[] picked = new int[16];
+                int size = 0;
+                for (int i = n * c / chunks; i < n * (c + 1) / chunks; i++) {
+                    if (cost[i] > 0 && uniform(seed, r, i) < scale * cost[i]) {
+                        if (size == picked.length) {
+                            picked = Arrays.copyOf(picked, size * 2);
+                        }
+                        picked[size++] = i;
+                    }
+                }
+                sampled[c] = Arrays.copyOf(picked, size);
+            });
+            int first = count;
+            for (int[] picked : sampled) {
+                if (count + picked.length > candidates.length) {
+                    candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, count + picked.length));
+                }
+                System.arraycopy(picked, 0, candidates, count, picked.length);
+                count += picked.length;
+            }
+            updateCosts(pool, chunks, candidates, first, count, cost, nearest);
+            total = Utils.sum(cost);
+        }
+
+        // Each candidate stands for the points nearest to it
+        double[] candidateWeights = new double[count];
+        for (int i = 0; i < n; i++) {
+            candidateWeights[nearest[i]] += weights[i];
+        }
+        reduceCandidates(random, candidates, candidateWeights, count);
+    }
+
+    // Lowers each point's cost with the candidates from first to end - 1
+    private void updateCosts(ForkJoinPool pool, int chunks, int[] candidates, int first, int end,
+                             double[] cost, int[] nearest) throws Exception {
+        forEach(pool, chunks, c -> {
+            for (int i = n * c / chunks; i < n * (c + 1) / chunks; i++) {
+                for (int k = first; k < end; k++) {
+                    double distance = distance(normalized, i * d, normalized, candidates[k] * d, cost[i]);
+                    if (distance < cost[i]) {
+                        cost[i] = distance;
+                        nearest[i] = k;
+                    }
+                }
+            }
+        });
+    }
+
+    // Weighted k-means++ over the k-means|| candidates, skipping duplicate rows
+    private void reduceCandidates(Random random, int[] candidates, double[] candidateWeights, int count) {
+        double[] chosen = new double[numClusters * d];
+        double[] cost = new double[count];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        int selected = 0;
+        int next = pick(random, candidateWeights, null, count);
+        while (true) {
+            int row = candidates[next];
+            System.arraycopy(values, row * d, chosen, selected * d, d);
+            selected++;
+            if (selected == numClusters) {
+                break;
+            }
+            for (int k = 0; k < count; k++) {
+                double distance = distance(normalized, candidates[k] * d, normalized, row * d, cost[k]);
+                if (distance < cost[k]) {
+                    cost[k] = distance;
+                }
+            }
+            next = pick(random, candidateWeights, cost, count);
+            if (next < 0) {
+                break; // Every candidate coincides with a chosen centroid
+            }
+        }
+        numClusters = selected;
+        centroids = Arrays.copyOf(chosen, selected * d);
+    }
+
+    // Index drawn with probability proportional to weight (times cost if given), -1 if all are 0
+    private static int pick(Random random, double[] weight, double[] cost, int count) {
+        double total = 0;
+        for (int k = 0; k < count; k++) {
+            total += cost == null ? weight[k] : weight[k] * cost[k];
+        }
+        if (total <= 0) {
+            return -1;
+        }
+        double target = random.nextDouble() * total;
+        int last = -1;
+        for (int k = 0; k < count; k++) {
+            double mass = cost == null ? weight[k] : weight[k] * cost[k];
+            if (mass > 0) {
+                last = k;
+                target -= mass;
+                if (target < 0) {
+                    return k;
+                }
+            }
+        }
+        return last; // Rounding left a little mass over
+    }
+
+    // Uniform draw in [0, 1) from a SplitMix64 hash of the seed, the round and the point
+    private static double uniform(long seed, int round, int i) {
+        long z = seed * 0x9E3779B97F4A7C15L + round * 0xD1B54A32D192ED03L + i * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    private boolean isChosen(double[] chosen, int count, int candidate) {
+        for (int c = 0; c < count; c++) {
+            boolean same = true;
+            for (int j = 0; j < d && same; j++) {
+                same = chosen[c * d + j] == values[candidate * d + j];
+            }
+            if (same) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Getters and setters
+    public Instances getClusterCentroids() {
+        if (centroids == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        Instances result = new Instances(header, numClusters);
+        for (int c = 0; c < numClusters; c++) {
+            result.add(new DenseInstance(1.0, Arrays.copyOfRange(centroids, c * d, (c + 1) * d)));
+        }
+        return result;
+    }
+
+    /**
+     * Centroids, metric and ranges of the fitted model, to label or save apart from the engine.
+     */
+    public KMeansModel getModel() {
+        if (centroids == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        return new KMeansModel(header, metric, centroids, numClusters, data.min, data.width);
+    }
+
+    public int[] getAssignments() {
+        if (assignments == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        return assignments.clone();
+    }
+
+    public double[] getClusterSizes() {
+        return clusterSizes.clone();
+    }
+
+    public double getSquaredError() {
+        return Utils.sum(squaredErrors);
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    public Initialization getInitialization() {
+        return initialization;
+    }
+
+    public void setInitialization(Initialization initialization) {
+        this.initialization = initialization;
+    }
+
+    public Instances getInitialCenters() {
+        return initialCenters;
+    }
+
+    /**
+     * Centroids to start the iterations from, one instance per cluster with the layout of the
+     * data; the number of clusters becomes the number of centers. Null restores the seeding.
+     */
+    public void setInitialCenters(Instances initialCenters) {
+        this.initialCenters = initialCenters;
+    }
+
+    public DistanceMetric getMetric() {
+        return metric;
+    }
+
+    public Acceleration getAcceleration() {
+        return acceleration;
+    }
+
+    public void setAcceleration(Acceleration acceleration) {
+        this.acceleration = acceleration;
+    }
+
+    /**
+     * Point-to-centroid distances computed by the assignment steps of the last build.
+     */
+    public long getDistanceComputations() {
+        return distanceComputations;
+    }
+
+    /**
+     * Point-to-centroid distances the plain loop would have computed but the bounds skipped
+     * (negative when bound checks failed often enough to recompute more than they saved).
+     */
+    public long getDistanceComputationsSaved() {
+        return distanceComputationsSaved;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Number of threads for the assignment step: 1 runs sequentially, 0 uses all cores.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public DistanceKernels getDistanceKernels() {
+        return kernels;
+    }
+
+    /**
+     * Kernels computing whole-row distances on numeric data, e.g. DistanceKernels.get() for
+     * SIMD. Sums are then no longer added in attribute order, so results may differ from
+     * SimpleKMeans in the last bits. Ignored when the data has nominal or date attributes.
+     */
+    public void setDistanceKernels(DistanceKernels kernels) {
+        this.kernels = kernels;
+    }
+}
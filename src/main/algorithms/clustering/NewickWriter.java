@@ -0,0 +1,123 @@
+package main.algorithms.clustering;
+
+import weka.core.Instances;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Writes a dendrogram in Newick format straight from its linkage matrix, in the notation of
+ * HierarchicalClusterer.graph(): the first cluster of a merge is the left child, branch
+ * lengths are the height of the merge minus that of the child, formatted with up to five
+ * decimals, and leaves are labelled with the class attribute if set, else the first string
+ * attribute, else the last attribute.
+ *
+ * The text goes to the output as it is produced and the tree is walked without recursion,
+ * so a dendrogram of any size or depth is written with memory linear in the number of merges
+ * and never held as a whole string.
+ */
+public class NewickWriter {
+
+    private final LinkageMatrix linkage;
+    private final Instances instances;
+    private final int attIndex;
+    private final boolean string;
+    private final DecimalFormat format;
+
+    public NewickWriter(LinkageMatrix linkage, Instances instances) {
+        if (instances.numInstances() != linkage.getNumInstances()) {
+            throw new IllegalArgumentException("The linkage matrix has " + linkage.getNumInstances()
+                    + " instances, the data " + instances.numInstances());
+        }
+        this.linkage = linkage;
+        this.instances = instances;
+        int index = instances.classIndex();
+        if (index < 0) {
+            index = 0;
+            while (index < instances.numAttributes() - 1 && !instances.attribute(index).isString()) {
+                index++;
+            }
+        }
+        this.attIndex = index;
+        this.string = instances.attribute(index).isString();
+        this.format = (DecimalFormat) NumberFormat.getNumberInstance(Locale.US);
+        format.applyPattern("#.#####");
+    }
+
+    /**
+     * Label of an instance in the tree.
+     */
+    public String label(int instance) {
+        if (string) {
+            return instances.instance(instance).stringValue(attIndex);
+        }
+        return String.valueOf(instances.instance(instance).value(attIndex));
+    }
+
+    /**
+     * Writes the full dendrogram followed by the closing semicolon.
+     */
+    public void write(Appendable out) throws IOException {
+        writeSubtree(out, linkage.getNumInstances() + linkage.getNumMerges() - 1);
+        out.append(';');
+    }
+
+    public void write(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            write(writer);
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Writes the tree of a cluster, an instance below n or merge m as n + m, without the
+     * closing semicolon.
+     */
+    public void writeSubtree(Appendable out, int cluster) throws IOException {
+        int n = linkage.getNumInstances();
+        if (cluster < 0 || cluster >= n + linkage.getNumMerges()) {
+            throw new IllegalArgumentException("No cluster " + cluster + " in the linkage matrix");
+        }
+        if (cluster < n) {
+            out.append(label(cluster));
+            return;
+        }
+        // Merges still open on the stack, with the number of children already written
+        int[] stack = new int[cluster - n + 1];
+        byte[] state = new byte[cluster - n + 1];
+        int depth = 0;
+        stack[depth++] = cluster - n;
+        while (depth > 0) {
+            int m = stack[depth - 1];
+            int child;
+            if (state[m] == 0) {
+                out.append('(');
+                child = linkage.getFirst(m);
+            } else if (state[m] == 1) {
+                out.append(':').append(format.format(branchLength(m, linkage.getFirst(m)))).append(',');
+                child = linkage.getSecond(m);
+            } else {
+                out.append(':').append(format.format(branchLength(m, linkage.getSecond(m)))).append(')');
+                depth--;
+                continue;
+            }
+            state[m]++;
+            if (child >= n) {
+                stack[depth++] = child - n;
+            } else {
+                out.append(label(child));
+            }
+        }
+    }
+
+    private double branchLength(int merge, int child) {
+        int n = linkage.getNumInstances();
+        double height = linkage.getHeight(merge);
+        return child < n ? height : height - linkage.getHeight(child - n);
+    }
+}
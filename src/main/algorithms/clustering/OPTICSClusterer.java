@@ -0,0 +1,267 @@
+package main.algorithms.clustering;
+
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import main.algorithms.clustering.DBSCANClusterer.IndexType;
+import main.algorithms.clustering.DBSCANClusterer.PointType;
+import main.algorithms.clustering.index.NeighborBuffer;
+import main.algorithms.clustering.index.RangeQueryIndex;
+
+/**
+ * OPTICS ordering: computes core distances and a reachability ordering once for a maximum
+ * epsilon. The DBSCAN clustering for any epsilon up to that maximum, with the same minPoints,
+ * is then extracted in O(n) without computing a single new distance.
+ *
+ * Extracted core points and clusters are the ones DBSCANClusterer finds, and clusters are
+ * numbered the same way (from 1, in order of their first core point). As in the original
+ * OPTICS extraction, a border point reachable from several clusters may land in a different
+ * one, and a few border points may be reported as noise.
+ */
+public class OPTICSClusterer {
+
+    private static final double UNDEFINED = Double.POSITIVE_INFINITY;
+
+    private double maxEpsilon;     // Largest epsilon that can be extracted
+    private int minPoints;         // Minimum points to form a cluster
+    private DistanceFunction distanceFunction;
+    private IndexType indexType;
+    private int[] ordering;        // Instance indices in processing order
+    private double[] reachability; // Reachability distance of each instance
+    private double[] coreDistance; // Core distance of each instance
+
+    public OPTICSClusterer(double maxEpsilon, int minPoints) {
+        this.maxEpsilon = maxEpsilon;
+        this.minPoints = minPoints;
+        distanceFunction = new EuclideanDistance(); // default distance function
+        indexType = IndexType.AUTO;
+    }
+
+    public void buildClusterer(Instances data) throws Exception {
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (data.instance(i).hasMissingValue()) {
+                throw new IllegalArgumentException("Data contains missing values at instance: " + i);
+            }
+        }
+
+        int n = data.numInstances();
+        distanceFunction.setInstances(data);
+        RangeQueryIndex index = DBSCANClusterer.createIndex(indexType, data, distanceFunction, maxEpsilon);
+        index.build(data, distanceFunction, maxEpsilon);
+
+        ordering = new int[n];
+        reachability = new double[n];
+        coreDistance = new double[n];
+        Arrays.fill(reachability, UNDEFINED);
+        boolean[] processed = new boolean[n];
+        NeighborBuffer neighbors = new NeighborBuffer();
+        double[] distances = new double[16];
+
+        // Seeds ordered by reachability, then index; stale entries are skipped when polled
+        PriorityQueue<double[]> seeds = new PriorityQueue<>((a, b) ->
+                a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]));
+
+        int position = 0;
+        for (int start = 0; start < n; start++) {
+            if (processed[start]) {
+                continue;
+            }
+            seeds.add(new double[]{UNDEFINED, start});
+            while (!seeds.isEmpty()) {
+                double[] entry = seeds.poll();
+                int point = (int) entry[1];
+                if (processed[point] || entry[0] > reachability[point]) {
+                    continue;
+                }
+                processed[point] = true;
+                ordering[position++] = point;
+
+                // Neighbors within the maximum epsilon, excluding the point itself
+                Instance instance = data.instance(point);
+                index.rangeQuery(instance, neighbors);
+                neighbors.remove(point);
+                if (distances.length < neighbors.size()) {
+                    distances = new double[neighbors.size() * 2];
+                }
+                for (int i = 0; i < neighbors.size(); i++) {
+                    distances[i] = distanceFunction.distance(instance, data.instance(neighbors.get(i)));
+                }
+                coreDistance[point] = computeCoreDistance(distances, neighbors.size());
+                if (coreDistance[point] == UNDEFINED) {
+                    continue;
+                }
+
+                for (int i = 0; i < neighbors.size(); i++) {
+                    int neighbor = neighbors.get(i);
+                    if (processed[neighbor]) {
+                        continue;
+                    }
+                    double reach = Math.max(coreDistance[point], distances[i]);
+                    if (reach < reachability[neighbor]) {
+                        reachability[neighbor] = reach;
+                        seeds.add(new double[]{reach, neighbor});
+                    }
+                }
+            }
+        }
+    }
+
+    // Distance to the minPoints-th closest neighbor, or UNDEFINED if there are too few
+    private double computeCoreDistance(double[] distances, int count) {
+        if (count < minPoints || minPoints <= 0) {
+            return minPoints <= 0 ? 0 : UNDEFINED;
+        }
+        double[] sorted = Arrays.copyOf(distances, count);
+        Arrays.sort(sorted);
+        return sorted[minPoints - 1];
+    }
+
+    /**
+     * Extracts the DBSCAN cluster assignments for an epsilon not larger than the maximum:
+     * clusters are numbered from 1 and noise is -1.
+     */
+    public int[] extractDBSCAN(double epsilon) {
+        checkEpsilon(epsilon);
+        int n = ordering.length;
+        int[] assignments = new int[n];
+        int[] firstCore = new int[n + 1]; // First core point of each provisional cluster
+        int provisional = 0;
+        for (int position = 0; position < n; position++) {
+            int point = ordering[position];
+            if (reachability[point] > epsilon) {
+                if (coreDistance[point] <= epsilon) {
+                    provisional++;
+                    firstCore[provisional] = point;
+                    assignments[point] = provisional;
+                } else {
+                    assignments[point] = -1;
+                }
+            } else {
+                assignments[point] = provisional;
+                if (coreDistance[point] <= epsilon) {
+                    firstCore[provisional] = Math.min(firstCore[provisional], point);
+                }
+            }
+        }
+
+        // Renumber clusters in order of their first core point, as DBSCANClusterer does
+        int[] clusterOf = new int[provisional + 1];
+        int numbered = 0;
+        for (int point = 0; point < n; point++) {
+            int cluster = assignments[point];
+            if (cluster > 0 && firstCore[cluster] == point) {
+                clusterOf[cluster] = ++numbered;
+            }
+        }
+        for (int point = 0; point < n; point++) {
+            if (assignments[point] > 0) {
+                assignments[point] = clusterOf[assignments[point]];
+            }
+        }
+        return assignments;
+    }
+
+    /**
+     * Point types for an epsilon not larger than the maximum.
+     */
+    public PointType[] extractPointTypes(double epsilon) {
+        int[] assignments = extractDBSCAN(epsilon);
+        PointType[] types = new PointType[assignments.length];
+        for (int point = 0; point < types.length; point++) {
+            if (coreDistance[point] <= epsilon) {
+                types[point] = PointType.CORE;
+            } else if (assignments[point] > 0) {
+                types[point] = PointType.BORDER;
+            } else {
+                types[point] = PointType.NOISE;
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Number of clusters for an epsilon not larger than the maximum.
+     */
+    public int numberOfClusters(double epsilon) {
+        int clusters = 0;
+        for (int cluster : extractDBSCAN(epsilon)) {
+            clusters = Math.max(clusters, cluster);
+        }
+        return clusters;
+    }
+
+    private void checkEpsilon(double epsilon) {
+        if (ordering == null) {
+            throw new IllegalStateException("The clusterer has not been built yet.");
+        }
+        if (epsilon > maxEpsilon) {
+            throw new IllegalArgumentException("Epsilon cannot exceed the maximum epsilon: " + maxEpsilon);
+        }
+    }
+
+    public int[] getOrdering() {
+        return ordering;
+    }
+
+    public double[] getReachabilityDistances() {
+        return reachability;
+    }
+
+    public double[] getCoreDistances() {
+        return coreDistance;
+    }
+
+    public double getMaxEpsilon() {
+        return maxEpsilon;
+    }
+
+    public int getMinPoints() {
+        return minPoints;
+    }
+
+    public DistanceFunction getDistanceFunction() {
+        return distanceFunction;
+    }
+
+    public void setDistanceFunction(DistanceFunction distanceFunction) {
+        this.distanceFunction = distanceFunction;
+    }
+
+    public IndexType getIndexType() {
+        return indexType;
+    }
+
+    // Any structure but LSH, whose missed neighbors would distort the reachability distances
+    public void setIndexType(IndexType indexType) {
+        if (indexType == IndexType.LSH) {
+            throw new IllegalArgumentException("The LSH index is not supported by OPTICS.");
+        }
+        this.indexType = indexType;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("OPTICS Reachability Ordering\n");
+        sb.append("Maximum epsilon: ").append(maxEpsilon).append("\n");
+        sb.append("Minimum Points: ").append(minPoints).append("\n");
+        if (ordering != null) {
+            sb.append("Order, Instance, Reachability, Core distance:\n");
+            for (int position = 0; position < ordering.length; position++) {
+                int point = ordering[position];
+                sb.append(position).append(": Instance ").append(point)
+                  .append(", ").append(reachability[point])
+                  .append(", ").append(coreDistance[point]).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+}
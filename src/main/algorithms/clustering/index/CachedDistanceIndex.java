@@ -0,0 +1,92 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import main.algorithms.distance.PairwiseDistanceCache;
+
+/**
+ * Brute-force range queries served from the shared pairwise distance cache.
+ *
+ * The matrix of the dataset is fetched, computed in parallel tiles if it is not cached yet,
+ * on the first query by one of the indexed instances, so a run with another epsilon or
+ * minimum number of points on the same data reads the distances instead of computing them.
+ * Queries by other instances (labelling new data) are answered by a linear scan.
+ */
+public class CachedDistanceIndex implements RangeQueryIndex {
+
+    private final PairwiseDistanceCache cache;
+
+    private Instances data;
+    private DistanceFunction distanceFunction;
+    private double epsilon;
+    private Map<Instance, Integer> rows;     // Indexed instances by identity
+    private volatile PairwiseDistanceCache.Matrix matrix;
+    private ThreadLocal<double[]> buffers;
+
+    public CachedDistanceIndex() {
+        this(PairwiseDistanceCache.shared());
+    }
+
+    public CachedDistanceIndex(PairwiseDistanceCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void build(Instances data, DistanceFunction distanceFunction, double epsilon) {
+        this.data = data;
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+        this.matrix = null;
+        rows = new IdentityHashMap<>(data.numInstances());
+        for (int i = 0; i < data.numInstances(); i++) {
+            rows.put(data.instance(i), i);
+        }
+        int n = data.numInstances();
+        buffers = ThreadLocal.withInitial(() -> new double[n]);
+    }
+
+    private PairwiseDistanceCache.Matrix matrix() {
+        PairwiseDistanceCache.Matrix result = matrix;
+        if (result == null) {
+            synchronized (this) {
+                result = matrix;
+                if (result == null) {
+                    try {
+                        result = cache.matrix(data, distanceFunction);
+                        result.prefetch();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Could not compute the distance matrix", e);
+                    }
+                    matrix = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        Integer row = rows.get(query);
+        if (row == null) {
+            for (int i = 0; i < data.numInstances(); i++) {
+                if (distanceFunction.distance(query, data.instance(i)) <= epsilon) {
+                    result.add(i);
+                }
+            }
+            return;
+        }
+        double[] distances = buffers.get();
+        matrix().row(row, distances);
+        for (int i = 0; i < distances.length; i++) {
+            if (distances[i] <= epsilon) {
+                result.add(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package main.algorithms.clustering.index;
+
+import weka.core.Attribute;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+import weka.core.Range;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Projects instances onto the numeric attributes used by a Weka NormalizableDistance,
+ * normalized exactly like the distance function does it. Date attributes are left out, as
+ * NormalizableDistance counts no difference between two dates.
+ *
+ * The distance over the projected coordinates is a lower bound of the real distance
+ * (nominal attributes can only add to it), so spatial indexes use it for pruning and
+ * confirm every candidate with the real distance function.
+ */
+public class CoordinateProjection {
+
+    // Norm used to combine per-attribute gaps into a lower bound
+    public enum Norm {
+        L1, L2, LINF
+    }
+
+    // Relative slack absorbing rounding differences with the distance function
+    private static final double SLACK = 1e-9;
+
+    private final int[] attributes;
+    private final double[] minimums;
+    private final double[] widths;
+    private final boolean normalize;
+    private final Norm norm;
+    private final boolean complete; // Every attribute the distance uses is projected
+    private final boolean dates;    // The distance uses a date attribute
+
+    private CoordinateProjection(int[] attributes, double[] minimums, double[] widths,
+                                 boolean normalize, Norm norm, boolean complete, boolean dates) {
+        this.attributes = attributes;
+        this.minimums = minimums;
+        this.widths = widths;
+        this.normalize = normalize;
+        this.norm = norm;
+        this.complete = complete;
+        this.dates = dates;
+    }
+
+    /**
+     * Creates the projection for a distance function already initialized on the data.
+     */
+    public static CoordinateProjection create(Instances data, NormalizableDistance distance) throws Exception {
+        Range range = new Range(distance.getAttributeIndices());
+        range.setInvert(distance.getInvertSelection());
+        range.setUpper(data.numAttributes() - 1);
+
+        double[][] ranges = distance.getRanges();
+        List<Integer> selected = new ArrayList<>();
+        boolean complete = true;
+        boolean dates = false;
+        for (int i = 0; i < data.numAttributes(); i++) {
+            Attribute attribute = data.attribute(i);
+            if (i != data.classIndex() && range.isInRange(i)) {
+                if (attribute.type() == Attribute.NUMERIC) {
+                    selected.add(i);
+                } else {
+                    // Nominal attributes add to the distance, dates nothing
+                    complete = false;
+                    dates |= attribute.isDate();
+                }
+            }
+        }
+
+        int[] attributes = new int[selected.size()];
+        double[] minimums = new double[attributes.length];
+        double[] widths = new double[attributes.length];
+        for (int j = 0; j < attributes.length; j++) {
+            attributes[j] = selected.get(j);
+            minimums[j] = ranges[attributes[j]][NormalizableDistance.R_MIN];
+            widths[j] = ranges[attributes[j]][NormalizableDistance.R_WIDTH];
+        }
+
+        Norm norm;
+        if (distance instanceof EuclideanDistance) {
+            norm = Norm.L2;
+        } else if (distance instanceof ManhattanDistance) {
+            norm = Norm.L1;
+        } else {
+            norm = Norm.LINF; // Valid lower bound for any Minkowski-type distance
+        }
+        return new CoordinateProjection(attributes, minimums, widths, !distance.getDontNormalize(), norm, complete, dates);
+    }
+
+    public int dimensions() {
+        return attributes.length;
+    }
+
+    public Norm getNorm() {
+        return norm;
+    }
+
+    /**
+     * True when no attribute used by the distance is left out, so that for Euclidean and
+     * Manhattan distances the bound is the distance itself (up to rounding, and as long as
+     * no value is missing).
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * True when the distance uses a date attribute, left out of the projection.
+     */
+    public boolean hasDates() {
+        return dates;
+    }
+
+    public double[] project(Instance instance) {
+        double[] point = new double[attributes.length];
+        project(instance, point, 0);
+        return point;
+    }
+
+    /**
+     * Writes the projected point into the target array from the offset.
+     */
+    public void project(Instance instance, double[] target, int offset) {
+        for (int j = 0; j < attributes.length; j++) {
+            double value = instance.value(attributes[j]);
+            if (normalize) {
+                value = widths[j] == 0 ? 0 : (value - minimums[j]) / widths[j];
+            }
+            target[offset + j] = value;
+        }
+    }
+
+    public double[][] projectAll(Instances data) {
+        double[][] points = new double[data.numInstances()][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = project(data.instance(i));
+        }
+        return points;
+    }
+
+    /**
+     * Pruning threshold for a lower bound expressed in the norm's own units
+     * (squared for L2), slightly widened so rounding never drops a true neighbor.
+     */
+    public double pruningThreshold(double epsilon) {
+        double widened = epsilon * (1 + SLACK) + SLACK;
+        return norm == Norm.L2 ? widened * widened : widened;
+    }
+
+    /**
+     * For a complete projection, threshold at or below which a point is certainly within
+     * epsilon: the counterpart of {@link #pruningThreshold(double)}, narrowed instead of
+     * widened. Negative when epsilon is too small to decide without the distance function.
+     */
+    public double acceptanceThreshold(double epsilon) {
+        double narrowed = epsilon * (1 - SLACK) - SLACK;
+        if (narrowed < 0) {
+            return -1;
+        }
+        return norm == Norm.L2 ? narrowed * narrowed : narrowed;
+    }
+
+    /**
+     * Combines the current bound with a new per-dimension gap, replacing the
+     * previous gap of the same dimension.
+     */
+    public double updateBound(double bound, double oldGap, double newGap) {
+        switch (norm) {
+            case L2:
+                return bound - oldGap * oldGap + newGap * newGap;
+            case L1:
+                return bound - oldGap + newGap;
+            default:
+                return Math.max(bound, newGap);
+        }
+    }
+
+    /**
+     * Lower bound of the distance between two projected points, in the units of
+     * {@link #pruningThreshold(double)}.
+     */
+    public double lowerBound(double[] a, double[] b) {
+        double bound = 0;
+        for (int d = 0; d < a.length; d++) {
+            bound = updateBound(bound, 0, Math.abs(a[d] - b[d]));
+        }
+        return bound;
+    }
+}
@@ -0,0 +1,112 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Epsilon grid that supports inserting and removing points, for incremental clustering.
+ * Points are identified by caller-chosen ids. Distance functions that cannot be
+ * projected fall back to a single cell, i.e. a linear scan.
+ */
+public class DynamicGridIndex {
+
+    private final DistanceFunction distanceFunction;
+    private final double epsilon;
+    private final double cellSize;
+    private final CoordinateProjection projection; // null when no grid applies
+    private final int gridDimensions;
+    private final Map<Long, NeighborBuffer> cells = new HashMap<>();
+    private Instance[] instances = new Instance[16];
+    private double[][] points = new double[16][];
+    private long[] keys = new long[16];
+
+    /**
+     * Creates an empty index. The distance function must already be initialized
+     * with the dataset header and ranges.
+     */
+    public DynamicGridIndex(Instances header, DistanceFunction distanceFunction, double epsilon) throws Exception {
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+        this.cellSize = epsilon * (1 + 1e-9);
+        if (distanceFunction instanceof NormalizableDistance && epsilon > 0) {
+            projection = CoordinateProjection.create(header, (NormalizableDistance) distanceFunction);
+            gridDimensions = Math.min(projection.dimensions(), GridIndex.MAX_GRID_DIMENSIONS);
+        } else {
+            projection = null;
+            gridDimensions = 0;
+        }
+    }
+
+    public void insert(int id, Instance instance) {
+        if (id >= instances.length) {
+            int capacity = Math.max(id + 1, instances.length * 2);
+            instances = Arrays.copyOf(instances, capacity);
+            points = Arrays.copyOf(points, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        instances[id] = instance;
+        points[id] = projection != null ? projection.project(instance) : null;
+        keys[id] = cellKey(points[id], new long[gridDimensions]);
+        cells.computeIfAbsent(keys[id], key -> new NeighborBuffer(4)).add(id);
+    }
+
+    public void remove(int id) {
+        NeighborBuffer members = cells.get(keys[id]);
+        members.remove(id);
+        if (members.size() == 0) {
+            cells.remove(keys[id]);
+        }
+        instances[id] = null;
+        points[id] = null;
+    }
+
+    /**
+     * Fills the buffer with the ids of the indexed points within epsilon of the query.
+     */
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        double[] point = projection != null ? projection.project(query) : null;
+        double threshold = projection != null ? projection.pruningThreshold(epsilon) : 0;
+
+        long[] cell = new long[gridDimensions];
+        cellKey(point, cell);
+
+        // Visit the 3^d surrounding cells
+        int combinations = 1;
+        for (int d = 0; d < gridDimensions; d++) {
+            combinations *= 3;
+        }
+        long[] offsetCell = new long[gridDimensions];
+        for (int c = 0; c < combinations; c++) {
+            int code = c;
+            for (int d = 0; d < gridDimensions; d++) {
+                offsetCell[d] = cell[d] + (code % 3) - 1;
+                code /= 3;
+            }
+            NeighborBuffer members = cells.get(GridIndex.packKey(offsetCell));
+            if (members == null) {
+                continue;
+            }
+            for (int i = 0; i < members.size(); i++) {
+                int id = members.get(i);
+                if ((projection == null || projection.lowerBound(point, points[id]) <= threshold)
+                        && distanceFunction.distance(query, instances[id]) <= epsilon) {
+                    result.add(id);
+                }
+            }
+        }
+    }
+
+    private long cellKey(double[] point, long[] cell) {
+        for (int d = 0; d < gridDimensions; d++) {
+            cell[d] = (long) Math.floor(point[d] / cellSize);
+        }
+        return GridIndex.packKey(cell);
+    }
+}
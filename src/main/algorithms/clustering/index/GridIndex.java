@@ -0,0 +1,111 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid with epsilon-sized cells over the first (up to three) projected
+ * attributes. A range query only inspects the 3^d cells around the query, which
+ * makes it the best choice for low-dimensional data such as points.arff.
+ */
+public class GridIndex implements RangeQueryIndex {
+
+    public static final int MAX_GRID_DIMENSIONS = 3;
+
+    // Bits reserved per dimension in a packed cell key; wrapping only merges far away
+    // cells into the same bucket, which is harmless since every candidate is verified
+    private static final int BITS_PER_DIMENSION = 21;
+    private static final long DIMENSION_MASK = (1L << BITS_PER_DIMENSION) - 1;
+
+    private Instances data;
+    private DistanceFunction distanceFunction;
+    private double epsilon;
+    private double cellSize;
+    private CoordinateProjection projection;
+    private double[][] points;
+    private int gridDimensions;
+    private Map<Long, int[]> cells;
+
+    @Override
+    public void build(Instances data, DistanceFunction distanceFunction, double epsilon) throws Exception {
+        if (!(distanceFunction instanceof NormalizableDistance)) {
+            throw new IllegalArgumentException("Grid index requires a normalizable distance function.");
+        }
+        if (epsilon <= 0) {
+            throw new IllegalArgumentException("Grid index requires a positive epsilon.");
+        }
+        this.data = data;
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+        this.cellSize = epsilon * (1 + 1e-9); // Keeps rounding from pushing a neighbor two cells away
+        this.projection = CoordinateProjection.create(data, (NormalizableDistance) distanceFunction);
+        this.points = projection.projectAll(data);
+        this.gridDimensions = Math.min(projection.dimensions(), MAX_GRID_DIMENSIONS);
+
+        // Group instances by cell
+        Map<Long, NeighborBuffer> buckets = new HashMap<>();
+        long[] cell = new long[gridDimensions];
+        for (int i = 0; i < points.length; i++) {
+            buckets.computeIfAbsent(cellKey(points[i], cell), key -> new NeighborBuffer(4)).add(i);
+        }
+        cells = new HashMap<>(buckets.size() * 2);
+        for (Map.Entry<Long, NeighborBuffer> entry : buckets.entrySet()) {
+            cells.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    @Override
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        double[] point = projection.project(query);
+        double threshold = projection.pruningThreshold(epsilon);
+
+        long[] cell = new long[gridDimensions];
+        cellKey(point, cell);
+
+        // Visit the 3^d surrounding cells
+        int combinations = 1;
+        for (int d = 0; d < gridDimensions; d++) {
+            combinations *= 3;
+        }
+        long[] offsetCell = new long[gridDimensions];
+        for (int c = 0; c < combinations; c++) {
+            int code = c;
+            for (int d = 0; d < gridDimensions; d++) {
+                offsetCell[d] = cell[d] + (code % 3) - 1;
+                code /= 3;
+            }
+            int[] members = cells.get(packKey(offsetCell));
+            if (members == null) {
+                continue;
+            }
+            for (int index : members) {
+                if (projection.lowerBound(point, points[index]) <= threshold
+                        && distanceFunction.distance(query, data.instance(index)) <= epsilon) {
+                    result.add(index);
+                }
+            }
+        }
+    }
+
+    // Computes the cell coordinates of the point into the buffer and returns its key
+    private long cellKey(double[] point, long[] cell) {
+        for (int d = 0; d < gridDimensions; d++) {
+            cell[d] = (long) Math.floor(point[d] / cellSize);
+        }
+        return packKey(cell);
+    }
+
+    static long packKey(long[] cell) {
+        long key = 0;
+        for (int d = 0; d < cell.length; d++) {
+            key = (key << BITS_PER_DIMENSION) | (cell[d] & DIMENSION_MASK);
+        }
+        return key;
+    }
+}
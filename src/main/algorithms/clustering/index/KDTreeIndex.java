@@ -0,0 +1,156 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+/**
+ * KD-tree over the projected numeric attributes, for data with too many dimensions
+ * for a grid. Subtrees whose bounding region is farther than epsilon from the query
+ * are skipped; the remaining candidates are confirmed with the real distance.
+ */
+public class KDTreeIndex implements RangeQueryIndex {
+
+    private static final int LEAF_SIZE = 16;
+
+    private Instances data;
+    private DistanceFunction distanceFunction;
+    private double epsilon;
+    private CoordinateProjection projection;
+    private double[][] points;
+    private int[] order; // Instance indices, reordered so every node covers a contiguous slice
+    private Node root;
+
+    private static class Node {
+        int start;
+        int end;
+        int splitDimension = -1;
+        double splitValue;
+        Node left;
+        Node right;
+    }
+
+    @Override
+    public void build(Instances data, DistanceFunction distanceFunction, double epsilon) throws Exception {
+        if (!(distanceFunction instanceof NormalizableDistance)) {
+            throw new IllegalArgumentException("KD-tree index requires a normalizable distance function.");
+        }
+        this.data = data;
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+        this.projection = CoordinateProjection.create(data, (NormalizableDistance) distanceFunction);
+        this.points = projection.projectAll(data);
+
+        order = new int[points.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        root = buildNode(0, order.length);
+    }
+
+    private Node buildNode(int start, int end) {
+        Node node = new Node();
+        node.start = start;
+        node.end = end;
+        if (end - start <= LEAF_SIZE || projection.dimensions() == 0) {
+            return node;
+        }
+
+        // Split on the dimension with the largest spread
+        int bestDimension = 0;
+        double bestSpread = -1;
+        for (int d = 0; d < projection.dimensions(); d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                double value = points[order[i]][d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                bestDimension = d;
+            }
+        }
+        if (bestSpread <= 0) {
+            return node; // All points coincide
+        }
+
+        int middle = (start + end) >>> 1;
+        select(start, end - 1, middle, bestDimension);
+        node.splitDimension = bestDimension;
+        node.splitValue = points[order[middle]][bestDimension];
+        node.left = buildNode(start, middle);
+        node.right = buildNode(middle, end);
+        return node;
+    }
+
+    // Quickselect: places the k-th smallest value of the dimension at position k
+    private void select(int low, int high, int k, int dimension) {
+        while (low < high) {
+            double pivot = points[order[(low + high) >>> 1]][dimension];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (points[order[i]][dimension] < pivot) {
+                    i++;
+                }
+                while (points[order[j]][dimension] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        double[] point = projection.project(query);
+        search(root, query, point, new double[projection.dimensions()], 0,
+               projection.pruningThreshold(epsilon), result);
+    }
+
+    private void search(Node node, Instance query, double[] point, double[] gaps, double bound,
+                        double threshold, NeighborBuffer result) {
+        if (node.splitDimension < 0) {
+            for (int i = node.start; i < node.end; i++) {
+                int index = order[i];
+                if (distanceFunction.distance(query, data.instance(index)) <= epsilon) {
+                    result.add(index);
+                }
+            }
+            return;
+        }
+
+        int d = node.splitDimension;
+        double difference = point[d] - node.splitValue;
+        Node near = difference < 0 ? node.left : node.right;
+        Node far = difference < 0 ? node.right : node.left;
+        search(near, query, point, gaps, bound, threshold, result);
+
+        // The far side lies at least |difference| away along the split dimension
+        double oldGap = gaps[d];
+        double newGap = Math.max(oldGap, Math.abs(difference));
+        double farBound = projection.updateBound(bound, oldGap, newGap);
+        if (farBound <= threshold) {
+            gaps[d] = newGap;
+            search(far, query, point, gaps, farBound, threshold, result);
+            gaps[d] = oldGap;
+        }
+    }
+}
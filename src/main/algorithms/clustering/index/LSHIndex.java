@@ -0,0 +1,173 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate range queries with random-projection locality-sensitive hashing, for wide data
+ * where tree indexes degrade to a linear scan.
+ *
+ * Each table hashes the projected points with {@code numHashes} functions
+ * floor((a.x + b) / w), where a is Gaussian for Euclidean distances and Cauchy for Manhattan
+ * ones and w is {@code widthFactor} times epsilon. A query only compares itself with the points
+ * sharing a bucket in at least one table. Every candidate is confirmed with the real distance,
+ * so there are no false neighbors, but a true neighbor can be missed: more tables raise the
+ * recall, more hash functions per table make buckets smaller and queries faster.
+ */
+public class LSHIndex implements RangeQueryIndex {
+
+    private final int numTables;
+    private final int numHashes;
+    private final double widthFactor;
+    private final long seed;
+
+    private Instances data;
+    private DistanceFunction distanceFunction;
+    private double epsilon;
+    private CoordinateProjection projection;
+    private double[][][] directions; // [table][hash][dimension]
+    private double[][] offsets;      // [table][hash]
+    private double width;
+    private List<Map<Long, int[]>> tables;
+    private ThreadLocal<QueryState> states;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder distanceComputations = new LongAdder();
+
+    // Marks the candidates already checked by the current query of a thread
+    private static class QueryState {
+        int[] stamps;
+        int generation;
+    }
+
+    public LSHIndex(int numTables, int numHashes, double widthFactor, long seed) {
+        this.numTables = numTables;
+        this.numHashes = numHashes;
+        this.widthFactor = widthFactor;
+        this.seed = seed;
+    }
+
+    @Override
+    public void build(Instances data, DistanceFunction distanceFunction, double epsilon) throws Exception {
+        if (!(distanceFunction instanceof NormalizableDistance)) {
+            throw new IllegalArgumentException("LSH index requires a normalizable distance function.");
+        }
+        if (epsilon <= 0) {
+            throw new IllegalArgumentException("LSH index requires a positive epsilon.");
+        }
+        this.data = data;
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+        this.projection = CoordinateProjection.create(data, (NormalizableDistance) distanceFunction);
+        this.width = widthFactor * epsilon;
+
+        // Draw the hash functions
+        Random random = new Random(seed);
+        int dimensions = projection.dimensions();
+        directions = new double[numTables][numHashes][dimensions];
+        offsets = new double[numTables][numHashes];
+        for (int t = 0; t < numTables; t++) {
+            for (int h = 0; h < numHashes; h++) {
+                for (int d = 0; d < dimensions; d++) {
+                    directions[t][h][d] = projection.getNorm() == CoordinateProjection.Norm.L1
+                            ? Math.tan(Math.PI * (random.nextDouble() - 0.5)) // Cauchy
+                            : random.nextGaussian();
+                }
+                offsets[t][h] = random.nextDouble() * width;
+            }
+        }
+
+        // Fill the tables
+        double[][] points = projection.projectAll(data);
+        tables = new ArrayList<>(numTables);
+        for (int t = 0; t < numTables; t++) {
+            Map<Long, NeighborBuffer> buckets = new HashMap<>();
+            for (int i = 0; i < points.length; i++) {
+                buckets.computeIfAbsent(bucketKey(t, points[i]), key -> new NeighborBuffer(4)).add(i);
+            }
+            Map<Long, int[]> table = new HashMap<>(buckets.size() * 2);
+            for (Map.Entry<Long, NeighborBuffer> entry : buckets.entrySet()) {
+                table.put(entry.getKey(), entry.getValue().toArray());
+            }
+            tables.add(table);
+        }
+
+        int n = data.numInstances();
+        states = ThreadLocal.withInitial(() -> {
+            QueryState state = new QueryState();
+            state.stamps = new int[n];
+            return state;
+        });
+        queries.reset();
+        distanceComputations.reset();
+    }
+
+    private long bucketKey(int table, double[] point) {
+        long key = 1;
+        for (int h = 0; h < numHashes; h++) {
+            double dot = offsets[table][h];
+            double[] direction = directions[table][h];
+            for (int d = 0; d < point.length; d++) {
+                dot += direction[d] * point[d];
+            }
+            key = key * 1000003L + (long) Math.floor(dot / width);
+        }
+        return key;
+    }
+
+    @Override
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        double[] point = projection.project(query);
+        QueryState state = states.get();
+        if (++state.generation == 0) {
+            Arrays.fill(state.stamps, 0); // Generation counter wrapped around
+            state.generation = 1;
+        }
+
+        long computed = 0;
+        for (int t = 0; t < numTables; t++) {
+            int[] members = tables.get(t).get(bucketKey(t, point));
+            if (members == null) {
+                continue;
+            }
+            for (int index : members) {
+                if (state.stamps[index] == state.generation) {
+                    continue;
+                }
+                state.stamps[index] = state.generation;
+                computed++;
+                if (distanceFunction.distance(query, data.instance(index)) <= epsilon) {
+                    result.add(index);
+                }
+            }
+        }
+        queries.increment();
+        distanceComputations.add(computed);
+    }
+
+    /**
+     * Number of exact distances computed since the index was built.
+     */
+    public long getDistanceComputations() {
+        return distanceComputations.sum();
+    }
+
+    /**
+     * Number of exact distances a linear scan would have computed for the same queries
+     * but this index skipped.
+     */
+    public long getDistanceComputationsSaved() {
+        return queries.sum() * data.numInstances() - distanceComputations.sum();
+    }
+}
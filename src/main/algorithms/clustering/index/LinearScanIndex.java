@@ -0,0 +1,33 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Brute-force range queries: compares the query against every instance.
+ * Used as a fallback when no spatial index applies to the distance function.
+ */
+public class LinearScanIndex implements RangeQueryIndex {
+
+    private Instances data;
+    private DistanceFunction distanceFunction;
+    private double epsilon;
+
+    @Override
+    public void build(Instances data, DistanceFunction distanceFunction, double epsilon) {
+        this.data = data;
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (distanceFunction.distance(query, data.instance(i)) <= epsilon) {
+                result.add(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package main.algorithms.clustering.index;
+
+import java.util.Arrays;
+
+/**
+ * Growable int buffer receiving the results of a range query.
+ * Meant to be reused across queries so that searching does not allocate.
+ */
+public class NeighborBuffer {
+
+    private int[] values;
+    private int size;
+
+    public NeighborBuffer() {
+        this(16);
+    }
+
+    public NeighborBuffer(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int position) {
+        return values[position];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes one occurrence of the value, without preserving the order of the others.
+     */
+    public boolean remove(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                values[i] = values[--size];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
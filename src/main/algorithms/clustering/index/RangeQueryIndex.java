@@ -0,0 +1,24 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Epsilon range-query index used by DBSCAN to find the neighbors of a point.
+ */
+public interface RangeQueryIndex {
+
+    /**
+     * Builds the index over the dataset. The distance function must already be
+     * initialized with the same dataset.
+     */
+    void build(Instances data, DistanceFunction distanceFunction, double epsilon) throws Exception;
+
+    /**
+     * Fills the buffer with the indices of all instances whose distance to the query is
+     * at most epsilon, in no particular order. The query itself is included when it
+     * belongs to the indexed dataset. Implementations are safe for concurrent queries.
+     */
+    void rangeQuery(Instance query, NeighborBuffer result);
+}
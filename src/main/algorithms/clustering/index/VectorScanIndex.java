@@ -0,0 +1,93 @@
+package main.algorithms.clustering.index;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+
+import main.algorithms.distance.DistanceKernels;
+
+/**
+ * Brute-force range queries over a flat block of projected coordinates, with the distances
+ * of a query to all points computed by the SIMD kernels.
+ *
+ * When the projection covers every attribute of the distance, a point well inside epsilon is
+ * accepted and one well outside rejected on the kernel distance alone; only the points within
+ * rounding of epsilon, or with missing values, are checked with the distance function. With
+ * nominal attributes the kernel distance is only a lower bound, so it prunes and every
+ * remaining candidate is confirmed. Either way the neighbors are exactly those of a linear
+ * scan.
+ */
+public class VectorScanIndex implements RangeQueryIndex {
+
+    private final DistanceKernels kernels;
+
+    private Instances data;
+    private DistanceFunction distanceFunction;
+    private double epsilon;
+    private DistanceKernels.Metric metric;
+    private CoordinateProjection projection;
+    private int dimensions;
+    private double[] block;         // Projected points, row-major
+    private double acceptBelow;     // Kernel distances certainly within epsilon
+    private double rejectAbove;     // Kernel distances certainly beyond epsilon
+    private ThreadLocal<double[][]> buffers; // Query point and its distances, per thread
+
+    public VectorScanIndex() {
+        this(DistanceKernels.get());
+    }
+
+    public VectorScanIndex(DistanceKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    @Override
+    public void build(Instances data, DistanceFunction distanceFunction, double epsilon) throws Exception {
+        if (!(distanceFunction instanceof NormalizableDistance)) {
+            throw new IllegalArgumentException("Vector scan requires a normalizable distance function.");
+        }
+        this.data = data;
+        this.distanceFunction = distanceFunction;
+        this.epsilon = epsilon;
+        this.projection = CoordinateProjection.create(data, (NormalizableDistance) distanceFunction);
+        switch (projection.getNorm()) {
+            case L2:
+                metric = DistanceKernels.Metric.SQUARED_EUCLIDEAN;
+                break;
+            case L1:
+                metric = DistanceKernels.Metric.MANHATTAN;
+                break;
+            default:
+                throw new IllegalArgumentException("Vector scan requires a Euclidean or Manhattan distance function.");
+        }
+        dimensions = projection.dimensions();
+        rejectAbove = projection.pruningThreshold(epsilon);
+        acceptBelow = projection.isComplete() ? projection.acceptanceThreshold(epsilon) : -1;
+
+        int n = data.numInstances();
+        block = new double[n * dimensions];
+        for (int i = 0; i < n; i++) {
+            projection.project(data.instance(i), block, i * dimensions);
+        }
+        buffers = ThreadLocal.withInitial(() -> new double[][] {new double[dimensions], new double[n]});
+    }
+
+    @Override
+    public void rangeQuery(Instance query, NeighborBuffer result) {
+        result.clear();
+        double[][] buffer = buffers.get();
+        double[] point = buffer[0];
+        double[] distances = buffer[1];
+        projection.project(query, point, 0);
+        kernels.oneToMany(metric, point, 0, block, data.numInstances(), dimensions, distances);
+        for (int i = 0; i < distances.length; i++) {
+            double distance = distances[i];
+            if (distance <= acceptBelow) {
+                result.add(i);
+            } else if ((distance <= rejectAbove || Double.isNaN(distance))
+                    && distanceFunction.distance(query, data.instance(i)) <= epsilon) {
+                result.add(i);
+            }
+        }
+    }
+}
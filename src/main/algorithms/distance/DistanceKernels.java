@@ -0,0 +1,98 @@
+package main.algorithms.distance;
+
+/**
+ * Euclidean and Manhattan distance kernels over pre-normalized coordinate blocks.
+ *
+ * Points are rows of a flat row-major array ({@code length} values each, read from an
+ * offset), in double or float precision. Euclidean distances are returned squared, like the
+ * running sums of Weka's distance functions; the caller takes the square root when it needs
+ * one. Besides single distances, a kernel computes a query against every row of a block
+ * (one-to-many) and every row of a block against every row of another (many-to-many).
+ *
+ * {@link #get()} returns the SIMD kernels of the jdk.incubator.vector module when the JVM
+ * was started with {@code --add-modules jdk.incubator.vector}, and the scalar ones otherwise
+ * or when the system property {@code smartweka.vector} is false. Vector lanes sum in a
+ * different order than a scalar loop, so their results may differ from Weka's in the last
+ * bits.
+ */
+public abstract class DistanceKernels {
+
+    public enum Metric {
+        SQUARED_EUCLIDEAN,
+        MANHATTAN
+    }
+
+    private static final DistanceKernels SCALAR = new ScalarDistanceKernels();
+    private static final DistanceKernels BEST = loadBest();
+
+    private static DistanceKernels loadBest() {
+        if (!Boolean.parseBoolean(System.getProperty("smartweka.vector", "true"))) {
+            return SCALAR;
+        }
+        try {
+            return new VectorDistanceKernels();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return SCALAR; // Module not resolved, or no vector unit worth using
+        }
+    }
+
+    /**
+     * Fastest kernels available in this JVM.
+     */
+    public static DistanceKernels get() {
+        return BEST;
+    }
+
+    /**
+     * Plain loops, summing in attribute order like Weka.
+     */
+    public static DistanceKernels scalar() {
+        return SCALAR;
+    }
+
+    public abstract boolean isVectorized();
+
+    public abstract double distance(Metric metric, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    public abstract float distance(Metric metric, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * Distances from the query to each of the {@code count} rows of the block, into
+     * {@code out[0 .. count - 1]}.
+     */
+    public void oneToMany(Metric metric, double[] query, int queryOffset, double[] block, int count, int length,
+                          double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = distance(metric, query, queryOffset, block, i * length, length);
+        }
+    }
+
+    public void oneToMany(Metric metric, float[] query, int queryOffset, float[] block, int count, int length,
+                          float[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = distance(metric, query, queryOffset, block, i * length, length);
+        }
+    }
+
+    /**
+     * Distances between every row of {@code a} and every row of {@code b}, into
+     * {@code out[i * countB + j]}.
+     */
+    public void manyToMany(Metric metric, double[] a, int countA, double[] b, int countB, int length,
+                           double[] out) {
+        for (int i = 0; i < countA; i++) {
+            for (int j = 0; j < countB; j++) {
+                out[i * countB + j] = distance(metric, a, i * length, b, j * length, length);
+            }
+        }
+    }
+
+    public void manyToMany(Metric metric, float[] a, int countA, float[] b, int countB, int length,
+                           float[] out) {
+        for (int i = 0; i < countA; i++) {
+            for (int j = 0; j < countB; j++) {
+                out[i * countB + j] = distance(metric, a, i * length, b, j * length, length);
+            }
+        }
+    }
+}
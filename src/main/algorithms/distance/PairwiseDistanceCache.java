@@ -0,0 +1,486 @@
+package main.algorithms.distance;
+
+import weka.core.Attribute;
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Pairwise distances shared by the algorithms of a session, so that running DBSCAN, CAH or
+ * KNN again on the same data with other parameters skips the distance computations.
+ *
+ * Distances are keyed by a fingerprint of the dataset (header, class index and every value),
+ * the distance function with its options, and the ranges it normalizes with; any change in
+ * one of them gives other distances. Two kinds of blocks are kept:
+ * <ul>
+ * <li>{@link Matrix}: the symmetric matrix of a dataset, in square tiles of
+ * {@value #TILE_SIZE} x {@value #TILE_SIZE} distances above the diagonal, computed tile by
+ * tile so that both blocks of instances stay in cache, and all at once in parallel when the
+ * whole matrix fits in the budget;</li>
+ * <li>{@link Rows}: the distances of query instances to every instance of a reference
+ * dataset, one row per query, keyed by the query's values.</li>
+ * </ul>
+ * Blocks are kept under a memory budget and the least recently used ones are evicted first;
+ * an evicted block is computed again when needed, so the budget only limits the reuse. A
+ * matrix larger than the whole budget is not cached at all: its rows are computed directly,
+ * rather than tiles evicting each other.
+ *
+ * Lookups take no lock, so threads sharing the cache do not wait on each other. Tiles are
+ * keyed by a long made of a dataset number and the tile position, and a matrix keeps the
+ * tiles it has resolved, so reading a distance neither allocates a key nor goes through the
+ * cache once the tile is known.
+ *
+ * The values are those of the distance function, computed by it; a handle must only be used
+ * while its distance function keeps the ranges it was created with.
+ */
+public class PairwiseDistanceCache {
+
+    public static final int TILE_SIZE = 256;
+    private static final long ENTRY_OVERHEAD = 64; // Key and map entry of a block, roughly
+    private static final double LOW_WATER = 0.9;   // Share of the budget eviction goes down to
+    private static final int TILE_BITS = 40;       // Low bits of a tile key: the tile position
+
+    private static final PairwiseDistanceCache SHARED = new PairwiseDistanceCache(Runtime.getRuntime().maxMemory() / 4);
+
+    private final ConcurrentHashMap<Object, Block> blocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<DatasetKey, Long> datasets = new ConcurrentHashMap<>();
+    private final AtomicLong nextDataset = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile long budget;        // Bytes
+    private volatile int numThreads;     // 1 = sequential, 0 = all available cores
+
+    // Cached distances with the time they were last read
+    private static final class Block {
+        final double[] values;
+        volatile long lastUsed;
+
+        Block(double[] values) {
+            this.values = values;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+
+    public PairwiseDistanceCache(long budget) {
+        this.budget = budget;
+        this.numThreads = 0;
+    }
+
+    /**
+     * Cache shared by all algorithms, with a quarter of the maximum heap as budget.
+     */
+    public static PairwiseDistanceCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Symmetric distance matrix of the dataset, with distance(a, b) of the function, which
+     * must already be initialized.
+     */
+    public Matrix matrix(Instances data, DistanceFunction distanceFunction) throws Exception {
+        return new Matrix(data, distanceFunction, dataset(new DatasetKey(data, distanceFunction, false)));
+    }
+
+    /**
+     * Distances of queries to every instance of the reference dataset, with
+     * distance(query, b, +infinity, null) of the function: for Euclidean distance, the
+     * squared distance nearest-neighbor searches compare.
+     */
+    public Rows rows(Instances reference, DistanceFunction distanceFunction) throws Exception {
+        return new Rows(reference, distanceFunction, dataset(new DatasetKey(reference, distanceFunction, true)));
+    }
+
+    // Number of the dataset, never reused, so that its blocks can be keyed by primitives
+    private long dataset(DatasetKey key) {
+        return datasets.computeIfAbsent(key, k -> nextDataset.getAndIncrement());
+    }
+
+    private double[] lookup(Object key) {
+        Block block = blocks.get(key);
+        if (block == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        block.lastUsed = System.nanoTime();
+        return block.values;
+    }
+
+    private void store(Object key, double[] values) {
+        long bytes = bytes(values.length);
+        if (bytes > budget) {
+            return;
+        }
+        Block previous = blocks.put(key, new Block(values));
+        if (previous != null) {
+            usedBytes.addAndGet(-bytes(previous.values.length));
+        }
+        if (usedBytes.addAndGet(bytes) > budget) {
+            evict();
+        }
+    }
+
+    private static long bytes(int values) {
+        return 8L * values + ENTRY_OVERHEAD;
+    }
+
+    // Drops the least recently used blocks down to the low-water mark, so that a full cache
+    // does not sort its blocks on every store
+    private synchronized void evict() {
+        if (usedBytes.get() <= budget) {
+            return;
+        }
+        List<Map.Entry<Object, Block>> entries = new ArrayList<>(blocks.entrySet());
+        entries.sort((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed));
+        long target = (long) (budget * LOW_WATER);
+        for (Map.Entry<Object, Block> entry : entries) {
+            if (usedBytes.get() <= target) {
+                break;
+            }
+            if (blocks.remove(entry.getKey(), entry.getValue())) {
+                usedBytes.addAndGet(-bytes(entry.getValue().values.length));
+            }
+        }
+    }
+
+    public void clear() {
+        for (Map.Entry<Object, Block> entry : blocks.entrySet()) {
+            if (blocks.remove(entry.getKey(), entry.getValue())) {
+                usedBytes.addAndGet(-bytes(entry.getValue().values.length));
+            }
+        }
+        datasets.clear();
+    }
+
+    // Getters and setters
+    public long getBudget() {
+        return budget;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    // Threads computing the tiles of a whole matrix: 1 = sequential, 0 = all available cores
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Distance matrix of one dataset; rows and columns are instance indices.
+     */
+    public final class Matrix {
+
+        private final Instances data;
+        private final DistanceFunction distanceFunction;
+        private final long dataset;
+        private final int n;
+        private final int numTiles;
+        private final boolean cached;   // The whole matrix fits in the budget
+        private final AtomicReferenceArray<double[]> resolved; // Tiles already found, row-major
+
+        private Matrix(Instances data, DistanceFunction distanceFunction, long dataset) {
+            this.data = data;
+            this.distanceFunction = distanceFunction;
+            this.dataset = dataset;
+            this.n = data.numInstances();
+            this.numTiles = (n + TILE_SIZE - 1) / TILE_SIZE;
+            long values = (long) n * n / 2 + (long) n * TILE_SIZE;
+            long tiles = (long) numTiles * (numTiles + 1) / 2;
+            this.cached = 8 * values + ENTRY_OVERHEAD * tiles <= getBudget()
+                    && (long) numTiles * numTiles <= Integer.MAX_VALUE;
+            this.resolved = cached ? new AtomicReferenceArray<>(numTiles * numTiles) : null;
+        }
+
+        public int size() {
+            return n;
+        }
+
+        public boolean isCached() {
+            return cached;
+        }
+
+        public double distance(int i, int j) {
+            if (!cached) {
+                return distanceFunction.distance(data.instance(Math.min(i, j)), data.instance(Math.max(i, j)));
+            }
+            if (i > j) {
+                int swap = i;
+                i = j;
+                j = swap;
+            }
+            int row = i / TILE_SIZE;
+            int column = j / TILE_SIZE;
+            return tile(row, column)[(i - row * TILE_SIZE) * width(column) + j - column * TILE_SIZE];
+        }
+
+        /**
+         * Distances from instance i to every instance, into {@code out[0 .. n - 1]}.
+         */
+        public void row(int i, double[] out) {
+            if (!cached) {
+                Instance query = data.instance(i);
+                for (int j = 0; j < n; j++) {
+                    out[j] = j < i ? distanceFunction.distance(data.instance(j), query)
+                            : distanceFunction.distance(query, data.instance(j));
+                }
+                return;
+            }
+            int row = i / TILE_SIZE;
+            int offset = i - row * TILE_SIZE;
+            for (int column = 0; column < numTiles; column++) {
+                int first = column * TILE_SIZE;
+                int width = width(column);
+                double[] tile;
+                if (row <= column) {
+                    tile = tile(row, column);
+                    System.arraycopy(tile, offset * width, out, first, width);
+                } else {
+                    // Below the diagonal: column `offset` of the transposed tile
+                    tile = tile(column, row);
+                    int stride = width(row);
+                    for (int j = 0; j < width; j++) {
+                        out[first + j] = tile[j * stride + offset];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Computes the missing tiles in parallel, if the matrix is cached.
+         */
+        public void prefetch() throws Exception {
+            if (!cached) {
+                return;
+            }
+            List<int[]> missing = new ArrayList<>();
+            for (int row = 0; row < numTiles; row++) {
+                for (int column = row; column < numTiles; column++) {
+                    if (resolved.get(row * numTiles + column) == null && lookup(tileKey(row, column)) == null) {
+                        missing.add(new int[]{row, column});
+                    }
+                }
+            }
+            int threads = getNumThreads();
+            if (threads == 1 || missing.size() < 2) {
+                for (int[] tile : missing) {
+                    tile(tile[0], tile[1]);
+                }
+                return;
+            }
+            ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+            try {
+                pool.submit(() -> IntStream.range(0, missing.size()).parallel()
+                        .forEach(t -> tile(missing.get(t)[0], missing.get(t)[1]))).get();
+            } finally {
+                if (pool != ForkJoinPool.commonPool()) {
+                    pool.shutdown();
+                }
+            }
+        }
+
+        private int width(int tile) {
+            return Math.min(TILE_SIZE, n - tile * TILE_SIZE);
+        }
+
+        private long tileKey(int row, int column) {
+            return dataset << TILE_BITS | (long) row * numTiles + column;
+        }
+
+        // Tile of rows `row` and columns `column`, row <= column
+        private double[] tile(int row, int column) {
+            int position = row * numTiles + column;
+            double[] tile = resolved.get(position);
+            if (tile != null) {
+                return tile;
+            }
+            Long tileKey = tileKey(row, column);
+            tile = lookup(tileKey);
+            if (tile != null) {
+                resolved.set(position, tile);
+                return tile;
+            }
+            int firstRow = row * TILE_SIZE;
+            int firstColumn = column * TILE_SIZE;
+            int height = width(row);
+            int width = width(column);
+            tile = new double[height * width];
+            for (int i = 0; i < height; i++) {
+                Instance first = data.instance(firstRow + i);
+                for (int j = 0; j < width; j++) {
+                    tile[i * width + j] = distanceFunction.distance(first, data.instance(firstColumn + j));
+                }
+            }
+            store(tileKey, tile);
+            resolved.set(position, tile);
+            return tile;
+        }
+    }
+
+    /**
+     * Distances of query instances to a reference dataset.
+     */
+    public final class Rows {
+
+        private final Instances reference;
+        private final DistanceFunction distanceFunction;
+        private final long dataset;
+
+        private Rows(Instances reference, DistanceFunction distanceFunction, long dataset) {
+            this.reference = reference;
+            this.distanceFunction = distanceFunction;
+            this.dataset = dataset;
+        }
+
+        /**
+         * Distances from the query to every reference instance, in reference order. The array
+         * is shared with the cache and must not be modified.
+         */
+        public double[] row(Instance query) {
+            RowKey rowKey = new RowKey(dataset, query.toDoubleArray());
+            double[] row = lookup(rowKey);
+            if (row != null) {
+                return row;
+            }
+            row = new double[reference.numInstances()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = distanceFunction.distance(query, reference.instance(i), Double.POSITIVE_INFINITY, null);
+            }
+            store(rowKey, row);
+            return row;
+        }
+    }
+
+    // Everything the distances of a dataset depend on
+    private static final class DatasetKey {
+
+        private final long fingerprint;
+        private final int numInstances;
+        private final String function;
+        private final double[][] ranges;
+        private final boolean raw;   // distance(a, b, +infinity, null) instead of distance(a, b)
+        private final int hash;
+
+        DatasetKey(Instances data, DistanceFunction distanceFunction, boolean raw) throws Exception {
+            this.fingerprint = fingerprint(data);
+            this.numInstances = data.numInstances();
+            String options = distanceFunction instanceof OptionHandler
+                    ? Utils.joinOptions(((OptionHandler) distanceFunction).getOptions()) : "";
+            this.function = distanceFunction.getClass().getName() + " " + options;
+            double[][] ranges = null;
+            if (distanceFunction instanceof NormalizableDistance
+                    && !((NormalizableDistance) distanceFunction).getDontNormalize()) {
+                double[][] current = ((NormalizableDistance) distanceFunction).getRanges();
+                ranges = new double[current.length][];
+                for (int j = 0; j < current.length; j++) {
+                    ranges[j] = current[j].clone();
+                }
+            }
+            this.ranges = ranges;
+            this.raw = raw;
+            this.hash = ((Long.hashCode(fingerprint) * 31 + numInstances) * 31 + function.hashCode()) * 31
+                    + Arrays.deepHashCode(ranges) * 2 + (raw ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof DatasetKey)) {
+                return false;
+            }
+            DatasetKey key = (DatasetKey) other;
+            return fingerprint == key.fingerprint && numInstances == key.numInstances && raw == key.raw
+                    && function.equals(key.function) && Arrays.deepEquals(ranges, key.ranges);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class RowKey {
+
+        private final long dataset;
+        private final double[] query;
+
+        RowKey(long dataset, double[] query) {
+            this.dataset = dataset;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof RowKey)) {
+                return false;
+            }
+            RowKey key = (RowKey) other;
+            return dataset == key.dataset && Arrays.equals(query, key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(dataset) * 31 + Arrays.hashCode(query);
+        }
+    }
+
+    /**
+     * 64-bit hash of the header, the class index and every value of the dataset.
+     */
+    public static long fingerprint(Instances data) {
+        long hash = mix(data.numAttributes() * 31L + data.classIndex());
+        for (int j = 0; j < data.numAttributes(); j++) {
+            Attribute attribute = data.attribute(j);
+            hash = mix(hash ^ attribute.name().hashCode() * 31L ^ attribute.type());
+            for (int v = 0; v < attribute.numValues(); v++) {
+                hash = mix(hash ^ attribute.value(v).hashCode());
+            }
+        }
+        hash = mix(hash ^ data.numInstances());
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            for (int j = 0; j < data.numAttributes(); j++) {
+                hash = mix(hash ^ Double.doubleToLongBits(instance.value(j)));
+            }
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,44 @@
+package main.algorithms.distance;
+
+/**
+ * Fallback kernels: one attribute at a time, in order.
+ */
+final class ScalarDistanceKernels extends DistanceKernels {
+
+    @Override
+    public boolean isVectorized() {
+        return false;
+    }
+
+    @Override
+    public double distance(Metric metric, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        double sum = 0;
+        if (metric == Metric.SQUARED_EUCLIDEAN) {
+            for (int j = 0; j < length; j++) {
+                double diff = x[xOffset + j] - y[yOffset + j];
+                sum += diff * diff;
+            }
+        } else {
+            for (int j = 0; j < length; j++) {
+                sum += Math.abs(x[xOffset + j] - y[yOffset + j]);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public float distance(Metric metric, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        float sum = 0;
+        if (metric == Metric.SQUARED_EUCLIDEAN) {
+            for (int j = 0; j < length; j++) {
+                float diff = x[xOffset + j] - y[yOffset + j];
+                sum += diff * diff;
+            }
+        } else {
+            for (int j = 0; j < length; j++) {
+                sum += Math.abs(x[xOffset + j] - y[yOffset + j]);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,134 @@
+package main.algorithms.distance;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels on the preferred vector width of the platform: whole lanes of differences are
+ * accumulated (fused multiply-add for Euclidean), reduced once, and the remainder of the row
+ * is finished with scalar code. One-to-many queries keep the query in registers when a row
+ * fits in a single vector, which is the common case for low-dimensional data.
+ *
+ * Only loaded when the jdk.incubator.vector module is resolved.
+ */
+final class VectorDistanceKernels extends DistanceKernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    VectorDistanceKernels() {
+        if (DOUBLES.length() < 2) {
+            throw new UnsupportedOperationException("No SIMD support for doubles");
+        }
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    public double distance(Metric metric, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int bound = DOUBLES.loopBound(length);
+        int j = 0;
+        double sum = 0;
+        if (metric == Metric.SQUARED_EUCLIDEAN) {
+            if (bound > 0) {
+                DoubleVector acc = DoubleVector.zero(DOUBLES);
+                for (; j < bound; j += DOUBLES.length()) {
+                    DoubleVector diff = DoubleVector.fromArray(DOUBLES, x, xOffset + j)
+                            .sub(DoubleVector.fromArray(DOUBLES, y, yOffset + j));
+                    acc = diff.fma(diff, acc);
+                }
+                sum = acc.reduceLanes(VectorOperators.ADD);
+            }
+            for (; j < length; j++) {
+                double diff = x[xOffset + j] - y[yOffset + j];
+                sum += diff * diff;
+            }
+        } else {
+            if (bound > 0) {
+                DoubleVector acc = DoubleVector.zero(DOUBLES);
+                for (; j < bound; j += DOUBLES.length()) {
+                    acc = acc.add(DoubleVector.fromArray(DOUBLES, x, xOffset + j)
+                            .sub(DoubleVector.fromArray(DOUBLES, y, yOffset + j)).abs());
+                }
+                sum = acc.reduceLanes(VectorOperators.ADD);
+            }
+            for (; j < length; j++) {
+                sum += Math.abs(x[xOffset + j] - y[yOffset + j]);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public float distance(Metric metric, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int bound = FLOATS.loopBound(length);
+        int j = 0;
+        float sum = 0;
+        if (metric == Metric.SQUARED_EUCLIDEAN) {
+            if (bound > 0) {
+                FloatVector acc = FloatVector.zero(FLOATS);
+                for (; j < bound; j += FLOATS.length()) {
+                    FloatVector diff = FloatVector.fromArray(FLOATS, x, xOffset + j)
+                            .sub(FloatVector.fromArray(FLOATS, y, yOffset + j));
+                    acc = diff.fma(diff, acc);
+                }
+                sum = acc.reduceLanes(VectorOperators.ADD);
+            }
+            for (; j < length; j++) {
+                float diff = x[xOffset + j] - y[yOffset + j];
+                sum += diff * diff;
+            }
+        } else {
+            if (bound > 0) {
+                FloatVector acc = FloatVector.zero(FLOATS);
+                for (; j < bound; j += FLOATS.length()) {
+                    acc = acc.add(FloatVector.fromArray(FLOATS, x, xOffset + j)
+                            .sub(FloatVector.fromArray(FLOATS, y, yOffset + j)).abs());
+                }
+                sum = acc.reduceLanes(VectorOperators.ADD);
+            }
+            for (; j < length; j++) {
+                sum += Math.abs(x[xOffset + j] - y[yOffset + j]);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public void oneToMany(Metric metric, double[] query, int queryOffset, double[] block, int count, int length,
+                          double[] out) {
+        if (length != DOUBLES.length()) {
+            super.oneToMany(metric, query, queryOffset, block, count, length, out);
+            return;
+        }
+        // Rows exactly one vector wide: load the query once
+        DoubleVector q = DoubleVector.fromArray(DOUBLES, query, queryOffset);
+        for (int i = 0; i < count; i++) {
+            DoubleVector diff = DoubleVector.fromArray(DOUBLES, block, i * length).sub(q);
+            out[i] = metric == Metric.SQUARED_EUCLIDEAN
+                    ? diff.mul(diff).reduceLanes(VectorOperators.ADD)
+                    : diff.abs().reduceLanes(VectorOperators.ADD);
+        }
+    }
+
+    @Override
+    public void oneToMany(Metric metric, float[] query, int queryOffset, float[] block, int count, int length,
+                          float[] out) {
+        if (length != FLOATS.length()) {
+            super.oneToMany(metric, query, queryOffset, block, count, length, out);
+            return;
+        }
+        FloatVector q = FloatVector.fromArray(FLOATS, query, queryOffset);
+        for (int i = 0; i < count; i++) {
+            FloatVector diff = FloatVector.fromArray(FLOATS, block, i * length).sub(q);
+            out[i] = metric == Metric.SQUARED_EUCLIDEAN
+                    ? diff.mul(diff).reduceLanes(VectorOperators.ADD)
+                    : diff.abs().reduceLanes(VectorOperators.ADD);
+        }
+    }
+}
@@ -723,7 +723,7 @@ private void showDBSCANParams() {
         if (option == JOptionPane.OK_OPTION) {
             try {
                 int numClusters = Integer.parseInt(numClustersField.getText());
-                int linkType = linkTypeCombo.getSelectedIndex() + 1;
+                int linkType = linkTypeCombo.getSelectedIndex(); // Same order as the CAHClusterer linkage types
                 
                 customParameters.put("numClusters", numClusters);
                 customParameters.put("linkType", linkType);
@@ -930,6 +930,8 @@ private void showDBSCANParams() {
 	                    } else {
 	                        cah = new CAHClusterer(3, 1); // Default: 3 clusters, COMPLETE linkage
 	                    }
+	                    // Same merges as Weka's, and the linkage matrix the dendrogram is drawn from
+	                    cah.setEngine(CAHClusterer.Engine.NATIVE);
 	
 	                    try {
 	                        cah.buildClusterer(data);
@@ -938,9 +940,8 @@ private void showDBSCANParams() {
 	                        resultsBuilder.append(cah.getModelSummary());
 	
 	                        // Visualize the dendrogram
-	                        ResultVisualizer vi = new ResultVisualizer();
 	                        JPanel dendrogramPanel = new JPanel(new BorderLayout());
-	                        vi.visualizeCAHDendrogram(data, cah, dendrogramPanel);
+	                        ResultVisualizer.visualizeCAHDendrogram(cah, dendrogramPanel);
 	
 	                        // Add the dendrogram visualization to the main panel
 	                        visualizationPanel.setLayout(new BorderLayout());
@@ -0,0 +1,280 @@
+package main.utils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+import main.algorithms.clustering.LinkageMatrix;
+
+/**
+ * Dendrogram drawn from a linkage matrix with a level of detail that follows the zoom.
+ *
+ * Each frame expands the highest merges first and stops at a fixed number of merges, so only
+ * the top levels of the tree are drawn; subtrees narrower than a few pixels, or left over when
+ * the budget is spent, are drawn as a single triangle labelled with their size, and subtrees
+ * outside the view are skipped. A frame therefore costs the same for 100 or 100,000 leaves.
+ *
+ * The mouse wheel zooms around the pointer and dragging pans. Double-clicking a collapsed
+ * subtree zooms to it, double-clicking anywhere else shows the whole tree again. The height
+ * axis is scaled to the smallest subtree holding the whole view.
+ */
+public class DendrogramPanel extends JPanel {
+
+    private static final int MAX_MERGES = 2000;  // Merges expanded per frame
+    private static final double MIN_WIDTH = 6;   // Narrower subtrees are collapsed, in pixels
+    private static final int MARGIN = 20;
+    private static final int LABEL_HEIGHT = 80;
+    private static final double ZOOM_STEP = 1.25;
+    // Opaque fill: translucent polygons are several times slower to draw
+    private static final Color SUBTREE_FILL = new Color(193, 214, 232);
+    private static final Color SUBTREE_LINE = new Color(70, 130, 180);
+
+    private final LinkageMatrix linkage;
+    private final IntFunction<String> labels;
+    private final int n;
+    private final int root;
+    private final int[] start;    // First leaf position of each cluster id
+    private final double[] x;     // Horizontal position of each cluster id, in leaves
+
+    // Visible leaf positions
+    private double viewStart;
+    private double viewEnd;
+
+    // Subtrees collapsed in the last frame, for double-clicks
+    private int[] collapsed = new int[64];
+    private int numCollapsed;
+
+    private int dragX;
+
+    /**
+     * @param labels label of each instance, or null to draw no labels
+     */
+    public DendrogramPanel(LinkageMatrix linkage, IntFunction<String> labels) {
+        this.linkage = linkage;
+        this.labels = labels;
+        this.n = linkage.getNumInstances();
+        this.root = n + linkage.getNumMerges() - 1;
+
+        // Leaves are laid out left to right, the first cluster of each merge on the left
+        start = new int[root + 1];
+        for (int c = root; c >= n; c--) {
+            int first = linkage.getFirst(c - n);
+            start[first] = start[c];
+            start[linkage.getSecond(c - n)] = start[c] + size(first);
+        }
+        x = new double[root + 1];
+        for (int i = 0; i < n; i++) {
+            x[i] = start[i] + 0.5;
+        }
+        for (int m = 0; m < linkage.getNumMerges(); m++) {
+            x[n + m] = (x[linkage.getFirst(m)] + x[linkage.getSecond(m)]) / 2;
+        }
+
+        setBackground(Color.WHITE);
+        setPreferredSize(new Dimension(800, 500));
+        fitToScreen();
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                double shift = (dragX - e.getX()) * (viewEnd - viewStart) / plotWidth();
+                dragX = e.getX();
+                setView(viewStart + shift, viewEnd + shift);
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX());
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    int cluster = collapsedAt(e.getX(), e.getY());
+                    if (cluster < 0) {
+                        fitToScreen();
+                    } else {
+                        double margin = size(cluster) * 0.05;
+                        setView(start[cluster] - margin, start[cluster] + size(cluster) + margin);
+                    }
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    public void fitToScreen() {
+        setView(0, n);
+    }
+
+    /**
+     * Zooms in by the factor, or out below 1, around the center of the view.
+     */
+    public void zoom(double factor) {
+        zoom(factor, (int) (MARGIN + plotWidth() / 2));
+    }
+
+    private void zoom(double factor, int pixel) {
+        double anchor = toLeaves(pixel);
+        setView(anchor - (anchor - viewStart) / factor, anchor + (viewEnd - anchor) / factor);
+    }
+
+    // Keeps at least one leaf and at most the whole tree in view
+    private void setView(double from, double to) {
+        double width = Math.min(n, Math.max(1, to - from));
+        from = Math.max(0, Math.min(n - width, from));
+        viewStart = from;
+        viewEnd = from + width;
+        repaint();
+    }
+
+    private int size(int cluster) {
+        return cluster < n ? 1 : linkage.getSize(cluster - n);
+    }
+
+    private double height(int cluster) {
+        return cluster < n ? 0 : linkage.getHeight(cluster - n);
+    }
+
+    private double plotWidth() {
+        return Math.max(1, getWidth() - 2 * MARGIN);
+    }
+
+    private double toLeaves(int pixel) {
+        return viewStart + (pixel - MARGIN) * (viewEnd - viewStart) / plotWidth();
+    }
+
+    // Pixel of a leaf position, clamped so that far away points stay in int range
+    private int toPixel(double position) {
+        double pixel = MARGIN + (position - viewStart) * plotWidth() / (viewEnd - viewStart);
+        return (int) Math.round(Math.max(-1e5, Math.min(1e5, pixel)));
+    }
+
+    // Smallest subtree holding the whole view
+    private int viewRoot() {
+        int cluster = root;
+        while (cluster >= n) {
+            int first = linkage.getFirst(cluster - n);
+            int second = linkage.getSecond(cluster - n);
+            if (start[first] <= viewStart && start[first] + size(first) >= viewEnd) {
+                cluster = first;
+            } else if (start[second] <= viewStart && start[second] + size(second) >= viewEnd) {
+                cluster = second;
+            } else {
+                break;
+            }
+        }
+        return cluster;
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        super.paintComponent(graphics);
+        Graphics2D g = (Graphics2D) graphics;
+        int top = MARGIN;
+        int bottom = getHeight() - MARGIN - (labels != null ? LABEL_HEIGHT : 0);
+        if (bottom <= top) {
+            return;
+        }
+        double maxHeight = height(viewRoot());
+        double scale = maxHeight > 0 ? (bottom - top) / maxHeight : 0;
+        int left = MARGIN;
+        int right = getWidth() - MARGIN;
+        FontMetrics metrics = g.getFontMetrics();
+        boolean drawLabels = labels != null && plotWidth() / (viewEnd - viewStart) >= metrics.getHeight();
+
+        numCollapsed = 0;
+        int expanded = 0;
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> Double.compare(height(b), height(a)));
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            int cluster = queue.poll();
+            int from = toPixel(start[cluster]);
+            int to = toPixel(start[cluster] + size(cluster));
+            if (to < left || from > right) {
+                continue;
+            }
+            int y = (int) Math.round(bottom - Math.min(height(cluster), maxHeight) * scale);
+            if (cluster < n) {
+                if (drawLabels) {
+                    drawLabel(g, labels.apply(cluster), toPixel(x[cluster]), bottom, metrics);
+                }
+                continue;
+            }
+            if (to - from < MIN_WIDTH || expanded >= MAX_MERGES) {
+                drawCollapsed(g, cluster, toPixel(x[cluster]), y, from, to, bottom, metrics);
+                continue;
+            }
+
+            // The merge line and the branch down to each child
+            expanded++;
+            int first = linkage.getFirst(cluster - n);
+            int second = linkage.getSecond(cluster - n);
+            int x1 = toPixel(x[first]);
+            int x2 = toPixel(x[second]);
+            g.setColor(Color.DARK_GRAY);
+            g.drawLine(x1, y, x2, y);
+            g.drawLine(x1, y, x1, (int) Math.round(bottom - Math.min(height(first), maxHeight) * scale));
+            g.drawLine(x2, y, x2, (int) Math.round(bottom - Math.min(height(second), maxHeight) * scale));
+            queue.add(first);
+            queue.add(second);
+        }
+    }
+
+    private void drawCollapsed(Graphics2D g, int cluster, int apex, int y, int from, int to, int bottom,
+                               FontMetrics metrics) {
+        if (numCollapsed == collapsed.length) {
+            collapsed = Arrays.copyOf(collapsed, numCollapsed * 2);
+        }
+        collapsed[numCollapsed++] = cluster;
+        Polygon triangle = new Polygon(new int[]{apex, to, from}, new int[]{y, bottom, bottom}, 3);
+        g.setColor(SUBTREE_FILL);
+        g.fillPolygon(triangle);
+        g.setColor(SUBTREE_LINE);
+        g.drawPolygon(triangle);
+        String text = String.valueOf(size(cluster));
+        if (metrics.stringWidth(text) + 4 < to - from) {
+            g.setColor(Color.BLACK);
+            g.drawString(text, (from + to - metrics.stringWidth(text)) / 2, bottom - 2);
+        }
+    }
+
+    // Leaf labels are written downwards below the axis
+    private void drawLabel(Graphics2D g, String label, int position, int bottom, FontMetrics metrics) {
+        while (label.length() > 1 && metrics.stringWidth(label) > LABEL_HEIGHT - 4) {
+            label = label.substring(0, label.length() - 1);
+        }
+        AffineTransform saved = g.getTransform();
+        g.translate(position + metrics.getAscent() / 2, bottom + 4);
+        g.rotate(Math.PI / 2);
+        g.setColor(Color.BLACK);
+        g.drawString(label, 0, 0);
+        g.setTransform(saved);
+    }
+
+    // Collapsed subtree of the last frame whose triangle spans the point, -1 if none
+    private int collapsedAt(int px, int py) {
+        int bottom = getHeight() - MARGIN - (labels != null ? LABEL_HEIGHT : 0);
+        for (int c = 0; c < numCollapsed; c++) {
+            int cluster = collapsed[c];
+            if (px >= toPixel(start[cluster]) && px <= toPixel(start[cluster] + size(cluster))
+                    && py >= MARGIN && py <= bottom) {
+                return cluster;
+            }
+        }
+        return -1;
+    }
+}
@@ -8,17 +8,18 @@ import weka.core.Instances;
 import weka.gui.treevisualizer.PlaceNode2;
 import weka.gui.treevisualizer.TreeVisualizer;
 import java.awt.*;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
 
-import weka.gui.hierarchyvisualizer.HierarchyVisualizer;
 import weka.gui.treevisualizer.NodePlace;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 
 import main.algorithms.clustering.CAHClusterer;
+import main.algorithms.clustering.NewickWriter;
 
 public class ResultVisualizer {
 	 private JPanel panel;
@@ -87,18 +88,27 @@ public class ResultVisualizer {
 	        }
 	    }
 
-	    public static void visualizeCAHDendrogram(Instances data, CAHClusterer cahClusterer, JPanel targetPanel) {
+	    // Draws the dendrogram of an already built clusterer; with the Weka engine its linkage
+	    // matrix is computed once by the native engine and kept for later cuts
+	    public static void visualizeCAHDendrogram(CAHClusterer cahClusterer, JPanel targetPanel) {
 	        try {
-	            // Build the clusterer with the provided dataset
-	            cahClusterer.buildClusterer(data);
+	            // Draw the dendrogram from the merge history, top levels first
+	            NewickWriter labels = cahClusterer.getNewickWriter();
+	            DendrogramPanel dendrogram = new DendrogramPanel(cahClusterer.getLinkageMatrix(), labels::label);
+	            targetPanel.add(dendrogram, BorderLayout.CENTER);
 
-	            // Retrieve the Newick tree
-	            String newickTree = cahClusterer.getDendrogramNewick();
-	            System.out.println("Newick Tree:\n" + newickTree);
-
-	            // Create the HierarchyVisualizer and add it to the target panel
-	            HierarchyVisualizer visualizer = new HierarchyVisualizer(newickTree);
-	            targetPanel.add(visualizer, BorderLayout.CENTER);
+	            // Add controls for zooming and fitting
+	            JPanel controls = new JPanel();
+	            JButton zoomIn = new JButton("+");
+	            JButton zoomOut = new JButton("-");
+	            JButton fit = new JButton("Fit");
+	            zoomIn.addActionListener(e -> dendrogram.zoom(1.5));
+	            zoomOut.addActionListener(e -> dendrogram.zoom(1 / 1.5));
+	            fit.addActionListener(e -> dendrogram.fitToScreen());
+	            controls.add(zoomIn);
+	            controls.add(zoomOut);
+	            controls.add(fit);
+	            targetPanel.add(controls, BorderLayout.SOUTH);
 
 	        } catch (Exception e) {
 	            System.err.println("Error during dendrogram visualization: " + e.getMessage());
@@ -106,20 +116,13 @@ public class ResultVisualizer {
 	        }
 	    }
 
-	    public static void visualizeCAHDendrogram(Instances data, CAHClusterer cahClusterer) {
+	    // Writes the Newick tree of an already built clusterer to a file rather than the console,
+	    // where a tree of every instance would flood the output
+	    public static void saveCAHDendrogram(CAHClusterer cahClusterer, File newickFile) {
 	        try {
-	            // Step 1: Build the clusterer with the provided dataset
-	            cahClusterer.buildClusterer(data);
-
-	            // Step 2: Retrieve the Newick tree
-	            String newickTree = cahClusterer.getDendrogramNewick();
-	            System.out.println("Newick Tree:\n" + newickTree);
-
-	            // Step 3: Visualize the dendrogram using HierarchyVisualizer
-	           // JFrame frame = new JFrame("CAH Dendrogram Visualization");
-	            HierarchyVisualizer visualizer = new HierarchyVisualizer(newickTree);
+	            cahClusterer.saveDendrogramNewick(newickFile);
+	            System.out.println("Newick tree written to " + newickFile.getPath());
 
-	
 	        } catch (Exception e) {
 	            System.err.println("Error during dendrogram visualization: " + e.getMessage());
 	            e.printStackTrace();